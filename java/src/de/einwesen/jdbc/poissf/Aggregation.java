@@ -0,0 +1,638 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * Computes <code>COUNT SUM AVG MIN MAX</code> of a {@link SelectStatement}, per group of its GROUP BY columns.
+ *
+ * The rows are processed in batches: the cells of the columns needed are copied into primitive arrays first,
+ * then the group of each row is looked up in an open addressing hash table on the primitive cell values,
+ * and the aggregates are updated column by column in arrays indexed by group.
+ * Strings are represented by their index in a dictionary, so no objects are created per row.
+ *
+ * A sheet held as a {@link SheetSnapshot} is split into ranges of rows which are aggregated by the threads of the driver,
+ * the partial results are merged afterwards. Only the groups are returned, in the order they were found.
+ */
+/* package-private */ class Aggregation {
+
+	private static final int COUNT = 0;
+	private static final int SUM = 1;
+	private static final int AVG = 2;
+	private static final int MIN = 3;
+	private static final int MAX = 4;
+	/** names of the functions, by their constant */
+	private static final List<String> FUNCTIONS = Arrays.asList("COUNT", "SUM", "AVG", "MIN", "MAX");
+
+	private static final int BATCH_SIZE = 1024;
+	/** rows of a snapshot aggregated by one thread at least */
+	private static final int MIN_RANGE_SIZE = 16 * 1024;
+
+	/** distinct columns of the sheet read per row */
+	private final int[] inputColumns;
+	/** index in {@link #inputColumns} of each GROUP BY column */
+	private final int[] groupInputs;
+	private final int[] functions;
+	/** index in {@link #inputColumns} of the argument of each aggregate, -1 for <code>COUNT(*)</code> */
+	private final int[] aggregateInputs;
+	/** for each column of the select list the index of its GROUP BY column, or <code>-(aggregate + 1)</code> */
+	private final int[] outputs;
+	private final String[] labels;
+
+	/**
+	 * @param header column indexes by the lower case names in the first row of the sheet,
+	 * 		only needed if {@link SelectStatement#hasHeaderNames()}
+	 */
+	/* package-private */ Aggregation(SelectStatement statement, Map<String, Integer> header) throws SQLException {
+		final List<Integer> inputs = new ArrayList<Integer>();
+
+		final List<SelectStatement.Column> groupBy = statement.getGroupBy();
+		final int[] groupColumns = new int[groupBy.size()];
+		this.groupInputs = new int[groupBy.size()];
+		for (int g=0; g < groupColumns.length; g++) {
+			groupColumns[g] = resolve(groupBy.get(g), header);
+			this.groupInputs[g] = input(inputs, groupColumns[g]);
+		}
+
+		final List<SelectStatement.Column> selectList = statement.getColumns();
+		final List<Integer> functions = new ArrayList<Integer>();
+		final List<Integer> aggregateInputs = new ArrayList<Integer>();
+		this.outputs = new int[selectList.size()];
+		this.labels = new String[selectList.size()];
+		for (int i=0; i < this.outputs.length; i++) {
+			final SelectStatement.Column c = selectList.get(i);
+			this.labels[i] = c.getLabel();
+			if (c.getFunction() != null) {
+				functions.add(Integer.valueOf(FUNCTIONS.indexOf(c.getFunction())));
+				aggregateInputs.add(Integer.valueOf(c.getName() != null ? input(inputs, resolve(c, header)) : -1));
+				this.outputs[i] = -functions.size();
+			} else {
+				final int column = c.isAll() ? -1 : resolve(c, header);
+				int group = groupColumns.length - 1;
+				while (group >= 0 && groupColumns[group] != column) {
+					group--;
+				}
+				if (group < 0) {
+					throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_GROUPED, c.isAll() ? "*" : c.getName()));
+				}
+				this.outputs[i] = group;
+			}
+		}
+
+		this.functions = toArray(functions);
+		this.aggregateInputs = toArray(aggregateInputs);
+		this.inputColumns = toArray(inputs);
+	}
+
+	private static int resolve(SelectStatement.Column c, Map<String, Integer> header) throws SQLException {
+		final int index = c.getIndex(header);
+		if (index < 0) {
+			throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_FOUND, c.getName()));
+		}
+		return index;
+	}
+
+	private static int input(List<Integer> inputs, int column) {
+		final int index = inputs.indexOf(Integer.valueOf(column));
+		if (index >= 0) {
+			return index;
+		}
+		inputs.add(Integer.valueOf(column));
+		return inputs.size() - 1;
+	}
+
+	/**
+	 * Hash of a key of primitive cell values, as kept in the hash tables of groups and joins.
+	 */
+	/* package-private */ static int hash(long[] key, int offset, int width) {
+		long h = 1;
+		for (int i=0; i < width; i++) {
+			h = 31 * h + key[offset + i];
+		}
+		// the bits of doubles differ in their upper half, so all bits have to be mixed into the lower ones
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return (int)(h ^ (h >>> 33));
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		final int[] result = new int[list.size()];
+		for (int i=0; i < result.length; i++) {
+			result[i] = list.get(i).intValue();
+		}
+		return result;
+	}
+
+	/**
+	 * @return the columns of the sheet needed, without those of the WHERE clause
+	 */
+	/* package-private */ BitSet getUsedColumns() {
+		final BitSet used = new BitSet();
+		for (int column : this.inputColumns) {
+			used.set(column);
+		}
+		return used;
+	}
+
+	/**
+	 * @return the names of the columns of the result
+	 */
+	/* package-private */ String[] getLabels() {
+		return this.labels;
+	}
+
+	/**
+	 * Reads all rows of the source matching the condition, the source is not closed.
+	 *
+	 * @param where bound to the columns of the source, <code>null</code> for all rows
+	 * @param parameters values of the parameters of the condition, <code>null</code> if it has none
+	 * @return one row per group, or exactly one row without GROUP BY
+	 */
+	/* package-private */ MaterializedSheetCursor aggregate(SheetCursor source, Condition where, Parameters parameters) throws SQLException {
+		final int columnCount = source.getColumnCount();
+		for (int column : this.inputColumns) {
+			if (column >= columnCount) {
+				throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_FOUND, CellReference.convertNumToColString(column)));
+			}
+		}
+
+		final Groups groups;
+		if (source instanceof SnapshotSheetCursor) {
+			final SheetSnapshot snapshot = ((SnapshotSheetCursor)source).getSnapshot();
+			groups = aggregate(snapshot, 0, snapshot.getRowCount(), where, parameters);
+		} else if (source instanceof LimitedSheetCursor && ((LimitedSheetCursor)source).getSource() instanceof SnapshotSheetCursor) {
+			// rows below a header row
+			final LimitedSheetCursor limited = (LimitedSheetCursor)source;
+			final SheetSnapshot snapshot = ((SnapshotSheetCursor)limited.getSource()).getSnapshot();
+			final int from = Math.min(limited.getOffset(), snapshot.getRowCount());
+			groups = aggregate(snapshot, from, (int)Math.min(snapshot.getRowCount(), (long)from + limited.getLimit()), where, parameters);
+		} else {
+			groups = aggregateRows(where != null ? new FilteredSheetCursor(source, where, parameters) : source);
+		}
+		return groups.toCursor(source.getTableName());
+	}
+
+	private Groups aggregateRows(SheetCursor source) throws SQLException {
+		final Groups groups = new Groups(new ArrayList<String>(), new HashMap<String, Integer>());
+		final Batch batch = new Batch(this.inputColumns.length);
+
+		int row = 0;
+		while (source.moveTo(row++)) {
+			final int i = batch.size++;
+			for (int k=0; k < this.inputColumns.length; k++) {
+				final int column = this.inputColumns[k];
+				final int type = source.getCellType(column);
+				batch.types[k][i] = (byte)type;
+				batch.dateFormatted[k][i] = false;
+				switch (type) {
+					case Cell.CELL_TYPE_NUMERIC:
+						batch.numbers[k][i] = source.getNumericCellValue(column);
+						batch.dateFormatted[k][i] = source.isCellDateFormatted(column);
+						break;
+					case Cell.CELL_TYPE_BOOLEAN:
+						batch.numbers[k][i] = source.getBooleanCellValue(column) ? 1 : 0;
+						break;
+					case Cell.CELL_TYPE_ERROR:
+						batch.numbers[k][i] = source.getErrorCellValue(column);
+						break;
+					case Cell.CELL_TYPE_STRING:
+						batch.strings[k][i] = groups.addString(source.getStringCellValue(column));
+						break;
+					default:
+						batch.types[k][i] = Cell.CELL_TYPE_BLANK;
+						break;
+				}
+			}
+
+			if (batch.size == BATCH_SIZE) {
+				groups.add(batch);
+				batch.size = 0;
+			}
+		}
+		groups.add(batch);
+		return groups;
+	}
+
+	/**
+	 * @param first first row of the snapshot aggregated
+	 * @param end row after the last one aggregated
+	 */
+	private Groups aggregate(final SheetSnapshot snapshot, int first, int end, final Condition where, final Parameters parameters) throws SQLException {
+		final int rowCount = end - first;
+		final int rangeCount = Math.max(1, Math.min(PoiSSFDriver.getThreadCount(), rowCount / MIN_RANGE_SIZE));
+		if (rangeCount == 1) {
+			return aggregateRange(snapshot, first, end, where, parameters);
+		}
+
+		final ExecutorService executor = PoiSSFDriver.getExecutor();
+		final List<Future<Groups>> futures = new ArrayList<Future<Groups>>(rangeCount);
+		for (int r=0; r < rangeCount; r++) {
+			final int from = first + (int)((long)rowCount * r / rangeCount);
+			final int to = first + (int)((long)rowCount * (r + 1) / rangeCount);
+			futures.add(executor.submit(new Callable<Groups>() {
+				@Override
+				public Groups call() throws Exception {
+					return aggregateRange(snapshot, from, to, where, parameters);
+				}
+			}));
+		}
+
+		try {
+			Groups groups = null;
+			for (Future<Groups> f : futures) {
+				try {
+					if (groups == null) {
+						groups = f.get();
+					} else {
+						groups.merge(f.get());
+					}
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof SQLException) {
+						throw (SQLException)e.getCause();
+					}
+					throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e.getCause());
+				}
+			}
+			return groups;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		} finally {
+			for (Future<Groups> f : futures) {
+				f.cancel(true);
+			}
+		}
+	}
+
+	private Groups aggregateRange(final SheetSnapshot snapshot, int from, int to, Condition where, Parameters parameters) throws SQLException {
+		final List<String> dictionary = new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				return snapshot.getDictionaryString(index);
+			}
+
+			@Override
+			public int size() {
+				return snapshot.getDictionarySize();
+			}
+		};
+		final Groups groups = new Groups(dictionary, null);
+		final Batch batch = new Batch(this.inputColumns.length);
+		final SnapshotSheetCursor cursor = where != null ? new SnapshotSheetCursor(snapshot) : null;
+
+		for (int row=from; row < to; row++) {
+			if (cursor != null) {
+				cursor.moveTo(row);
+				if (!where.matches(cursor, parameters)) {
+					continue;
+				}
+			}
+
+			batch.rows[batch.size++] = row;
+			if (batch.size == BATCH_SIZE) {
+				readBatch(snapshot, batch);
+				groups.add(batch);
+				batch.size = 0;
+			}
+		}
+		readBatch(snapshot, batch);
+		groups.add(batch);
+		return groups;
+	}
+
+	private void readBatch(SheetSnapshot snapshot, Batch batch) {
+		for (int k=0; k < this.inputColumns.length; k++) {
+			snapshot.readColumn(this.inputColumns[k], batch.rows, batch.size, batch.types[k], batch.dateFormatted[k], batch.numbers[k], batch.strings[k]);
+		}
+	}
+
+	/**
+	 * Cells of some rows, per column read.
+	 */
+	private static class Batch {
+		private int size = 0;
+		/** rows of the snapshot, if read from a snapshot */
+		private final int[] rows = new int[BATCH_SIZE];
+		private final byte[][] types;
+		private final boolean[][] dateFormatted;
+		private final double[][] numbers;
+		private final int[][] strings;
+
+		private Batch(int columnCount) {
+			this.types = new byte[columnCount][BATCH_SIZE];
+			this.dateFormatted = new boolean[columnCount][BATCH_SIZE];
+			this.numbers = new double[columnCount][BATCH_SIZE];
+			this.strings = new int[columnCount][BATCH_SIZE];
+		}
+	}
+
+	/**
+	 * Hash table of the groups found, with the aggregates of each.
+	 *
+	 * The key of a group is a pair of longs per GROUP BY column: the type of the cell and the bits of its value,
+	 * i.e. the index of a string or the bits of the double of any other value.
+	 */
+	private class Groups {
+		/** strings the string indexes refer to */
+		private final List<String> strings;
+		/** only if strings are added while aggregating */
+		private final Map<String, Integer> stringIndex;
+
+		private final int keyWidth = 2 * Aggregation.this.groupInputs.length;
+		private final long[] rowKey = new long[this.keyWidth];
+		private final boolean[] rowDateFormatted = new boolean[Aggregation.this.groupInputs.length];
+		private final int[] rowGroups = new int[BATCH_SIZE];
+
+		private int groupCount = 0;
+		private int capacity = 16;
+		/** group + 1 by hash, 0 for free slots */
+		private int[] slots = new int[64];
+		private long[] keys = new long[this.capacity * this.keyWidth];
+		private boolean[] keyDateFormatted = new boolean[this.capacity * Aggregation.this.groupInputs.length];
+
+		/** per aggregate: number of values, numeric values only except for COUNT */
+		private final long[][] counts = new long[Aggregation.this.functions.length][];
+		/** per aggregate: sum, minimum or maximum of the numeric values */
+		private final double[][] values = new double[Aggregation.this.functions.length][];
+		private final boolean[][] valueDateFormatted = new boolean[Aggregation.this.functions.length][];
+		/** per aggregate: index of the minimum or maximum string, -1 for none */
+		private final int[][] valueStrings = new int[Aggregation.this.functions.length][];
+
+		private Groups(List<String> strings, Map<String, Integer> stringIndex) {
+			this.strings = strings;
+			this.stringIndex = stringIndex;
+
+			for (int a=0; a < this.counts.length; a++) {
+				this.counts[a] = new long[this.capacity];
+				this.values[a] = new double[this.capacity];
+				this.valueDateFormatted[a] = new boolean[this.capacity];
+				this.valueStrings[a] = new int[this.capacity];
+			}
+
+			if (this.keyWidth == 0) {
+				// without GROUP BY there is a result, even if no row matches
+				findOrAdd();
+			}
+		}
+
+		private int addString(String value) {
+			Integer index = this.stringIndex.get(value);
+			if (index == null) {
+				index = Integer.valueOf(this.strings.size());
+				this.stringIndex.put(value, index);
+				this.strings.add(value);
+			}
+			return index.intValue();
+		}
+
+		private void add(Batch batch) {
+			final int[] groupInputs = Aggregation.this.groupInputs;
+			for (int i=0; i < batch.size; i++) {
+				if (this.keyWidth == 0) {
+					this.rowGroups[i] = 0;
+					continue;
+				}
+				for (int g=0; g < groupInputs.length; g++) {
+					final int k = groupInputs[g];
+					final byte type = batch.types[k][i];
+					this.rowKey[2 * g] = type;
+					if (type == Cell.CELL_TYPE_STRING) {
+						this.rowKey[2 * g + 1] = batch.strings[k][i];
+					} else if (type == Cell.CELL_TYPE_BLANK) {
+						this.rowKey[2 * g + 1] = 0;
+					} else {
+						// 0.0 and -0.0 are the same group
+						final double d = batch.numbers[k][i];
+						this.rowKey[2 * g + 1] = d == 0 ? 0 : Double.doubleToLongBits(d);
+					}
+					this.rowDateFormatted[g] = batch.dateFormatted[k][i];
+				}
+				this.rowGroups[i] = findOrAdd();
+			}
+
+			for (int a=0; a < Aggregation.this.functions.length; a++) {
+				final int function = Aggregation.this.functions[a];
+				final int input = Aggregation.this.aggregateInputs[a];
+				final long[] counts = this.counts[a];
+				if (input < 0) {
+					for (int i=0; i < batch.size; i++) {
+						counts[this.rowGroups[i]]++;
+					}
+					continue;
+				}
+
+				final byte[] types = batch.types[input];
+				final double[] numbers = batch.numbers[input];
+				if (function == COUNT) {
+					for (int i=0; i < batch.size; i++) {
+						if (types[i] != Cell.CELL_TYPE_BLANK) {
+							counts[this.rowGroups[i]]++;
+						}
+					}
+				} else if (function == SUM || function == AVG) {
+					final double[] sums = this.values[a];
+					for (int i=0; i < batch.size; i++) {
+						if (types[i] == Cell.CELL_TYPE_NUMERIC) {
+							sums[this.rowGroups[i]] += numbers[i];
+							counts[this.rowGroups[i]]++;
+						}
+					}
+				} else {
+					for (int i=0; i < batch.size; i++) {
+						if (types[i] == Cell.CELL_TYPE_NUMERIC) {
+							updateNumber(a, this.rowGroups[i], numbers[i], batch.dateFormatted[input][i], 1);
+						} else if (types[i] == Cell.CELL_TYPE_STRING) {
+							updateString(a, this.rowGroups[i], batch.strings[input][i]);
+						}
+					}
+				}
+			}
+		}
+
+		private void updateNumber(int aggregate, int group, double value, boolean dateFormatted, long count) {
+			final double[] values = this.values[aggregate];
+			if (this.counts[aggregate][group] == 0
+					|| (Aggregation.this.functions[aggregate] == MIN ? value < values[group] : value > values[group])) {
+				values[group] = value;
+				this.valueDateFormatted[aggregate][group] = dateFormatted;
+			}
+			this.counts[aggregate][group] += count;
+		}
+
+		private void updateString(int aggregate, int group, int string) {
+			final int current = this.valueStrings[aggregate][group];
+			if (current != string) {
+				final int compared = current < 0 ? 0 : this.strings.get(string).compareTo(this.strings.get(current));
+				if (current < 0 || (Aggregation.this.functions[aggregate] == MIN ? compared < 0 : compared > 0)) {
+					this.valueStrings[aggregate][group] = string;
+				}
+			}
+		}
+
+		/**
+		 * Adds the groups of another range of the same snapshot.
+		 */
+		private void merge(Groups other) {
+			final int groupColumns = Aggregation.this.groupInputs.length;
+			for (int og=0; og < other.groupCount; og++) {
+				System.arraycopy(other.keys, og * this.keyWidth, this.rowKey, 0, this.keyWidth);
+				System.arraycopy(other.keyDateFormatted, og * groupColumns, this.rowDateFormatted, 0, groupColumns);
+				final int group = findOrAdd();
+
+				for (int a=0; a < Aggregation.this.functions.length; a++) {
+					final int function = Aggregation.this.functions[a];
+					final long count = other.counts[a][og];
+					if (function == COUNT) {
+						this.counts[a][group] += count;
+					} else if (function == SUM || function == AVG) {
+						this.values[a][group] += other.values[a][og];
+						this.counts[a][group] += count;
+					} else {
+						if (count > 0) {
+							updateNumber(a, group, other.values[a][og], other.valueDateFormatted[a][og], count);
+						}
+						if (other.valueStrings[a][og] >= 0) {
+							updateString(a, group, other.valueStrings[a][og]);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return the group of {@link #rowKey}, added if it is new
+		 */
+		private int findOrAdd() {
+			final int mask = this.slots.length - 1;
+			int slot = hash(this.rowKey, 0, this.keyWidth) & mask;
+			while (this.slots[slot] != 0) {
+				final int group = this.slots[slot] - 1;
+				final int offset = group * this.keyWidth;
+				int i = 0;
+				while (i < this.keyWidth && this.keys[offset + i] == this.rowKey[i]) {
+					i++;
+				}
+				if (i == this.keyWidth) {
+					return group;
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			if (this.groupCount == this.capacity) {
+				grow();
+			}
+			final int group = this.groupCount++;
+			System.arraycopy(this.rowKey, 0, this.keys, group * this.keyWidth, this.keyWidth);
+			System.arraycopy(this.rowDateFormatted, 0, this.keyDateFormatted, group * this.rowDateFormatted.length, this.rowDateFormatted.length);
+			for (int a=0; a < this.valueStrings.length; a++) {
+				this.valueStrings[a][group] = -1;
+			}
+			this.slots[slot] = group + 1;
+
+			if (this.groupCount * 2 > this.slots.length) {
+				rehash();
+			}
+			return group;
+		}
+
+		private void grow() {
+			this.capacity *= 2;
+			this.keys = Arrays.copyOf(this.keys, this.capacity * this.keyWidth);
+			this.keyDateFormatted = Arrays.copyOf(this.keyDateFormatted, this.capacity * this.rowDateFormatted.length);
+			for (int a=0; a < this.counts.length; a++) {
+				this.counts[a] = Arrays.copyOf(this.counts[a], this.capacity);
+				this.values[a] = Arrays.copyOf(this.values[a], this.capacity);
+				this.valueDateFormatted[a] = Arrays.copyOf(this.valueDateFormatted[a], this.capacity);
+				this.valueStrings[a] = Arrays.copyOf(this.valueStrings[a], this.capacity);
+			}
+		}
+
+		private void rehash() {
+			this.slots = new int[this.slots.length * 2];
+			final int mask = this.slots.length - 1;
+			for (int group=0; group < this.groupCount; group++) {
+				int slot = hash(this.keys, group * this.keyWidth, this.keyWidth) & mask;
+				while (this.slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				this.slots[slot] = group + 1;
+			}
+		}
+
+		private MaterializedSheetCursor toCursor(String tableName) {
+			final int[] outputs = Aggregation.this.outputs;
+			final int groupColumns = Aggregation.this.groupInputs.length;
+			final MaterializedSheetCursor result = new MaterializedSheetCursor(tableName, outputs.length);
+
+			for (int group=0; group < this.groupCount; group++) {
+				final int row = result.addRow();
+				for (int c=0; c < outputs.length; c++) {
+					if (outputs[c] >= 0) {
+						final int offset = group * this.keyWidth + 2 * outputs[c];
+						final long bits = this.keys[offset + 1];
+						switch ((int)this.keys[offset]) {
+							case Cell.CELL_TYPE_NUMERIC:
+								result.setNumericCellValue(row, c, Double.longBitsToDouble(bits), this.keyDateFormatted[group * groupColumns + outputs[c]]);
+								break;
+							case Cell.CELL_TYPE_STRING:
+								result.setStringCellValue(row, c, this.strings.get((int)bits));
+								break;
+							case Cell.CELL_TYPE_BOOLEAN:
+								result.setBooleanCellValue(row, c, Double.longBitsToDouble(bits) != 0);
+								break;
+							case Cell.CELL_TYPE_ERROR:
+								result.setErrorCellValue(row, c, (byte)Double.longBitsToDouble(bits));
+								break;
+							default:
+								// stays blank
+								break;
+						}
+						continue;
+					}
+
+					final int a = -outputs[c] - 1;
+					final long count = this.counts[a][group];
+					switch (Aggregation.this.functions[a]) {
+						case COUNT:
+							result.setNumericCellValue(row, c, count, false);
+							break;
+						case SUM:
+							if (count > 0) {
+								result.setNumericCellValue(row, c, this.values[a][group], false);
+							}
+							break;
+						case AVG:
+							if (count > 0) {
+								result.setNumericCellValue(row, c, this.values[a][group] / count, false);
+							}
+							break;
+						default:
+							// numbers sort before strings, as in Excel
+							final int string = this.valueStrings[a][group];
+							if (count > 0 && (Aggregation.this.functions[a] == MIN || string < 0)) {
+								result.setNumericCellValue(row, c, this.values[a][group], this.valueDateFormatted[a][group]);
+							} else if (string >= 0) {
+								result.setStringCellValue(row, c, this.strings.get(string));
+							}
+							break;
+					}
+				}
+			}
+			return result;
+		}
+	}
+
+}
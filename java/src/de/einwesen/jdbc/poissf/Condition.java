@@ -0,0 +1,565 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.poi.ss.usermodel.Cell;
+
+/**
+ * WHERE clause, evaluated on the current row of a {@link SheetCursor} with SQL's three valued logic.
+ *
+ * Conditions are parsed with the columns unresolved, {@link #bind(Map)} returns a copy
+ * with the columns looked up. A bound condition is shared by all executions of a plan, also by concurrent ones,
+ * the values of the parameters are passed along with each row.
+ */
+/* package-private */ abstract class Condition {
+
+	/* package-private */ static final int FALSE = 0;
+	/* package-private */ static final int TRUE = 1;
+	/* package-private */ static final int UNKNOWN = 2;
+
+	/**
+	 * @param parameters values of the parameters of the execution, <code>null</code> if the statement has none
+	 * @return {@link #TRUE}, {@link #FALSE} or {@link #UNKNOWN}
+	 */
+	/* package-private */ abstract int evaluate(SheetCursor row, Parameters parameters) throws SQLException;
+
+	/* package-private */ boolean matches(SheetCursor row, Parameters parameters) throws SQLException {
+		return evaluate(row, parameters) == TRUE;
+	}
+
+	/* package-private */ abstract Condition bind(Map<String, Integer> header) throws SQLException;
+
+	/**
+	 * @return a lookup in a {@link SheetIndex} finding all rows the bound condition may be true for, <code>null</code> if there is none
+	 */
+	/* package-private */ SheetIndex.Lookup getIndexLookup(Parameters parameters) throws SQLException {
+		return null;
+	}
+
+	/* package-private */ abstract void collectColumns(BitSet columns);
+
+	/* package-private */ abstract boolean hasHeaderNames();
+
+	private static int not(int value) {
+		return value == UNKNOWN ? UNKNOWN : TRUE - value;
+	}
+
+	/* package-private */ static class And extends Condition {
+
+		private final Condition left;
+		private final Condition right;
+
+		/* package-private */ And(Condition left, Condition right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		/* package-private */ int evaluate(SheetCursor row, Parameters parameters) throws SQLException {
+			final int l = this.left.evaluate(row, parameters);
+			if (l == FALSE) {
+				return FALSE;
+			}
+			final int r = this.right.evaluate(row, parameters);
+			return r == FALSE ? FALSE : (l == TRUE && r == TRUE ? TRUE : UNKNOWN);
+		}
+
+		@Override
+		/* package-private */ Condition bind(Map<String, Integer> header) throws SQLException {
+			return new And(this.left.bind(header), this.right.bind(header));
+		}
+
+		@Override
+		/* package-private */ SheetIndex.Lookup getIndexLookup(Parameters parameters) throws SQLException {
+			// both have to be true, so either one narrows down the rows, preferably by equality
+			final SheetIndex.Lookup left = this.left.getIndexLookup(parameters);
+			final SheetIndex.Lookup right = this.right.getIndexLookup(parameters);
+			return left != null && (left.isEquality() || right == null || !right.isEquality()) ? left : right;
+		}
+
+		@Override
+		/* package-private */ void collectColumns(BitSet columns) {
+			this.left.collectColumns(columns);
+			this.right.collectColumns(columns);
+		}
+
+		@Override
+		/* package-private */ boolean hasHeaderNames() {
+			return this.left.hasHeaderNames() || this.right.hasHeaderNames();
+		}
+
+		@Override
+		public String toString() {
+			return "(" + this.left + " AND " + this.right + ")";
+		}
+	}
+
+	/* package-private */ static class Or extends Condition {
+
+		private final Condition left;
+		private final Condition right;
+
+		/* package-private */ Or(Condition left, Condition right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		/* package-private */ int evaluate(SheetCursor row, Parameters parameters) throws SQLException {
+			final int l = this.left.evaluate(row, parameters);
+			if (l == TRUE) {
+				return TRUE;
+			}
+			final int r = this.right.evaluate(row, parameters);
+			return r == TRUE ? TRUE : (l == FALSE && r == FALSE ? FALSE : UNKNOWN);
+		}
+
+		@Override
+		/* package-private */ Condition bind(Map<String, Integer> header) throws SQLException {
+			return new Or(this.left.bind(header), this.right.bind(header));
+		}
+
+		@Override
+		/* package-private */ void collectColumns(BitSet columns) {
+			this.left.collectColumns(columns);
+			this.right.collectColumns(columns);
+		}
+
+		@Override
+		/* package-private */ boolean hasHeaderNames() {
+			return this.left.hasHeaderNames() || this.right.hasHeaderNames();
+		}
+
+		@Override
+		public String toString() {
+			return "(" + this.left + " OR " + this.right + ")";
+		}
+	}
+
+	/* package-private */ static class Not extends Condition {
+
+		private final Condition condition;
+
+		/* package-private */ Not(Condition condition) {
+			this.condition = condition;
+		}
+
+		@Override
+		/* package-private */ int evaluate(SheetCursor row, Parameters parameters) throws SQLException {
+			return not(this.condition.evaluate(row, parameters));
+		}
+
+		@Override
+		/* package-private */ Condition bind(Map<String, Integer> header) throws SQLException {
+			return new Not(this.condition.bind(header));
+		}
+
+		@Override
+		/* package-private */ void collectColumns(BitSet columns) {
+			this.condition.collectColumns(columns);
+		}
+
+		@Override
+		/* package-private */ boolean hasHeaderNames() {
+			return this.condition.hasHeaderNames();
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + this.condition;
+		}
+	}
+
+	/**
+	 * <code>=</code>, <code>&lt;&gt;</code>, <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code> or <code>&gt;=</code>
+	 */
+	/* package-private */ static class Comparison extends Condition {
+
+		private final Operand left;
+		private final String operator;
+		private final Operand right;
+
+		/* package-private */ Comparison(Operand left, String operator, Operand right) {
+			this.left = left;
+			this.operator = "!=".equals(operator) ? "<>" : operator;
+			this.right = right;
+		}
+
+		@Override
+		/* package-private */ int evaluate(SheetCursor row, Parameters parameters) throws SQLException {
+			final int c = Operand.compare(this.left, this.right, row, parameters);
+			if (c == Operand.NOT_COMPARABLE) {
+				return UNKNOWN;
+			}
+
+			final boolean result;
+			switch (this.operator.charAt(0)) {
+				case '=':
+					result = c == 0;
+					break;
+				case '<':
+					if (this.operator.length() == 1) {
+						result = c < 0;
+					} else {
+						result = this.operator.charAt(1) == '=' ? c <= 0 : c != 0;
+					}
+					break;
+				default:
+					result = this.operator.length() == 1 ? c > 0 : c >= 0;
+					break;
+			}
+			return result ? TRUE : FALSE;
+		}
+
+		@Override
+		/* package-private */ Condition bind(Map<String, Integer> header) throws SQLException {
+			return new Comparison(this.left.bind(header), this.operator, this.right.bind(header));
+		}
+
+		@Override
+		/* package-private */ SheetIndex.Lookup getIndexLookup(Parameters parameters) throws SQLException {
+			if (this.left instanceof Operand.ColumnValue && !(this.right instanceof Operand.ColumnValue)) {
+				return SheetIndex.Lookup.ofComparison(((Operand.ColumnValue)this.left).getIndex(), this.operator, this.right.toLiteral(parameters));
+			}
+			if (this.right instanceof Operand.ColumnValue && !(this.left instanceof Operand.ColumnValue)) {
+				// the same comparison with the column on the left
+				String operator = this.operator;
+				if (operator.charAt(0) == '<' && !"<>".equals(operator)) {
+					operator = ">" + operator.substring(1);
+				} else if (operator.charAt(0) == '>') {
+					operator = "<" + operator.substring(1);
+				}
+				return SheetIndex.Lookup.ofComparison(((Operand.ColumnValue)this.right).getIndex(), operator, this.left.toLiteral(parameters));
+			}
+			return null;
+		}
+
+		@Override
+		/* package-private */ void collectColumns(BitSet columns) {
+			this.left.collectColumns(columns);
+			this.right.collectColumns(columns);
+		}
+
+		@Override
+		/* package-private */ boolean hasHeaderNames() {
+			return this.left.hasHeaderName() || this.right.hasHeaderName();
+		}
+
+		@Override
+		public String toString() {
+			return this.left + " " + this.operator + " " + this.right;
+		}
+	}
+
+	/* package-private */ static class In extends Condition {
+
+		private final Operand value;
+		private final Operand[] list;
+		private final boolean negated;
+
+		/* package-private */ In(Operand value, Operand[] list, boolean negated) {
+			this.value = value;
+			this.list = list;
+			this.negated = negated;
+		}
+
+		@Override
+		/* package-private */ int evaluate(SheetCursor row, Parameters parameters) throws SQLException {
+			int result = FALSE;
+			for (Operand o : this.list) {
+				final int c = Operand.compare(this.value, o, row, parameters);
+				if (c == 0) {
+					result = TRUE;
+					break;
+				} else if (c == Operand.NOT_COMPARABLE) {
+					result = UNKNOWN;
+				}
+			}
+			return this.negated ? not(result) : result;
+		}
+
+		@Override
+		/* package-private */ Condition bind(Map<String, Integer> header) throws SQLException {
+			final Operand[] list = new Operand[this.list.length];
+			for (int i=0; i < list.length; i++) {
+				list[i] = this.list[i].bind(header);
+			}
+			return new In(this.value.bind(header), list, this.negated);
+		}
+
+		@Override
+		/* package-private */ SheetIndex.Lookup getIndexLookup(Parameters parameters) throws SQLException {
+			if (this.negated || !(this.value instanceof Operand.ColumnValue)) {
+				return null;
+			}
+			final Operand.Literal[] values = new Operand.Literal[this.list.length];
+			for (int i=0; i < values.length; i++) {
+				values[i] = this.list[i].toLiteral(parameters);
+				if (values[i] == null) {
+					return null;
+				}
+			}
+			return SheetIndex.Lookup.ofValues(((Operand.ColumnValue)this.value).getIndex(), values);
+		}
+
+		@Override
+		/* package-private */ void collectColumns(BitSet columns) {
+			this.value.collectColumns(columns);
+			for (Operand o : this.list) {
+				o.collectColumns(columns);
+			}
+		}
+
+		@Override
+		/* package-private */ boolean hasHeaderNames() {
+			for (Operand o : this.list) {
+				if (o.hasHeaderName()) {
+					return true;
+				}
+			}
+			return this.value.hasHeaderName();
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder().append(this.value).append(this.negated ? " NOT IN (" : " IN (");
+			for (int i=0; i < this.list.length; i++) {
+				sb.append(i > 0 ? ", " : "").append(this.list[i]);
+			}
+			return sb.append(")").toString();
+		}
+	}
+
+	/* package-private */ static class Between extends Condition {
+
+		private final Operand value;
+		private final Operand low;
+		private final Operand high;
+		private final boolean negated;
+
+		/* package-private */ Between(Operand value, Operand low, Operand high, boolean negated) {
+			this.value = value;
+			this.low = low;
+			this.high = high;
+			this.negated = negated;
+		}
+
+		@Override
+		/* package-private */ int evaluate(SheetCursor row, Parameters parameters) throws SQLException {
+			final int l = Operand.compare(this.value, this.low, row, parameters);
+			final int h = Operand.compare(this.value, this.high, row, parameters);
+
+			final int result;
+			if ((l != Operand.NOT_COMPARABLE && l < 0) || (h != Operand.NOT_COMPARABLE && h > 0)) {
+				result = FALSE;
+			} else if (l == Operand.NOT_COMPARABLE || h == Operand.NOT_COMPARABLE) {
+				result = UNKNOWN;
+			} else {
+				result = TRUE;
+			}
+			return this.negated ? not(result) : result;
+		}
+
+		@Override
+		/* package-private */ Condition bind(Map<String, Integer> header) throws SQLException {
+			return new Between(this.value.bind(header), this.low.bind(header), this.high.bind(header), this.negated);
+		}
+
+		@Override
+		/* package-private */ SheetIndex.Lookup getIndexLookup(Parameters parameters) throws SQLException {
+			if (this.negated || !(this.value instanceof Operand.ColumnValue)) {
+				return null;
+			}
+			final Operand.Literal low = this.low.toLiteral(parameters);
+			final Operand.Literal high = this.high.toLiteral(parameters);
+			if (low == null || high == null) {
+				return null;
+			}
+			return SheetIndex.Lookup.ofRange(((Operand.ColumnValue)this.value).getIndex(), low, true, high, true);
+		}
+
+		@Override
+		/* package-private */ void collectColumns(BitSet columns) {
+			this.value.collectColumns(columns);
+			this.low.collectColumns(columns);
+			this.high.collectColumns(columns);
+		}
+
+		@Override
+		/* package-private */ boolean hasHeaderNames() {
+			return this.value.hasHeaderName() || this.low.hasHeaderName() || this.high.hasHeaderName();
+		}
+
+		@Override
+		public String toString() {
+			return this.value + (this.negated ? " NOT BETWEEN " : " BETWEEN ") + this.low + " AND " + this.high;
+		}
+	}
+
+	/**
+	 * <code>%</code> matches any number of characters, <code>_</code> a single one.
+	 * The pattern is a string literal, compiled once, or a parameter, compiled whenever its value changes.
+	 */
+	/* package-private */ static class Like extends Condition {
+
+		private final Operand value;
+		private final Operand pattern;
+		/** <code>null</code> if the pattern isn't a string literal */
+		private final Pattern compiled;
+		private final boolean negated;
+		/** matcher of each thread, as the condition may be evaluated by several threads at once */
+		private final ThreadLocal<PatternMatcher> matchers = new ThreadLocal<PatternMatcher>();
+
+		/* package-private */ Like(Operand value, Operand pattern, boolean negated) throws SQLException {
+			this(value, pattern, compile(pattern), negated);
+		}
+
+		private Like(Operand value, Operand pattern, Pattern compiled, boolean negated) {
+			this.value = value;
+			this.pattern = pattern;
+			this.compiled = compiled;
+			this.negated = negated;
+		}
+
+		private static Pattern compile(Operand operand) throws SQLException {
+			if (!(operand instanceof Operand.Literal)) {
+				return null;
+			}
+			final String pattern = operand.getString(null, null);
+			return pattern != null ? compile(pattern) : null;
+		}
+
+		private static Pattern compile(String pattern) {
+			final StringBuilder regex = new StringBuilder();
+			int literalStart = 0;
+			for (int i=0; i < pattern.length(); i++) {
+				final char c = pattern.charAt(i);
+				if (c == '%' || c == '_') {
+					if (i > literalStart) {
+						regex.append(Pattern.quote(pattern.substring(literalStart, i)));
+					}
+					regex.append(c == '%' ? ".*" : ".");
+					literalStart = i + 1;
+				}
+			}
+			if (pattern.length() > literalStart) {
+				regex.append(Pattern.quote(pattern.substring(literalStart)));
+			}
+			return Pattern.compile(regex.toString(), Pattern.DOTALL);
+		}
+
+		@Override
+		/* package-private */ int evaluate(SheetCursor row, Parameters parameters) throws SQLException {
+			final String s = this.value.getString(row, parameters);
+			if (s == null) {
+				return UNKNOWN;
+			}
+			final Matcher matcher = getMatcher(parameters);
+			if (matcher == null) {
+				return UNKNOWN;
+			}
+			final boolean result = matcher.reset(s).matches();
+			return result != this.negated ? TRUE : FALSE;
+		}
+
+		/**
+		 * @return the matcher of the current thread, <code>null</code> if the pattern isn't a string
+		 */
+		private Matcher getMatcher(Parameters parameters) throws SQLException {
+			String pattern = null;
+			if (this.pattern instanceof Operand.Parameter) {
+				pattern = this.pattern.getString(null, parameters);
+				if (pattern == null) {
+					return null;
+				}
+			} else if (this.compiled == null) {
+				return null;
+			}
+
+			PatternMatcher m = this.matchers.get();
+			if (m == null || (pattern != null && !pattern.equals(m.pattern))) {
+				m = new PatternMatcher(pattern, (pattern != null ? compile(pattern) : this.compiled).matcher(""));
+				this.matchers.set(m);
+			}
+			return m.matcher;
+		}
+
+		@Override
+		/* package-private */ Condition bind(Map<String, Integer> header) throws SQLException {
+			return new Like(this.value.bind(header), this.pattern, this.compiled, this.negated);
+		}
+
+		@Override
+		/* package-private */ void collectColumns(BitSet columns) {
+			this.value.collectColumns(columns);
+		}
+
+		@Override
+		/* package-private */ boolean hasHeaderNames() {
+			return this.value.hasHeaderName();
+		}
+
+		@Override
+		public String toString() {
+			return this.value + (this.negated ? " NOT LIKE " : " LIKE ") + this.pattern;
+		}
+
+		/**
+		 * Matcher with the value of the parameter it was compiled for, <code>null</code> for a literal pattern.
+		 */
+		private static class PatternMatcher {
+			private final String pattern;
+			private final Matcher matcher;
+
+			private PatternMatcher(String pattern, Matcher matcher) {
+				this.pattern = pattern;
+				this.matcher = matcher;
+			}
+		}
+	}
+
+	/**
+	 * Empty cells are null.
+	 */
+	/* package-private */ static class IsNull extends Condition {
+
+		private final Operand value;
+		private final boolean negated;
+
+		/* package-private */ IsNull(Operand value, boolean negated) {
+			this.value = value;
+			this.negated = negated;
+		}
+
+		@Override
+		/* package-private */ int evaluate(SheetCursor row, Parameters parameters) throws SQLException {
+			final boolean isNull = this.value.getType(row, parameters) == Cell.CELL_TYPE_BLANK;
+			return isNull != this.negated ? TRUE : FALSE;
+		}
+
+		@Override
+		/* package-private */ Condition bind(Map<String, Integer> header) throws SQLException {
+			return new IsNull(this.value.bind(header), this.negated);
+		}
+
+		@Override
+		/* package-private */ void collectColumns(BitSet columns) {
+			this.value.collectColumns(columns);
+		}
+
+		@Override
+		/* package-private */ boolean hasHeaderNames() {
+			return this.value.hasHeaderName();
+		}
+
+		@Override
+		public String toString() {
+			return this.value + (this.negated ? " IS NOT NULL" : " IS NULL");
+		}
+	}
+
+}
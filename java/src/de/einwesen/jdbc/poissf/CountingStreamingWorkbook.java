@@ -0,0 +1,168 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link StreamingWorkbook} counting its open cursors, so it can be retired when the connection reloads the file
+ * while result sets opened before are still reading it. A retired workbook is closed by the last of its cursors,
+ * as {@link WorkbookCache} closes dropped workbooks once their last user has released them.
+ */
+/* package-private */ class CountingStreamingWorkbook implements StreamingWorkbook {
+
+	private final StreamingWorkbook workbook;
+	private int cursors = 0;
+	private boolean retired = false;
+	private boolean closed = false;
+
+	/* package-private */ CountingStreamingWorkbook(StreamingWorkbook workbook) {
+		this.workbook = workbook;
+	}
+
+	@Override
+	public SheetCursor openSheetCursor(String sheetName, BitSet columns) throws SQLException {
+		final SheetCursor cursor = this.workbook.openSheetCursor(sheetName, columns);
+		synchronized (this) {
+			this.cursors++;
+		}
+		return new Cursor(cursor);
+	}
+
+	@Override
+	public List<String> getSheetNames() throws SQLException {
+		return this.workbook.getSheetNames();
+	}
+
+	@Override
+	public Map<String, SheetRange> getDefinedNames() {
+		return this.workbook.getDefinedNames();
+	}
+
+	@Override
+	public boolean supportsConcurrentCursors() {
+		return this.workbook.supportsConcurrentCursors();
+	}
+
+	@Override
+	public String getSheetVersion(String sheetName, boolean withSharedStrings) {
+		return this.workbook.getSheetVersion(sheetName, withSharedStrings);
+	}
+
+	/**
+	 * Closes the workbook once no cursor is open on it anymore.
+	 */
+	/* package-private */ synchronized void retire() {
+		this.retired = true;
+		if (this.cursors == 0) {
+			close();
+		}
+	}
+
+	/* package-private */ synchronized boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Closes the workbook right away, its open cursors fail from now on.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!this.closed) {
+			this.closed = true;
+			this.workbook.close();
+		}
+	}
+
+	private synchronized void cursorClosed() {
+		this.cursors--;
+		if (this.cursors == 0 && this.retired) {
+			close();
+		}
+	}
+
+	/**
+	 * Cursor of the workbook, telling it when it is closed.
+	 */
+	private class Cursor implements SheetCursor {
+
+		private final SheetCursor source;
+		private boolean open = true;
+
+		private Cursor(SheetCursor source) {
+			this.source = source;
+		}
+
+		@Override
+		public String getTableName() {
+			return this.source.getTableName();
+		}
+
+		@Override
+		public int getColumnCount() throws SQLException {
+			return this.source.getColumnCount();
+		}
+
+		@Override
+		public int getRowCount() {
+			return this.source.getRowCount();
+		}
+
+		@Override
+		public boolean isScrollable() {
+			return this.source.isScrollable();
+		}
+
+		@Override
+		public boolean moveTo(int row) throws SQLException {
+			return this.source.moveTo(row);
+		}
+
+		@Override
+		public int getCellType(int column) throws SQLException {
+			return this.source.getCellType(column);
+		}
+
+		@Override
+		public double getNumericCellValue(int column) throws SQLException {
+			return this.source.getNumericCellValue(column);
+		}
+
+		@Override
+		public String getStringCellValue(int column) throws SQLException {
+			return this.source.getStringCellValue(column);
+		}
+
+		@Override
+		public boolean getBooleanCellValue(int column) throws SQLException {
+			return this.source.getBooleanCellValue(column);
+		}
+
+		@Override
+		public byte getErrorCellValue(int column) throws SQLException {
+			return this.source.getErrorCellValue(column);
+		}
+
+		@Override
+		public boolean isCellDateFormatted(int column) throws SQLException {
+			return this.source.isCellDateFormatted(column);
+		}
+
+		@Override
+		public void deleteRow() throws SQLException {
+			this.source.deleteRow();
+		}
+
+		@Override
+		public synchronized void close() {
+			this.source.close();
+			if (this.open) {
+				this.open = false;
+				cursorClosed();
+			}
+		}
+
+	}
+
+}
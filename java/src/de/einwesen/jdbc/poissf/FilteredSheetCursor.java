@@ -0,0 +1,148 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * {@link SheetCursor} returning only the rows of another cursor that match a {@link Condition}.
+ * The condition is checked while scanning the source, on the primitive cell values.
+ *
+ * The rows found are remembered, so a scrollable source stays scrollable.
+ */
+/* package-private */ class FilteredSheetCursor implements SheetCursor {
+
+	private final SheetCursor source;
+	private final Condition condition;
+	private final Parameters parameters;
+
+	/** rows of the source matching so far */
+	private int[] matches = new int[16];
+	private int matchCount = 0;
+	private int scannedRow = -1;
+	private int sourceRow = -1;
+	private boolean exhausted = false;
+
+	/**
+	 * @param condition bound to the columns of the source
+	 * @param parameters values of the parameters of the condition, <code>null</code> if it has none
+	 */
+	/* package-private */ FilteredSheetCursor(SheetCursor source, Condition condition, Parameters parameters) throws SQLException {
+		this.source = source;
+		this.condition = condition;
+		this.parameters = parameters;
+
+		final BitSet columns = new BitSet();
+		condition.collectColumns(columns);
+		if (columns.length() > source.getColumnCount()) {
+			throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_FOUND, CellReference.convertNumToColString(columns.length() - 1)));
+		}
+	}
+
+	@Override
+	public String getTableName() {
+		return this.source.getTableName();
+	}
+
+	@Override
+	public int getColumnCount() throws SQLException {
+		return this.source.getColumnCount();
+	}
+
+	@Override
+	public int getRowCount() {
+		if (!this.exhausted && this.source.isScrollable()) {
+			// cheap for a source in memory, and needed to scroll relative to the end
+			try {
+				scanTo(Integer.MAX_VALUE);
+			} catch (SQLException e) {
+				return -1;
+			}
+		}
+		return this.exhausted ? this.matchCount : -1;
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return this.source.isScrollable();
+	}
+
+	/**
+	 * Scans the source until the given row has been found or the source is exhausted.
+	 */
+	private void scanTo(int row) throws SQLException {
+		while (!this.exhausted && this.matchCount <= row) {
+			this.scannedRow++;
+			this.sourceRow = this.scannedRow;
+			if (!this.source.moveTo(this.scannedRow)) {
+				this.exhausted = true;
+			} else if (this.condition.matches(this.source, this.parameters)) {
+				if (this.matchCount == this.matches.length) {
+					this.matches = Arrays.copyOf(this.matches, this.matchCount * 2);
+				}
+				this.matches[this.matchCount++] = this.scannedRow;
+			}
+		}
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		if (row < 0) {
+			return false;
+		}
+
+		scanTo(row);
+		if (row >= this.matchCount) {
+			return false;
+		}
+
+		if (this.sourceRow != this.matches[row]) {
+			this.sourceRow = this.matches[row];
+			return this.source.moveTo(this.sourceRow);
+		}
+		return true;
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		return this.source.getCellType(column);
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return this.source.getNumericCellValue(column);
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return this.source.getStringCellValue(column);
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return this.source.getBooleanCellValue(column);
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return this.source.getErrorCellValue(column);
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		return this.source.isCellDateFormatted(column);
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		this.source.deleteRow();
+	}
+
+	@Override
+	public void close() {
+		this.source.close();
+	}
+
+}
@@ -0,0 +1,305 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.DimensionsRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RecordFactoryInputStream;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+/**
+ * Forward only {@link SheetCursor} decoding the BIFF records of a single sheet substream
+ * as the rows are requested. Cells of columns not asked for are left blank, their strings aren't looked up.
+ *
+ * The number of columns is taken from the DIMENSIONS record at the start of the sheet.
+ * As formulas can't be evaluated without the whole workbook, the values cached in the file are returned.
+ */
+/* package-private */ class HSSFStreamingSheetCursor implements SheetCursor {
+
+	private String tableName = null;
+	private SSTRecord sharedStrings = null;
+	private FormatTrackingHSSFListener formats = null;
+	/** columns to read, <code>null</code> for all */
+	private BitSet columns = null;
+
+	private InputStream sheetStream = null;
+	private RecordFactoryInputStream records = null;
+	private Record pendingRecord = null;
+	private int bofDepth = 0;
+	private boolean sheetEnded = false;
+
+	private int columnCount = 0;
+	private int rowCount = -1;
+	private int position = -1;
+	private int lastRowNum = -1;
+	private int stringResultColumn = -1;
+
+	private byte[] cellTypes = null;
+	private double[] numericValues = null;
+	private String[] stringValues = null;
+	private int[] formatIndexes = null;
+
+	/* package-private */ HSSFStreamingSheetCursor(String tableName, InputStream sheetStream, SSTRecord sharedStrings, FormatTrackingHSSFListener formats, BitSet columns) throws SQLException {
+		this.tableName = tableName;
+		this.columns = columns;
+		this.sheetStream = sheetStream;
+		this.sharedStrings = sharedStrings;
+		this.formats = formats;
+
+		try {
+			this.records = new RecordFactoryInputStream(sheetStream, false);
+
+			Record r = null;
+			while ((r = nextRecord()) != null) {
+				if (r instanceof DimensionsRecord) {
+					this.columnCount = ((DimensionsRecord)r).getLastCol();
+				} else if (r instanceof RowRecord || r instanceof CellValueRecordInterface) {
+					// cells start here, keep it for the first row
+					this.pendingRecord = r;
+					break;
+				}
+			}
+		} catch (RuntimeException e) {
+			close();
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		}
+
+		this.cellTypes = new byte[this.columnCount];
+		this.numericValues = new double[this.columnCount];
+		this.stringValues = new String[this.columnCount];
+		this.formatIndexes = new int[this.columnCount];
+	}
+
+	private Record nextRecord() {
+		if (this.pendingRecord != null) {
+			final Record r = this.pendingRecord;
+			this.pendingRecord = null;
+			return r;
+		}
+
+		if (this.sheetEnded) {
+			return null;
+		}
+
+		final Record r = this.records.nextRecord();
+		if (r == null) {
+			this.sheetEnded = true;
+		} else if (r instanceof BOFRecord) {
+			this.bofDepth++;
+		} else if (r instanceof EOFRecord) {
+			this.bofDepth--;
+			if (this.bofDepth == 0) {
+				// next record would be the BOF of the following sheet
+				this.sheetEnded = true;
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Consumes all records up to the first cell of a row after the given one.
+	 */
+	private void readRow(int row, boolean keepValues) {
+		if (keepValues) {
+			Arrays.fill(this.cellTypes, (byte)Cell.CELL_TYPE_BLANK);
+			Arrays.fill(this.stringValues, null);
+		}
+		this.stringResultColumn = -1;
+
+		Record r = null;
+		while ((r = nextRecord()) != null) {
+			if (r instanceof RowRecord) {
+				this.lastRowNum = Math.max(this.lastRowNum, ((RowRecord)r).getRowNumber());
+			} else if (r instanceof CellValueRecordInterface) {
+				final CellValueRecordInterface cell = (CellValueRecordInterface)r;
+				this.lastRowNum = Math.max(this.lastRowNum, cell.getRow());
+
+				if (cell.getRow() > row) {
+					this.pendingRecord = r;
+					return;
+				} else if (cell.getRow() == row && keepValues && cell.getColumn() < this.columnCount && (this.columns == null || this.columns.get(cell.getColumn()))) {
+					readCell(cell);
+				} else {
+					this.stringResultColumn = -1;
+				}
+			} else if (r instanceof StringRecord && this.stringResultColumn != -1) {
+				this.stringValues[this.stringResultColumn] = ((StringRecord)r).getString();
+				this.stringResultColumn = -1;
+			}
+		}
+	}
+
+	private void readCell(CellValueRecordInterface cell) {
+		final int column = cell.getColumn();
+		this.stringResultColumn = -1;
+
+		if (cell instanceof NumberRecord) {
+			this.cellTypes[column] = Cell.CELL_TYPE_NUMERIC;
+			this.numericValues[column] = ((NumberRecord)cell).getValue();
+			this.formatIndexes[column] = this.formats.getFormatIndex(cell);
+		} else if (cell instanceof LabelSSTRecord) {
+			this.cellTypes[column] = Cell.CELL_TYPE_STRING;
+			this.stringValues[column] = this.sharedStrings.getString(((LabelSSTRecord)cell).getSSTIndex()).getString();
+		} else if (cell instanceof LabelRecord) {
+			this.cellTypes[column] = Cell.CELL_TYPE_STRING;
+			this.stringValues[column] = ((LabelRecord)cell).getValue();
+		} else if (cell instanceof BoolErrRecord) {
+			final BoolErrRecord boolErr = (BoolErrRecord)cell;
+			if (boolErr.isBoolean()) {
+				this.cellTypes[column] = Cell.CELL_TYPE_BOOLEAN;
+				this.numericValues[column] = boolErr.getBooleanValue() ? 1 : 0;
+			} else {
+				this.cellTypes[column] = Cell.CELL_TYPE_ERROR;
+				this.numericValues[column] = boolErr.getErrorValue();
+			}
+		} else if (cell instanceof FormulaRecord) {
+			final FormulaRecord formula = (FormulaRecord)cell;
+			switch (formula.getCachedResultType()) {
+				case Cell.CELL_TYPE_NUMERIC:
+					this.cellTypes[column] = Cell.CELL_TYPE_NUMERIC;
+					this.numericValues[column] = formula.getValue();
+					this.formatIndexes[column] = this.formats.getFormatIndex(cell);
+					break;
+				case Cell.CELL_TYPE_STRING:
+					// value follows in a STRING record, unless it is empty
+					this.cellTypes[column] = Cell.CELL_TYPE_STRING;
+					this.stringValues[column] = "";
+					this.stringResultColumn = column;
+					break;
+				case Cell.CELL_TYPE_BOOLEAN:
+					this.cellTypes[column] = Cell.CELL_TYPE_BOOLEAN;
+					this.numericValues[column] = formula.getCachedBooleanValue() ? 1 : 0;
+					break;
+				case Cell.CELL_TYPE_ERROR:
+					this.cellTypes[column] = Cell.CELL_TYPE_ERROR;
+					this.numericValues[column] = formula.getCachedErrorValue();
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	@Override
+	public String getTableName() {
+		return this.tableName;
+	}
+
+	@Override
+	public int getColumnCount() throws SQLException {
+		if (this.columnCount == 0) {
+			throw new SQLException("Can't figure out number of columns");
+		}
+		return this.columnCount;
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.rowCount;
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return false;
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		if (row < this.position) {
+			throw new SQLException(PoiSSFDriver.CURSOR_IS_FORWARD_ONLY);
+		}
+
+		if (this.rowCount != -1) {
+			return row < this.rowCount;
+		}
+
+		try {
+			while (this.position < row) {
+				this.position++;
+				readRow(this.position, this.position == row);
+
+				if (this.sheetEnded && this.pendingRecord == null && this.position > this.lastRowNum) {
+					this.rowCount = this.lastRowNum + 1;
+					close();
+					return false;
+				}
+			}
+			return true;
+		} catch (RuntimeException e) {
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		}
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		return this.cellTypes[column];
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return this.numericValues[column];
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return this.stringValues[column];
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return this.numericValues[column] != 0;
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return (byte)this.numericValues[column];
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		if (this.cellTypes[column] == Cell.CELL_TYPE_NUMERIC && DateUtil.isValidExcelDate(this.numericValues[column])) {
+			final int formatIndex = this.formatIndexes[column];
+			return DateUtil.isADateFormat(formatIndex, this.formats.getFormatString(formatIndex));
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		throw new SQLException(PoiSSFDriver.RESULT_SET_NOT_UPDATETABLE);
+	}
+
+	@Override
+	public void close() {
+		this.records = null;
+		this.pendingRecord = null;
+
+		if (this.sheetStream != null) {
+			try {
+				this.sheetStream.close();
+			} catch (IOException e) {
+				// Do nothing
+			}
+			this.sheetStream = null;
+		}
+	}
+
+}
@@ -0,0 +1,226 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.ExternSheetRecord;
+import org.apache.poi.hssf.record.FilePassRecord;
+import org.apache.poi.hssf.record.NameRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RecordFactoryInputStream;
+import org.apache.poi.hssf.record.RecordInputStream;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.SupBookRecord;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.formula.ptg.Area3DPtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.Ref3DPtg;
+
+/**
+ * Reads the workbook globals (sheet offsets, shared strings, formats and defined names) of a XLS file,
+ * so a single sheet substream can be decoded later on.
+ */
+/* package-private */ class HSSFStreamingWorkbook implements StreamingWorkbook {
+
+	private static final String[] WORKBOOK_DIR_ENTRY_NAMES = {"Workbook", "WORKBOOK"};
+
+	private NPOIFSFileSystem fs = null;
+	private String workbookEntryName = null;
+
+	private final List<String> sheetNames = new ArrayList<String>();
+	private final List<Integer> sheetOffsets = new ArrayList<Integer>();
+	private final Map<String, SheetRange> definedNames = new HashMap<String, SheetRange>();
+	private SSTRecord sharedStrings = null;
+	private final FormatTrackingHSSFListener formats = new FormatTrackingHSSFListener(null);
+
+	/**
+	 * @throws SQLFeatureNotSupportedException if the workbook is encrypted, as its sheet substreams would have to be decrypted
+	 */
+	/* package-private */ HSSFStreamingWorkbook(File file) throws IOException, SQLException {
+		this.fs = new NPOIFSFileSystem(file, true);
+
+		try {
+			for (String name : WORKBOOK_DIR_ENTRY_NAMES) {
+				if (this.fs.getRoot().hasEntry(name)) {
+					this.workbookEntryName = name;
+					break;
+				}
+			}
+
+			if (this.workbookEntryName == null) {
+				throw new IOException("No workbook stream found");
+			}
+
+			if (isEncrypted()) {
+				throw new SQLFeatureNotSupportedException(PoiSSFDriver.ENCRYPTED_WORKBOOK_NOT_STREAMED);
+			}
+
+			final InputStream is = this.fs.createDocumentInputStream(this.workbookEntryName);
+			try {
+				final RecordFactoryInputStream records = new RecordFactoryInputStream(is, false);
+				final List<SupBookRecord> supBooks = new ArrayList<SupBookRecord>();
+				final List<NameRecord> names = new ArrayList<NameRecord>();
+				ExternSheetRecord externSheet = null;
+
+				Record r = null;
+				while ((r = records.nextRecord()) != null) {
+					if (r instanceof BoundSheetRecord) {
+						this.sheetNames.add(((BoundSheetRecord)r).getSheetname());
+						this.sheetOffsets.add(Integer.valueOf(((BoundSheetRecord)r).getPositionOfBof()));
+					} else if (r instanceof SSTRecord) {
+						this.sharedStrings = (SSTRecord)r;
+					} else if (r instanceof SupBookRecord) {
+						supBooks.add((SupBookRecord)r);
+					} else if (r instanceof ExternSheetRecord) {
+						externSheet = (ExternSheetRecord)r;
+					} else if (r instanceof NameRecord) {
+						names.add((NameRecord)r);
+					} else if (r instanceof EOFRecord) {
+						// end of the globals substream, sheets follow
+						break;
+					} else {
+						this.formats.processRecordInternally(r);
+					}
+				}
+				if (externSheet != null) {
+					readDefinedNames(names, supBooks, externSheet);
+				}
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			this.fs.close();
+			throw e;
+		} catch (SQLException e) {
+			this.fs.close();
+			throw e;
+		} catch (RuntimeException e) {
+			this.fs.close();
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Looks for the FILEPASS record following the BOF of the globals substream. It has to be checked on the raw records,
+	 * as {@link RecordFactoryInputStream} consumes it and decrypts the globals, but not the sheet substreams read later on.
+	 */
+	private boolean isEncrypted() throws IOException {
+		final InputStream is = this.fs.createDocumentInputStream(this.workbookEntryName);
+		try {
+			final RecordInputStream records = new RecordInputStream(is);
+			if (!records.hasNextRecord()) {
+				return false;
+			}
+			records.nextRecord();
+			if (records.getSid() != BOFRecord.sid) {
+				return false;
+			}
+			records.readRemainder();
+			return records.hasNextRecord() && records.getNextSid() == FilePassRecord.sid;
+		} finally {
+			is.close();
+		}
+	}
+
+	@Override
+	public SheetCursor openSheetCursor(String sheetName, BitSet columns) throws SQLException {
+		for (int i=0; i < this.sheetNames.size(); i++) {
+			if (this.sheetNames.get(i).equalsIgnoreCase(sheetName)) {
+				try {
+					final DocumentInputStream is = this.fs.createDocumentInputStream(this.workbookEntryName);
+					is.skip(this.sheetOffsets.get(i).intValue());
+					return new HSSFStreamingSheetCursor(this.sheetNames.get(i), is, this.sharedStrings, this.formats, columns);
+				} catch (SQLException e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+				}
+			}
+		}
+
+		throw new SQLException(String.format(PoiSSFDriver.SHEET_NOT_FOUND, sheetName));
+	}
+
+	@Override
+	public List<String> getSheetNames() {
+		return new ArrayList<String>(this.sheetNames);
+	}
+
+	@Override
+	public Map<String, SheetRange> getDefinedNames() {
+		return this.definedNames;
+	}
+
+	/**
+	 * Keeps the names which aren't local to a sheet and refer to cells of a sheet of this workbook.
+	 */
+	private void readDefinedNames(List<NameRecord> names, List<SupBookRecord> supBooks, ExternSheetRecord externSheet) {
+		for (NameRecord name : names) {
+			final Ptg[] definition = name.getNameDefinition();
+			if (name.getSheetNumber() != 0 || name.isBuiltInName() || name.isFunctionName() || definition.length != 1) {
+				continue;
+			}
+
+			final int refIndex;
+			final SheetRange range;
+			if (definition[0] instanceof Area3DPtg) {
+				final Area3DPtg area = (Area3DPtg)definition[0];
+				refIndex = area.getExternSheetIndex();
+				range = new SheetRange(null, area.getFirstRow(), area.getLastRow(), area.getFirstColumn(), area.getLastColumn());
+			} else if (definition[0] instanceof Ref3DPtg) {
+				final Ref3DPtg ref = (Ref3DPtg)definition[0];
+				refIndex = ref.getExternSheetIndex();
+				range = new SheetRange(null, ref.getRow(), ref.getRow(), ref.getColumn(), ref.getColumn());
+			} else {
+				continue;
+			}
+
+			if (refIndex < 0 || refIndex >= externSheet.getNumOfRefs()) {
+				continue;
+			}
+			final int supBook = externSheet.getExtbookIndexFromRefIndex(refIndex);
+			final int sheet = externSheet.getFirstSheetIndexFromRefIndex(refIndex);
+			if (supBook >= 0 && supBook < supBooks.size() && supBooks.get(supBook).isInternalReferences() && sheet >= 0 && sheet < this.sheetNames.size()) {
+				this.definedNames.put(name.getNameText().toLowerCase(), range.onSheet(this.sheetNames.get(sheet)));
+			}
+		}
+	}
+
+	@Override
+	public boolean supportsConcurrentCursors() {
+		// the sheets are substreams of one document, read through a single positioned file channel
+		return false;
+	}
+
+	@Override
+	public String getSheetVersion(String sheetName, boolean withSharedStrings) {
+		// the sheets are records within one document, they are always read again
+		return null;
+	}
+
+	@Override
+	public void close() {
+		if (this.fs != null) {
+			try {
+				this.fs.close();
+			} catch (IOException e) {
+				// Do nothing
+			}
+			this.fs = null;
+		}
+	}
+
+}
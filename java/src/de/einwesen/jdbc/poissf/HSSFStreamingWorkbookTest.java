@@ -0,0 +1,101 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLFeatureNotSupportedException;
+
+import org.apache.poi.hssf.record.FilePassRecord;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.util.LittleEndian;
+
+/**
+ * Checks that an encrypted XLS file is rejected before any sheet is streamed, run by its main method.
+ */
+public class HSSFStreamingWorkbookTest {
+
+	public static void main(String[] args) throws Exception {
+		final File plain = File.createTempFile("plain", ".xls");
+		final File encrypted = File.createTempFile("encrypted", ".xls");
+		try {
+			final byte[] workbook = createWorkbookStream();
+			writeWorkbook(plain, workbook);
+			writeWorkbook(encrypted, insertFilePass(workbook));
+
+			final HSSFStreamingWorkbook streaming = new HSSFStreamingWorkbook(plain);
+			try {
+				check(streaming.getSheetNames().size() == 1, "sheets of the plain workbook");
+			} finally {
+				streaming.close();
+			}
+
+			try {
+				new HSSFStreamingWorkbook(encrypted).close();
+				check(false, "encrypted workbook rejected");
+			} catch (SQLFeatureNotSupportedException e) {
+				check(PoiSSFDriver.ENCRYPTED_WORKBOOK_NOT_STREAMED.equals(e.getMessage()), "message for the encrypted workbook");
+			}
+			System.out.println("OK");
+		} finally {
+			plain.delete();
+			encrypted.delete();
+		}
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+
+	private static byte[] createWorkbookStream() throws IOException {
+		final HSSFWorkbook wb = new HSSFWorkbook();
+		wb.createSheet("Data").createRow(0).createCell(0).setCellValue("secret");
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		wb.write(bytes);
+
+		final InputStream is = new POIFSFileSystem(new ByteArrayInputStream(bytes.toByteArray())).createDocumentInputStream("Workbook");
+		try {
+			return IOUtils.toByteArray(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * @return the workbook stream with a RC4 FILEPASS record following its first BOF, as written by Excel for an encrypted file
+	 */
+	private static byte[] insertFilePass(byte[] workbook) {
+		final int bofLength = 4 + LittleEndian.getUShort(workbook, 2);
+		final byte[] filePass = new byte[4 + 54];
+		LittleEndian.putUShort(filePass, 0, FilePassRecord.sid);
+		LittleEndian.putUShort(filePass, 2, 54);
+		// RC4 encryption, version 1.1, followed by salt, verifier and its hash
+		LittleEndian.putUShort(filePass, 4, 1);
+		LittleEndian.putUShort(filePass, 6, 1);
+		LittleEndian.putUShort(filePass, 8, 1);
+
+		final byte[] result = new byte[workbook.length + filePass.length];
+		System.arraycopy(workbook, 0, result, 0, bofLength);
+		System.arraycopy(filePass, 0, result, bofLength, filePass.length);
+		System.arraycopy(workbook, bofLength, result, bofLength + filePass.length, workbook.length - bofLength);
+		return result;
+	}
+
+	private static void writeWorkbook(File file, byte[] workbook) throws IOException {
+		final POIFSFileSystem fs = new POIFSFileSystem();
+		fs.createDocument(new ByteArrayInputStream(workbook), "Workbook");
+		final FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fs.writeFilesystem(fos);
+		} finally {
+			fos.close();
+		}
+	}
+
+}
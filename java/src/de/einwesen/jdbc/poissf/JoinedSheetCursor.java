@@ -0,0 +1,382 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Cell;
+
+/**
+ * {@link SheetCursor} returning the rows of an equi-join of two cursors, computed as a hash join.
+ *
+ * The rows of the build side are read completely into memory and indexed by their keys, in an open addressing
+ * hash table on the primitive cell values like the groups of an {@link Aggregation}. Strings of the keys are
+ * replaced by their index in a dictionary of the build side, so a string of the probe side missing there
+ * can't match at all. The probe side is streamed, each of its rows is returned once per matching row of the
+ * build side, in the order of the build side. Blank keys never match.
+ *
+ * The rows found are remembered if the probe side is scrollable, so the join stays scrollable.
+ */
+/* package-private */ class JoinedSheetCursor implements SheetCursor {
+
+	private final String tableName;
+	private final SheetCursor probe;
+	private final int probeWidth;
+	private final int probeColumnCount;
+	private final int[] probeKeys;
+	private final boolean outer;
+	private final boolean buildFirst;
+
+	private final MaterializedSheetCursor build;
+	private final int buildWidth;
+	private final int keyWidth;
+	private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+	private final long[] probeKey;
+	private long[] keys;
+	/** first build row + 1 of each key by hash, 0 for free slots */
+	private int[] slots;
+	/** next build row with the same key, -1 for the last one */
+	private int[] next;
+
+	/** rows of both sides returned so far, only if the probe side is scrollable */
+	private int[] pairs = new int[32];
+	private int pairCount = 0;
+
+	private int position = -1;
+	private int probeRow = -1;
+	/** row of the build side, -1 for none */
+	private int match = -1;
+	private boolean exhausted = false;
+
+	/**
+	 * @param build read completely and closed
+	 * @param buildWidth number of columns taken from the build side, missing ones are blank
+	 * @param buildColumns columns of the build side needed, <code>null</code> for all
+	 * @param probeWidth number of columns taken from the probe side, missing ones are blank
+	 * @param outer <code>true</code> to return rows of the probe side without a match as well, with blank columns for the build side
+	 * @param buildFirst <code>true</code> if the columns of the build side come first
+	 */
+	/* package-private */ JoinedSheetCursor(String tableName, SheetCursor build, int buildWidth, BitSet buildColumns, int[] buildKeys,
+			SheetCursor probe, int probeWidth, int[] probeKeys, boolean outer, boolean buildFirst) throws SQLException {
+		this.tableName = tableName;
+		this.probe = probe;
+		this.probeWidth = probeWidth;
+		this.probeColumnCount = Math.min(probeWidth, probe.getColumnCount());
+		this.probeKeys = probeKeys;
+		this.outer = outer;
+		this.buildFirst = buildFirst;
+		this.buildWidth = buildWidth;
+		this.keyWidth = 2 * buildKeys.length;
+		this.probeKey = new long[this.keyWidth];
+
+		try {
+			this.build = new MaterializedSheetCursor(build.getTableName(), buildWidth);
+			final int columnCount = Math.min(buildWidth, build.getColumnCount());
+			for (int row=0; build.moveTo(row); row++) {
+				final int r = this.build.addRow();
+				for (int c=0; c < columnCount; c++) {
+					if (buildColumns == null || buildColumns.get(c)) {
+						this.build.copyCell(r, c, build, c);
+					}
+				}
+			}
+		} finally {
+			build.close();
+		}
+
+		index(buildKeys);
+	}
+
+	private void index(int[] buildKeys) {
+		final int rowCount = this.build.getRowCount();
+		this.keys = new long[rowCount * this.keyWidth];
+		this.next = new int[rowCount];
+		int slotCount = 16;
+		while (slotCount < 2 * rowCount) {
+			slotCount *= 2;
+		}
+		this.slots = new int[slotCount];
+		final int mask = slotCount - 1;
+
+		// backwards, so the rows of a key are chained in their order
+		for (int row=rowCount - 1; row >= 0; row--) {
+			final int offset = row * this.keyWidth;
+			boolean blank = false;
+			for (int k=0; k < buildKeys.length; k++) {
+				final int type = this.build.getCellType(row, buildKeys[k]);
+				this.keys[offset + 2 * k] = type;
+				if (type == Cell.CELL_TYPE_BLANK) {
+					blank = true;
+				} else if (type == Cell.CELL_TYPE_STRING) {
+					final String value = this.build.getStringCellValue(row, buildKeys[k]);
+					Integer index = this.dictionary.get(value);
+					if (index == null) {
+						index = Integer.valueOf(this.dictionary.size());
+						this.dictionary.put(value, index);
+					}
+					this.keys[offset + 2 * k + 1] = index.intValue();
+				} else {
+					this.keys[offset + 2 * k + 1] = bits(this.build.getNumericCellValue(row, buildKeys[k]));
+				}
+			}
+			if (blank) {
+				this.next[row] = -1;
+				continue;
+			}
+
+			int slot = Aggregation.hash(this.keys, offset, this.keyWidth) & mask;
+			while (this.slots[slot] != 0 && !sameKey(this.keys, offset, this.slots[slot] - 1)) {
+				slot = (slot + 1) & mask;
+			}
+			this.next[row] = this.slots[slot] - 1;
+			this.slots[slot] = row + 1;
+		}
+	}
+
+	private static long bits(double value) {
+		// 0.0 and -0.0 are the same key
+		return value == 0 ? 0 : Double.doubleToLongBits(value);
+	}
+
+	private boolean sameKey(long[] key, int offset, int buildRow) {
+		final int buildOffset = buildRow * this.keyWidth;
+		for (int i=0; i < this.keyWidth; i++) {
+			if (this.keys[buildOffset + i] != key[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the first row of the build side matching the current row of the probe side, -1 for none
+	 */
+	private int lookup() throws SQLException {
+		for (int k=0; k < this.probeKeys.length; k++) {
+			final int column = this.probeKeys[k];
+			final int type = column < this.probeColumnCount ? this.probe.getCellType(column) : Cell.CELL_TYPE_BLANK;
+			this.probeKey[2 * k] = type;
+			switch (type) {
+				case Cell.CELL_TYPE_BLANK:
+					return -1;
+				case Cell.CELL_TYPE_STRING:
+					final Integer index = this.dictionary.get(this.probe.getStringCellValue(column));
+					if (index == null) {
+						return -1;
+					}
+					this.probeKey[2 * k + 1] = index.intValue();
+					break;
+				case Cell.CELL_TYPE_BOOLEAN:
+					this.probeKey[2 * k + 1] = this.probe.getBooleanCellValue(column) ? Double.doubleToLongBits(1) : 0;
+					break;
+				case Cell.CELL_TYPE_ERROR:
+					this.probeKey[2 * k + 1] = bits(this.probe.getErrorCellValue(column));
+					break;
+				default:
+					this.probeKey[2 * k + 1] = bits(this.probe.getNumericCellValue(column));
+					break;
+			}
+		}
+
+		final int mask = this.slots.length - 1;
+		int slot = Aggregation.hash(this.probeKey, 0, this.keyWidth) & mask;
+		while (this.slots[slot] != 0) {
+			if (sameKey(this.probeKey, 0, this.slots[slot] - 1)) {
+				return this.slots[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Moves on to the next row of the join.
+	 */
+	private boolean advance() throws SQLException {
+		if (this.match >= 0 && this.next[this.match] >= 0) {
+			this.match = this.next[this.match];
+			return true;
+		}
+		while (true) {
+			this.probeRow++;
+			if (!this.probe.moveTo(this.probeRow)) {
+				this.match = -1;
+				return false;
+			}
+			this.match = lookup();
+			if (this.match >= 0 || this.outer) {
+				return true;
+			}
+		}
+	}
+
+	private void scanTo(int row) throws SQLException {
+		final boolean scrollable = this.probe.isScrollable();
+		if (scrollable && this.pairCount > 0 && this.position != this.pairCount - 1) {
+			// continuing after the last row found
+			this.probeRow = this.pairs[2 * this.pairCount - 2];
+			this.match = this.pairs[2 * this.pairCount - 1];
+			this.probe.moveTo(this.probeRow);
+			this.position = this.pairCount - 1;
+		}
+		while (!this.exhausted && this.position < row) {
+			if (!advance()) {
+				this.exhausted = true;
+				break;
+			}
+			this.position++;
+			if (scrollable) {
+				if (2 * this.pairCount == this.pairs.length) {
+					this.pairs = Arrays.copyOf(this.pairs, this.pairs.length * 2);
+				}
+				this.pairs[2 * this.pairCount] = this.probeRow;
+				this.pairs[2 * this.pairCount + 1] = this.match;
+				this.pairCount++;
+			}
+		}
+	}
+
+	@Override
+	public String getTableName() {
+		return this.tableName;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return this.buildWidth + this.probeWidth;
+	}
+
+	@Override
+	public int getRowCount() {
+		if (!this.exhausted && this.probe.isScrollable()) {
+			// cheap for a source in memory, and needed to scroll relative to the end
+			try {
+				final int current = this.position;
+				scanTo(Integer.MAX_VALUE);
+				moveTo(current);
+			} catch (SQLException e) {
+				return -1;
+			}
+		}
+		if (!this.exhausted) {
+			return -1;
+		}
+		return this.probe.isScrollable() ? this.pairCount : this.position + 1;
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return this.probe.isScrollable();
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		if (!this.probe.isScrollable()) {
+			if (row < this.position) {
+				throw new SQLException(PoiSSFDriver.CURSOR_IS_FORWARD_ONLY);
+			}
+			scanTo(row);
+			return row >= 0 && !this.exhausted;
+		}
+
+		if (row < 0) {
+			this.position = -1;
+			this.match = -1;
+			return false;
+		}
+		if (row >= this.pairCount) {
+			scanTo(row);
+			if (row >= this.pairCount) {
+				this.match = -1;
+				return false;
+			}
+			return true;
+		}
+		this.position = row;
+		this.match = this.pairs[2 * row + 1];
+		if (this.probeRow != this.pairs[2 * row]) {
+			this.probeRow = this.pairs[2 * row];
+			return this.probe.moveTo(this.probeRow);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the column of the probe side, -1 for a column of the build side
+	 */
+	private int probeColumn(int column) {
+		final int probeColumn = this.buildFirst ? column - this.buildWidth : column;
+		return probeColumn >= 0 && probeColumn < this.probeWidth ? probeColumn : -1;
+	}
+
+	private int buildColumn(int column) {
+		return this.buildFirst ? column : column - this.probeWidth;
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		final int probeColumn = probeColumn(column);
+		if (probeColumn >= 0) {
+			return probeColumn < this.probeColumnCount ? this.probe.getCellType(probeColumn) : Cell.CELL_TYPE_BLANK;
+		}
+		return this.match >= 0 ? this.build.getCellType(this.match, buildColumn(column)) : Cell.CELL_TYPE_BLANK;
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		final int probeColumn = probeColumn(column);
+		if (probeColumn >= 0) {
+			return this.probe.getNumericCellValue(probeColumn);
+		}
+		return this.build.getNumericCellValue(this.match, buildColumn(column));
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		final int probeColumn = probeColumn(column);
+		if (probeColumn >= 0) {
+			return this.probe.getStringCellValue(probeColumn);
+		}
+		return this.build.getStringCellValue(this.match, buildColumn(column));
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		final int probeColumn = probeColumn(column);
+		if (probeColumn >= 0) {
+			return this.probe.getBooleanCellValue(probeColumn);
+		}
+		return this.build.getBooleanCellValue(this.match, buildColumn(column));
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		final int probeColumn = probeColumn(column);
+		if (probeColumn >= 0) {
+			return this.probe.getErrorCellValue(probeColumn);
+		}
+		return this.build.getErrorCellValue(this.match, buildColumn(column));
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		final int probeColumn = probeColumn(column);
+		if (probeColumn >= 0) {
+			return this.probe.isCellDateFormatted(probeColumn);
+		}
+		return this.match >= 0 && this.build.isCellDateFormatted(this.match, buildColumn(column));
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		throw new SQLException(PoiSSFDriver.RESULT_SET_NOT_UPDATETABLE);
+	}
+
+	@Override
+	public void close() {
+		this.probe.close();
+	}
+
+}
@@ -0,0 +1,156 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+
+/**
+ * {@link SheetCursor} skipping the first rows of another cursor and ending after a number of rows.
+ *
+ * A forward only source is closed as soon as the last row has been passed,
+ * so a streamed sheet isn't parsed any further.
+ */
+/* package-private */ class LimitedSheetCursor implements SheetCursor {
+
+	private final SheetCursor source;
+	private final int offset;
+	private final int limit;
+	private boolean sourceClosed = false;
+	private int rowCount = -1;
+	private int lastRow = -1;
+
+	/**
+	 * @param limit maximum number of rows, negative for no limit
+	 */
+	/* package-private */ LimitedSheetCursor(SheetCursor source, int offset, int limit) {
+		this.source = source;
+		this.offset = Math.max(0, offset);
+		this.limit = limit < 0 ? Integer.MAX_VALUE : limit;
+	}
+
+	/* package-private */ SheetCursor getSource() {
+		return this.source;
+	}
+
+	/* package-private */ int getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return {@link Integer#MAX_VALUE} for no limit
+	 */
+	/* package-private */ int getLimit() {
+		return this.limit;
+	}
+
+	@Override
+	public String getTableName() {
+		return this.source.getTableName();
+	}
+
+	@Override
+	public int getColumnCount() throws SQLException {
+		return this.source.getColumnCount();
+	}
+
+	@Override
+	public int getRowCount() {
+		if (this.rowCount == -1 && !this.sourceClosed) {
+			final int sourceRowCount = this.source.getRowCount();
+			if (sourceRowCount >= 0) {
+				this.rowCount = Math.max(0, Math.min(this.limit, sourceRowCount - this.offset));
+			}
+		}
+		return this.rowCount;
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return this.source.isScrollable();
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		if (row >= this.limit) {
+			if (this.rowCount == -1) {
+				this.rowCount = countToLimit();
+			}
+			if (!this.source.isScrollable() && !this.sourceClosed) {
+				// nothing more will be read
+				this.source.close();
+				this.sourceClosed = true;
+			}
+			return false;
+		}
+
+		if (this.sourceClosed) {
+			throw new SQLException(PoiSSFDriver.CURSOR_IS_FORWARD_ONLY);
+		}
+
+		if (row < 0 || !this.source.moveTo(this.offset + row)) {
+			getRowCount();
+			return false;
+		}
+		this.lastRow = row;
+		return true;
+	}
+
+	/**
+	 * @return the number of rows if the source has at least as many as the limit, otherwise as given by the source
+	 */
+	private int countToLimit() throws SQLException {
+		if (this.limit == 0 || this.lastRow == this.limit - 1) {
+			return this.limit;
+		}
+		if (this.sourceClosed) {
+			return -1;
+		}
+		if (this.source.moveTo(this.offset + this.limit - 1)) {
+			return this.limit;
+		}
+		final int sourceRowCount = this.source.getRowCount();
+		return sourceRowCount >= 0 ? Math.max(0, Math.min(this.limit, sourceRowCount - this.offset)) : -1;
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		return this.source.getCellType(column);
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return this.source.getNumericCellValue(column);
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return this.source.getStringCellValue(column);
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return this.source.getBooleanCellValue(column);
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return this.source.getErrorCellValue(column);
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		return this.source.isCellDateFormatted(column);
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		this.source.deleteRow();
+	}
+
+	@Override
+	public void close() {
+		if (!this.sourceClosed) {
+			this.source.close();
+			this.sourceClosed = true;
+		}
+	}
+
+}
@@ -0,0 +1,206 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Checks that a LIMIT beyond the rows of a sheet or cursor doesn't count rows which aren't there, run by its main method.
+ */
+public class LimitedSheetCursorTest {
+
+	private static final int ROWS = 3;
+
+	public static void main(String[] args) throws Exception {
+		Class.forName(PoiSSFDriver.class.getName());
+
+		final File file = createWorkbook();
+		try {
+			final Properties eager = new Properties();
+			check(file, eager);
+
+			final Properties streaming = new Properties();
+			streaming.setProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_STREAMING, "true");
+			check(file, streaming);
+
+			check(new RowsCursor(ROWS, true));
+			check(new RowsCursor(ROWS, false));
+
+			System.out.println("OK");
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void check(File file, Properties info) throws SQLException {
+		final Connection con = DriverManager.getConnection("jdbc:poissf:file://" + file.getAbsolutePath(), info);
+		try {
+			final Statement stmt = con.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+
+			ResultSet rs = stmt.executeQuery("SELECT * FROM Data LIMIT " + (ROWS + 7));
+			check(!rs.absolute(ROWS + 2), "no row past the end of the sheet");
+			check(rs.isAfterLast(), "after the last row");
+			check(rs.last(), "last row");
+			check(rs.getRow() == ROWS, "last row of the sheet, not of the limit");
+			check(rs.getInt(1) == ROWS, "value of the last row");
+			rs.close();
+
+			rs = stmt.executeQuery("SELECT * FROM Data LIMIT " + (ROWS + 7) + " OFFSET 1");
+			check(!rs.absolute(ROWS + 7), "no row at the limit");
+			check(rs.last(), "last row after an offset");
+			check(rs.getRow() == ROWS - 1, "last row of the sheet after an offset");
+			rs.close();
+
+			rs = stmt.executeQuery("SELECT * FROM Data LIMIT " + (ROWS - 1));
+			check(!rs.absolute(ROWS), "no row past the limit");
+			check(rs.last(), "last row within the limit");
+			check(rs.getRow() == ROWS - 1, "last row of the limit");
+			rs.close();
+		} finally {
+			con.close();
+		}
+	}
+
+	/**
+	 * Checks the rows counted when moving past the limit, with a source not knowing its rows until it has passed them.
+	 */
+	private static void check(RowsCursor source) throws SQLException {
+		LimitedSheetCursor cursor = new LimitedSheetCursor(source, 0, ROWS + 7);
+		check(cursor.moveTo(0), "first row");
+		check(!cursor.moveTo(ROWS + 7), "no row at the limit");
+		check(cursor.getRowCount() == ROWS, "rows of the source below the limit");
+
+		source = new RowsCursor(ROWS, source.isScrollable());
+		cursor = new LimitedSheetCursor(source, 1, ROWS + 7);
+		check(!cursor.moveTo(ROWS + 7), "no row at the limit after an offset");
+		check(cursor.getRowCount() == ROWS - 1, "rows of the source below the limit after an offset");
+
+		source = new RowsCursor(ROWS, source.isScrollable());
+		cursor = new LimitedSheetCursor(source, 0, ROWS - 1);
+		check(!cursor.moveTo(ROWS - 1), "no row past the limit");
+		check(cursor.getRowCount() == ROWS - 1, "rows of the limit");
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+
+	private static File createWorkbook() throws IOException {
+		final File file = File.createTempFile("limited", ".xlsx");
+		final XSSFWorkbook wb = new XSSFWorkbook();
+		final XSSFSheet sheet = wb.createSheet("Data");
+		for (int i=0; i < ROWS; i++) {
+			sheet.createRow(i).createCell(0).setCellValue(i + 1);
+		}
+		final FileOutputStream fos = new FileOutputStream(file);
+		try {
+			wb.write(fos);
+		} finally {
+			fos.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Source of rows with a single numeric column, whose number of rows is unknown until it has been passed.
+	 */
+	private static class RowsCursor implements SheetCursor {
+
+		private final int rows;
+		private final boolean scrollable;
+		private int position = -1;
+		private int rowCount = -1;
+
+		RowsCursor(int rows, boolean scrollable) {
+			this.rows = rows;
+			this.scrollable = scrollable;
+		}
+
+		@Override
+		public String getTableName() {
+			return "Rows";
+		}
+
+		@Override
+		public int getColumnCount() {
+			return 1;
+		}
+
+		@Override
+		public int getRowCount() {
+			return this.rowCount;
+		}
+
+		@Override
+		public boolean isScrollable() {
+			return this.scrollable;
+		}
+
+		@Override
+		public boolean moveTo(int row) throws SQLException {
+			if (!this.scrollable && row < this.position) {
+				throw new SQLException(PoiSSFDriver.CURSOR_IS_FORWARD_ONLY);
+			}
+			this.position = row;
+			if (row >= this.rows) {
+				this.rowCount = this.rows;
+				return false;
+			}
+			return row >= 0;
+		}
+
+		@Override
+		public int getCellType(int column) {
+			return Cell.CELL_TYPE_NUMERIC;
+		}
+
+		@Override
+		public double getNumericCellValue(int column) {
+			return this.position + 1;
+		}
+
+		@Override
+		public String getStringCellValue(int column) {
+			return null;
+		}
+
+		@Override
+		public boolean getBooleanCellValue(int column) {
+			return false;
+		}
+
+		@Override
+		public byte getErrorCellValue(int column) {
+			return 0;
+		}
+
+		@Override
+		public boolean isCellDateFormatted(int column) {
+			return false;
+		}
+
+		@Override
+		public void deleteRow() throws SQLException {
+			throw new SQLFeatureNotSupportedException();
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+}
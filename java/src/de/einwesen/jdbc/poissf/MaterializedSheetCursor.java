@@ -0,0 +1,271 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.Cell;
+
+/**
+ * Scrollable {@link SheetCursor} on rows computed by the driver itself, e.g. the groups of an aggregation.
+ *
+ * The cells are kept in primitive arrays, row after row, the way {@link SheetSnapshot} keeps them per column.
+ */
+/* package-private */ class MaterializedSheetCursor implements SheetCursor {
+
+	private static final byte DATE_FORMATTED = 0x40;
+	private static final byte TYPE_MASK = 0x0F;
+
+	private final String tableName;
+	private final int columnCount;
+	private int rowCount = 0;
+	private int currentRow = -1;
+
+	private byte[] types;
+	private double[] numbers;
+	private String[] strings;
+
+	/* package-private */ MaterializedSheetCursor(String tableName, int columnCount) {
+		this.tableName = tableName;
+		this.columnCount = columnCount;
+
+		final int capacity = 16 * Math.max(1, columnCount);
+		this.types = new byte[capacity];
+		this.numbers = new double[capacity];
+		this.strings = new String[capacity];
+	}
+
+	private MaterializedSheetCursor(MaterializedSheetCursor rows) {
+		this.tableName = rows.tableName;
+		this.columnCount = rows.columnCount;
+		this.rowCount = rows.rowCount;
+		this.types = rows.types;
+		this.numbers = rows.numbers;
+		this.strings = rows.strings;
+	}
+
+	/**
+	 * @return a cursor of its own on the same rows, which must not be changed anymore
+	 */
+	/* package-private */ MaterializedSheetCursor share() {
+		return new MaterializedSheetCursor(this);
+	}
+
+	/**
+	 * @return the index of the new row, with all cells blank
+	 */
+	/* package-private */ int addRow() {
+		final int required = (this.rowCount + 1) * this.columnCount;
+		if (required > this.types.length) {
+			final int capacity = Math.max(required, this.types.length * 2);
+			this.types = Arrays.copyOf(this.types, capacity);
+			this.numbers = Arrays.copyOf(this.numbers, capacity);
+			this.strings = Arrays.copyOf(this.strings, capacity);
+		}
+		Arrays.fill(this.types, required - this.columnCount, required, (byte)Cell.CELL_TYPE_BLANK);
+		return this.rowCount++;
+	}
+
+	/**
+	 * Sets all cells of the row blank, so it can be filled again.
+	 */
+	/* package-private */ void clearRow(int row) {
+		Arrays.fill(this.types, row * this.columnCount, (row + 1) * this.columnCount, (byte)Cell.CELL_TYPE_BLANK);
+		Arrays.fill(this.strings, row * this.columnCount, (row + 1) * this.columnCount, null);
+	}
+
+	/* package-private */ void setNumericCellValue(int row, int column, double value, boolean dateFormatted) {
+		final int cell = row * this.columnCount + column;
+		this.types[cell] = (byte)(dateFormatted ? Cell.CELL_TYPE_NUMERIC | DATE_FORMATTED : Cell.CELL_TYPE_NUMERIC);
+		this.numbers[cell] = value;
+	}
+
+	/* package-private */ void setStringCellValue(int row, int column, String value) {
+		final int cell = row * this.columnCount + column;
+		this.types[cell] = Cell.CELL_TYPE_STRING;
+		this.strings[cell] = value;
+	}
+
+	/* package-private */ void setBooleanCellValue(int row, int column, boolean value) {
+		final int cell = row * this.columnCount + column;
+		this.types[cell] = Cell.CELL_TYPE_BOOLEAN;
+		this.numbers[cell] = value ? 1 : 0;
+	}
+
+	/* package-private */ void setErrorCellValue(int row, int column, byte value) {
+		final int cell = row * this.columnCount + column;
+		this.types[cell] = Cell.CELL_TYPE_ERROR;
+		this.numbers[cell] = value;
+	}
+
+	/**
+	 * Copies a cell of the current row of another cursor.
+	 */
+	/* package-private */ void copyCell(int row, int column, SheetCursor source, int sourceColumn) throws SQLException {
+		switch (source.getCellType(sourceColumn)) {
+			case Cell.CELL_TYPE_NUMERIC:
+				setNumericCellValue(row, column, source.getNumericCellValue(sourceColumn), source.isCellDateFormatted(sourceColumn));
+				break;
+			case Cell.CELL_TYPE_STRING:
+				setStringCellValue(row, column, source.getStringCellValue(sourceColumn));
+				break;
+			case Cell.CELL_TYPE_BOOLEAN:
+				setBooleanCellValue(row, column, source.getBooleanCellValue(sourceColumn));
+				break;
+			case Cell.CELL_TYPE_ERROR:
+				setErrorCellValue(row, column, source.getErrorCellValue(sourceColumn));
+				break;
+			default:
+				// stays blank
+				break;
+		}
+	}
+
+	/**
+	 * Writes a row in a compact binary format: per cell its type, then the double of a number, boolean or error,
+	 * or the UTF-8 bytes of a string.
+	 */
+	/* package-private */ void writeRow(DataOutputStream out, int row) throws IOException {
+		for (int cell=row * this.columnCount; cell < (row + 1) * this.columnCount; cell++) {
+			out.writeByte(this.types[cell]);
+			switch (this.types[cell] & TYPE_MASK) {
+				case Cell.CELL_TYPE_BLANK:
+					break;
+				case Cell.CELL_TYPE_STRING:
+					SidecarFile.writeString(out, this.strings[cell]);
+					break;
+				default:
+					out.writeDouble(this.numbers[cell]);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Reads a row written by {@link #writeRow(DataOutputStream, int)} into the given row.
+	 */
+	/* package-private */ void readRow(DataInputStream in, int row) throws IOException {
+		for (int cell=row * this.columnCount; cell < (row + 1) * this.columnCount; cell++) {
+			this.types[cell] = in.readByte();
+			this.strings[cell] = null;
+			switch (this.types[cell] & TYPE_MASK) {
+				case Cell.CELL_TYPE_BLANK:
+					break;
+				case Cell.CELL_TYPE_STRING:
+					final byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+					this.strings[cell] = new String(bytes, StandardCharsets.UTF_8);
+					break;
+				default:
+					this.numbers[cell] = in.readDouble();
+					break;
+			}
+		}
+	}
+
+	/* package-private */ int getCellType(int row, int column) {
+		return this.types[row * this.columnCount + column] & TYPE_MASK;
+	}
+
+	/* package-private */ double getNumericCellValue(int row, int column) {
+		return this.numbers[row * this.columnCount + column];
+	}
+
+	/* package-private */ String getStringCellValue(int row, int column) {
+		return this.strings[row * this.columnCount + column];
+	}
+
+	/* package-private */ boolean getBooleanCellValue(int row, int column) {
+		return this.numbers[row * this.columnCount + column] != 0;
+	}
+
+	/* package-private */ byte getErrorCellValue(int row, int column) {
+		return (byte)this.numbers[row * this.columnCount + column];
+	}
+
+	/* package-private */ boolean isCellDateFormatted(int row, int column) {
+		return (this.types[row * this.columnCount + column] & DATE_FORMATTED) != 0;
+	}
+
+	@Override
+	public String getTableName() {
+		return this.tableName;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return this.columnCount;
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.rowCount;
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return true;
+	}
+
+	@Override
+	public boolean moveTo(int row) {
+		if (row >= 0 && row < this.rowCount) {
+			this.currentRow = row;
+			return true;
+		} else {
+			this.currentRow = -1;
+			return false;
+		}
+	}
+
+	private int cell(int column) throws SQLException {
+		if (this.currentRow < 0) {
+			throw new SQLException(PoiSSFDriver.CURSOR_ON_INVALID_ROW);
+		}
+		return this.currentRow * this.columnCount + column;
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		return this.types[cell(column)] & TYPE_MASK;
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return this.numbers[cell(column)];
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return this.strings[cell(column)];
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return this.numbers[cell(column)] != 0;
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return (byte)this.numbers[cell(column)];
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		return (this.types[cell(column)] & DATE_FORMATTED) != 0;
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		throw new SQLException(PoiSSFDriver.RESULT_SET_NOT_UPDATETABLE);
+	}
+
+	@Override
+	public void close() {
+		this.currentRow = -1;
+	}
+
+}
@@ -0,0 +1,238 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Forward only {@link SheetCursor} merging sorted runs written to temp files by {@link Sort}.
+ *
+ * Only the current row of each run is held in memory. The files are deleted when the cursor is closed.
+ */
+/* package-private */ class MergingSheetCursor implements SheetCursor {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Sort sort;
+	private final String tableName;
+	private final int columnCount;
+	private final File[] files;
+	private final DataInputStream[] inputs;
+	/** rows left per run */
+	private final int[] remaining;
+	/** current row of each run, in row 0 */
+	private final MaterializedSheetCursor[] rows;
+
+	/** runs with rows left, the run with the next row first */
+	private final int[] heap;
+	private int heapSize = 0;
+
+	private MaterializedSheetCursor currentRow = null;
+	private int position = -1;
+	private boolean exhausted = false;
+
+	/**
+	 * @param files written by {@link Sort}, each starting with its number of rows
+	 */
+	/* package-private */ MergingSheetCursor(Sort sort, String tableName, int columnCount, List<File> files) throws SQLException {
+		this.sort = sort;
+		this.tableName = tableName;
+		this.columnCount = columnCount;
+		this.files = files.toArray(new File[files.size()]);
+		this.inputs = new DataInputStream[this.files.length];
+		this.remaining = new int[this.files.length];
+		this.rows = new MaterializedSheetCursor[this.files.length];
+		this.heap = new int[this.files.length];
+
+		try {
+			for (int run=0; run < this.files.length; run++) {
+				this.inputs[run] = new DataInputStream(new BufferedInputStream(new FileInputStream(this.files[run]), BUFFER_SIZE));
+				this.remaining[run] = this.inputs[run].readInt();
+				this.rows[run] = new MaterializedSheetCursor(tableName, columnCount);
+				this.rows[run].addRow();
+				if (readRow(run)) {
+					this.heap[this.heapSize++] = run;
+					siftUp(this.heapSize - 1);
+				}
+			}
+		} catch (IOException e) {
+			close();
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		}
+	}
+
+	private boolean readRow(int run) throws IOException {
+		if (this.remaining[run] == 0) {
+			return false;
+		}
+		this.rows[run].readRow(this.inputs[run], 0);
+		this.remaining[run]--;
+		return true;
+	}
+
+	/**
+	 * Rows of earlier runs come first if equal, so the sort stays stable.
+	 */
+	private boolean before(int runA, int runB) {
+		final int c = this.sort.compare(this.rows[runA], 0, this.rows[runB], 0);
+		return c < 0 || (c == 0 && runA < runB);
+	}
+
+	private void siftUp(int index) {
+		final int run = this.heap[index];
+		while (index > 0) {
+			final int parent = (index - 1) >>> 1;
+			if (!before(run, this.heap[parent])) {
+				break;
+			}
+			this.heap[index] = this.heap[parent];
+			index = parent;
+		}
+		this.heap[index] = run;
+	}
+
+	private void siftDown(int index) {
+		final int run = this.heap[index];
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= this.heapSize) {
+				break;
+			}
+			if (child + 1 < this.heapSize && before(this.heap[child + 1], this.heap[child])) {
+				child++;
+			}
+			if (!before(this.heap[child], run)) {
+				break;
+			}
+			this.heap[index] = this.heap[child];
+			index = child;
+		}
+		this.heap[index] = run;
+	}
+
+	private boolean next() throws IOException {
+		if (this.position >= 0 && this.heapSize > 0) {
+			// the row returned last is replaced by the next one of its run
+			if (!readRow(this.heap[0])) {
+				this.heap[0] = this.heap[--this.heapSize];
+			}
+			if (this.heapSize > 0) {
+				siftDown(0);
+			}
+		}
+		this.position++;
+		if (this.heapSize == 0) {
+			return false;
+		}
+		this.currentRow = this.rows[this.heap[0]];
+		this.currentRow.moveTo(0);
+		return true;
+	}
+
+	@Override
+	public String getTableName() {
+		return this.tableName;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return this.columnCount;
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.exhausted ? this.position : -1;
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return false;
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		if (row < this.position) {
+			throw new SQLException(PoiSSFDriver.CURSOR_IS_FORWARD_ONLY);
+		}
+		if (this.exhausted) {
+			return false;
+		}
+
+		try {
+			while (this.position < row) {
+				if (!next()) {
+					this.exhausted = true;
+					this.currentRow = null;
+					close();
+					return false;
+				}
+			}
+		} catch (IOException e) {
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		}
+		return true;
+	}
+
+	private MaterializedSheetCursor current() throws SQLException {
+		if (this.currentRow == null) {
+			throw new SQLException(PoiSSFDriver.CURSOR_ON_INVALID_ROW);
+		}
+		return this.currentRow;
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		return current().getCellType(column);
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return current().getNumericCellValue(column);
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return current().getStringCellValue(column);
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return current().getBooleanCellValue(column);
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return current().getErrorCellValue(column);
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		return current().isCellDateFormatted(column);
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		throw new SQLException(PoiSSFDriver.RESULT_SET_NOT_UPDATETABLE);
+	}
+
+	@Override
+	public void close() {
+		for (int run=0; run < this.files.length; run++) {
+			if (this.inputs[run] != null) {
+				try {
+					this.inputs[run].close();
+				} catch (IOException e) {
+					// deleted anyway
+				}
+				this.inputs[run] = null;
+			}
+			TempFiles.delete(this.files[run]);
+		}
+		this.heapSize = 0;
+	}
+
+}
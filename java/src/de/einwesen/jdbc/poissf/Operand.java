@@ -0,0 +1,349 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+/**
+ * Value in a condition, either a cell of the current row, a literal or a parameter of a prepared statement.
+ * Values are handed out as <code>double</code> or {@link String}, types are the {@link Cell} CELL_TYPE_* constants.
+ *
+ * Operands are shared by all executions of a plan, parameters are read from the {@link Parameters} of each execution.
+ */
+/* package-private */ abstract class Operand {
+
+	/** result of {@link #compare(Operand, Operand, SheetCursor, Parameters)} if the values can't be compared */
+	/* package-private */ static final int NOT_COMPARABLE = Integer.MIN_VALUE;
+
+	/**
+	 * @param parameters values of the parameters of the execution, <code>null</code> if the statement has none
+	 */
+	/* package-private */ abstract int getType(SheetCursor row, Parameters parameters) throws SQLException;
+
+	/**
+	 * @return the value as number, {@link Double#NaN} if it isn't one
+	 */
+	/* package-private */ abstract double getNumber(SheetCursor row, Parameters parameters) throws SQLException;
+
+	/**
+	 * @return the value if it is a string, otherwise <code>null</code>
+	 */
+	/* package-private */ abstract String getString(SheetCursor row, Parameters parameters) throws SQLException;
+
+	/**
+	 * @return the value as literal, <code>null</code> if it depends on the row
+	 */
+	/* package-private */ abstract Literal toLiteral(Parameters parameters) throws SQLException;
+
+	/**
+	 * @return the operand with its column looked up
+	 */
+	/* package-private */ abstract Operand bind(Map<String, Integer> header) throws SQLException;
+
+	/* package-private */ abstract void collectColumns(BitSet columns);
+
+	/* package-private */ abstract boolean hasHeaderName();
+
+	/**
+	 * Compares like SQL, nulls and values of different types can't be compared.
+	 * Numbers and booleans compare as numbers, strings compare to numbers if they can be read as one.
+	 *
+	 * @return negative, zero or positive, or {@link #NOT_COMPARABLE}
+	 */
+	/* package-private */ static int compare(Operand a, Operand b, SheetCursor row, Parameters parameters) throws SQLException {
+		final int typeA = a.getType(row, parameters);
+		final int typeB = b.getType(row, parameters);
+
+		if (typeA == Cell.CELL_TYPE_STRING && typeB == Cell.CELL_TYPE_STRING) {
+			return a.getString(row, parameters).compareTo(b.getString(row, parameters));
+		}
+
+		if (isNumeric(typeA) || isNumeric(typeB)) {
+			if ((isNumeric(typeA) || typeA == Cell.CELL_TYPE_STRING) && (isNumeric(typeB) || typeB == Cell.CELL_TYPE_STRING)) {
+				final double x = a.getNumber(row, parameters);
+				final double y = b.getNumber(row, parameters);
+				if (!Double.isNaN(x) && !Double.isNaN(y)) {
+					return Double.compare(x, y);
+				}
+			}
+		}
+		return NOT_COMPARABLE;
+	}
+
+	private static boolean isNumeric(int type) {
+		return type == Cell.CELL_TYPE_NUMERIC || type == Cell.CELL_TYPE_BOOLEAN;
+	}
+
+	/**
+	 * Cell of the current row.
+	 */
+	/* package-private */ static class ColumnValue extends Operand {
+
+		private final SelectStatement.Column column;
+		private final int index;
+
+		/* package-private */ ColumnValue(SelectStatement.Column column) {
+			this(column, -1);
+		}
+
+		private ColumnValue(SelectStatement.Column column, int index) {
+			this.column = column;
+			this.index = index;
+		}
+
+		/**
+		 * @return the column, once bound
+		 */
+		/* package-private */ int getIndex() {
+			return this.index;
+		}
+
+		@Override
+		/* package-private */ int getType(SheetCursor row, Parameters parameters) throws SQLException {
+			return row.getCellType(this.index);
+		}
+
+		@Override
+		/* package-private */ double getNumber(SheetCursor row, Parameters parameters) throws SQLException {
+			switch (row.getCellType(this.index)) {
+				case Cell.CELL_TYPE_NUMERIC:
+					return row.getNumericCellValue(this.index);
+				case Cell.CELL_TYPE_BOOLEAN:
+					return row.getBooleanCellValue(this.index) ? 1 : 0;
+				default:
+					return Double.NaN;
+			}
+		}
+
+		@Override
+		/* package-private */ String getString(SheetCursor row, Parameters parameters) throws SQLException {
+			return row.getCellType(this.index) == Cell.CELL_TYPE_STRING ? row.getStringCellValue(this.index) : null;
+		}
+
+		@Override
+		/* package-private */ Literal toLiteral(Parameters parameters) {
+			return null;
+		}
+
+		@Override
+		/* package-private */ Operand bind(Map<String, Integer> header) throws SQLException {
+			final int index = this.column.getIndex(header);
+			if (index < 0) {
+				throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_FOUND, this.column.getName()));
+			}
+			return new ColumnValue(this.column, index);
+		}
+
+		@Override
+		/* package-private */ void collectColumns(BitSet columns) {
+			columns.set(this.index);
+		}
+
+		@Override
+		/* package-private */ boolean hasHeaderName() {
+			return this.column.needsHeader();
+		}
+
+		@Override
+		public String toString() {
+			return this.column.toString();
+		}
+	}
+
+	/**
+	 * Constant value. Strings that read as a number, or as a date like <code>2020-01-31</code>,
+	 * also compare to numeric cells.
+	 */
+	/* package-private */ static class Literal extends Operand {
+
+		private static final String[] DATE_FORMATS = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "yyyy-MM-dd"};
+
+		/** {@link #DATE_FORMATS} of each thread, as formats can't be shared */
+		private static final ThreadLocal<SimpleDateFormat[]> DATE_FORMATTERS = new ThreadLocal<SimpleDateFormat[]>() {
+			@Override
+			protected SimpleDateFormat[] initialValue() {
+				final SimpleDateFormat[] formatters = new SimpleDateFormat[DATE_FORMATS.length];
+				for (int i=0; i < formatters.length; i++) {
+					formatters[i] = new SimpleDateFormat(DATE_FORMATS[i]);
+					formatters[i].setLenient(false);
+				}
+				return formatters;
+			}
+		};
+
+		private final int type;
+		private final double number;
+		private final String string;
+
+		private Literal(int type, double number, String string) {
+			this.type = type;
+			this.number = number;
+			this.string = string;
+		}
+
+		/* package-private */ static Literal ofNumber(double number) {
+			return new Literal(Cell.CELL_TYPE_NUMERIC, number, null);
+		}
+
+		/* package-private */ static Literal ofBoolean(boolean value) {
+			return new Literal(Cell.CELL_TYPE_BOOLEAN, value ? 1 : 0, null);
+		}
+
+		/* package-private */ static Literal ofNull() {
+			return new Literal(Cell.CELL_TYPE_BLANK, Double.NaN, null);
+		}
+
+		/* package-private */ static Literal ofString(String string) {
+			return new Literal(Cell.CELL_TYPE_STRING, toNumber(string), string);
+		}
+
+		/**
+		 * @param number the string read by {@link #toNumber(String)}
+		 */
+		/* package-private */ static Literal ofString(String string, double number) {
+			return new Literal(Cell.CELL_TYPE_STRING, number, string);
+		}
+
+		/**
+		 * @return the string read as number or date, {@link Double#NaN} if it is neither
+		 */
+		/* package-private */ static double toNumber(String s) {
+			final String trimmed = s.trim();
+			try {
+				return Double.parseDouble(trimmed);
+			} catch (NumberFormatException e) {
+				// maybe a date
+			}
+
+			SimpleDateFormat[] formatters = null;
+			for (int i=0; i < DATE_FORMATS.length; i++) {
+				if (trimmed.length() == DATE_FORMATS[i].length()) {
+					if (formatters == null) {
+						formatters = DATE_FORMATTERS.get();
+					}
+					try {
+						return DateUtil.getExcelDate(formatters[i].parse(trimmed));
+					} catch (ParseException e) {
+						// try the next one
+					}
+				}
+			}
+			return Double.NaN;
+		}
+
+		@Override
+		/* package-private */ int getType(SheetCursor row, Parameters parameters) {
+			return this.type;
+		}
+
+		@Override
+		/* package-private */ double getNumber(SheetCursor row, Parameters parameters) {
+			return this.number;
+		}
+
+		@Override
+		/* package-private */ String getString(SheetCursor row, Parameters parameters) {
+			return this.string;
+		}
+
+		@Override
+		/* package-private */ Literal toLiteral(Parameters parameters) {
+			return this;
+		}
+
+		@Override
+		/* package-private */ Operand bind(Map<String, Integer> header) {
+			return this;
+		}
+
+		@Override
+		/* package-private */ void collectColumns(BitSet columns) {
+			// no column
+		}
+
+		@Override
+		/* package-private */ boolean hasHeaderName() {
+			return false;
+		}
+
+		@Override
+		public String toString() {
+			switch (this.type) {
+				case Cell.CELL_TYPE_STRING:
+					return "'" + this.string.replace("'", "''") + "'";
+				case Cell.CELL_TYPE_BOOLEAN:
+					return this.number != 0 ? "TRUE" : "FALSE";
+				case Cell.CELL_TYPE_BLANK:
+					return "NULL";
+				default:
+					return String.valueOf(this.number);
+			}
+		}
+	}
+
+	/**
+	 * <code>?</code> of a prepared statement, read from the values set for the execution.
+	 */
+	/* package-private */ static class Parameter extends Operand {
+
+		/** starting at 1 */
+		private final int index;
+
+		/* package-private */ Parameter(int index) {
+			this.index = index;
+		}
+
+		@Override
+		/* package-private */ int getType(SheetCursor row, Parameters parameters) throws SQLException {
+			return values(parameters).getType(this.index);
+		}
+
+		@Override
+		/* package-private */ double getNumber(SheetCursor row, Parameters parameters) throws SQLException {
+			return values(parameters).getNumber(this.index);
+		}
+
+		@Override
+		/* package-private */ String getString(SheetCursor row, Parameters parameters) throws SQLException {
+			return values(parameters).getString(this.index);
+		}
+
+		@Override
+		/* package-private */ Literal toLiteral(Parameters parameters) throws SQLException {
+			return values(parameters).toLiteral(this.index);
+		}
+
+		private Parameters values(Parameters parameters) throws SQLException {
+			if (parameters == null) {
+				throw new SQLException(String.format(PoiSSFDriver.PARAMETER_NOT_SET, this.index));
+			}
+			return parameters;
+		}
+
+		@Override
+		/* package-private */ Operand bind(Map<String, Integer> header) {
+			return this;
+		}
+
+		@Override
+		/* package-private */ void collectColumns(BitSet columns) {
+			// no column
+		}
+
+		@Override
+		/* package-private */ boolean hasHeaderName() {
+			return false;
+		}
+
+		@Override
+		public String toString() {
+			return "?";
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Read only list of strings, stored as UTF-8 in one byte arena and decoded on access.
+ *
+ * Once the arena exceeds the spill threshold it is written to a temporary file,
+ * which is memory mapped after the last string has been added. The arena is limited to 2 GB.
+ */
+/* package-private */ class PackedStringTable {
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	private final long spillThreshold;
+
+	private byte[] arena = new byte[4096];
+	private int arenaSize = 0;
+	private int[] offsets = new int[257];
+	private int count = 0;
+
+	private File spillFile = null;
+	private RandomAccessFile spillAccess = null;
+	private long spilledBytes = 0;
+	private ByteBuffer mapped = null;
+
+	/* package-private */ PackedStringTable(long spillThreshold) {
+		this.spillThreshold = spillThreshold;
+	}
+
+	/**
+	 * Reads the &lt;si&gt; items of a XLSX shared strings part.
+	 */
+	/* package-private */ static PackedStringTable readSharedStrings(InputStream is, long spillThreshold) throws IOException {
+		final PackedStringTable table = new PackedStringTable(spillThreshold);
+		try {
+			final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(is);
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT && "si".equals(reader.getLocalName())) {
+						table.add(readStringItem(reader));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+			table.finish();
+			return table;
+		} catch (XMLStreamException e) {
+			table.close();
+			throw new IOException(e);
+		} catch (IOException e) {
+			table.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Concatenates the text runs of a &lt;si&gt; or &lt;is&gt; element, the reader has to be on its start element.
+	 */
+	/* package-private */ static String readStringItem(XMLStreamReader reader) throws XMLStreamException {
+		final StringBuilder sb = new StringBuilder();
+		int depth = 1;
+		while (depth > 0) {
+			final int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				final String name = reader.getLocalName();
+				if ("t".equals(name)) {
+					sb.append(reader.getElementText());
+				} else if ("rPh".equals(name)) {
+					// phonetic run, not part of the value
+					int rPhDepth = 1;
+					while (rPhDepth > 0) {
+						final int e = reader.next();
+						if (e == XMLStreamConstants.START_ELEMENT) {
+							rPhDepth++;
+						} else if (e == XMLStreamConstants.END_ELEMENT) {
+							rPhDepth--;
+						}
+					}
+				} else {
+					depth++;
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+		return sb.toString();
+	}
+
+	/* package-private */ int add(String s) throws IOException {
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+		if (this.arenaSize + bytes.length > this.spillThreshold && this.arenaSize > 0) {
+			spill();
+		}
+
+		if (this.arenaSize + bytes.length > this.arena.length) {
+			this.arena = Arrays.copyOf(this.arena, Math.max(this.arena.length * 2, this.arenaSize + bytes.length));
+		}
+		System.arraycopy(bytes, 0, this.arena, this.arenaSize, bytes.length);
+		this.arenaSize += bytes.length;
+
+		final long end = this.spilledBytes + this.arenaSize;
+		if (end > Integer.MAX_VALUE) {
+			throw new IOException("Too many strings");
+		}
+
+		if (this.count + 1 == this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+		}
+		this.offsets[++this.count] = (int)end;
+		return this.count - 1;
+	}
+
+	private void spill() throws IOException {
+		if (this.spillAccess == null) {
+			this.spillFile = File.createTempFile("poissf-strings", ".bin");
+			try {
+				this.spillAccess = new RandomAccessFile(this.spillFile, "rw");
+			} catch (IOException e) {
+				TempFiles.delete(this.spillFile);
+				throw e;
+			}
+		}
+		this.spillAccess.write(this.arena, 0, this.arenaSize);
+		this.spilledBytes += this.arenaSize;
+		this.arenaSize = 0;
+	}
+
+	/**
+	 * Called after the last string has been added.
+	 */
+	/* package-private */ void finish() throws IOException {
+		if (this.spillAccess != null) {
+			spill();
+			this.arena = null;
+			this.mapped = this.spillAccess.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.spilledBytes);
+		} else {
+			this.arena = Arrays.copyOf(this.arena, this.arenaSize);
+		}
+		this.offsets = Arrays.copyOf(this.offsets, this.count + 1);
+	}
+
+	/* package-private */ int size() {
+		return this.count;
+	}
+
+	/* package-private */ String get(int index) {
+		final int start = this.offsets[index];
+		final int length = this.offsets[index + 1] - start;
+
+		if (this.mapped != null) {
+			final byte[] bytes = new byte[length];
+			final ByteBuffer buffer = this.mapped.duplicate();
+			buffer.position(start);
+			buffer.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		} else {
+			return new String(this.arena, start, length, StandardCharsets.UTF_8);
+		}
+	}
+
+	/* package-private */ void close() {
+		this.mapped = null;
+		if (this.spillAccess != null) {
+			try {
+				this.spillAccess.close();
+			} catch (IOException e) {
+				// Do nothing
+			}
+			this.spillAccess = null;
+			// may fail while the mapping hasn't been garbage collected on some platforms, it is tried again then
+			TempFiles.delete(this.spillFile);
+			this.spillFile = null;
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+/**
+ * Values set for the <code>?</code> parameters of a prepared statement, one slot per parameter.
+ * Values are kept like cells, numbers, booleans and dates as <code>double</code>, so setting them allocates nothing.
+ * Strings keep the number they read as, so comparing them to numeric cells doesn't parse them again.
+ *
+ * Each execution reads a {@link #copy()} of the values, which may be shared by the threads reading its rows.
+ */
+/* package-private */ class Parameters {
+
+	private static final byte UNSET = -1;
+
+	/** {@link Cell} CELL_TYPE_* constants, or {@link #UNSET} */
+	private final byte[] types;
+	private final double[] numbers;
+	private final String[] strings;
+
+	/* package-private */ Parameters(int count) {
+		this.types = new byte[count];
+		this.numbers = new double[count];
+		this.strings = new String[count];
+		clear();
+	}
+
+	private Parameters(Parameters parameters) {
+		this.types = parameters.types.clone();
+		this.numbers = parameters.numbers.clone();
+		this.strings = parameters.strings.clone();
+	}
+
+	/**
+	 * @return the values set, not changed by setting them again while an execution still reads them
+	 * @throws SQLException if a value hasn't been set
+	 */
+	/* package-private */ Parameters copy() throws SQLException {
+		for (int slot=0; slot < this.types.length; slot++) {
+			if (this.types[slot] == UNSET) {
+				throw new SQLException(String.format(PoiSSFDriver.PARAMETER_NOT_SET, slot + 1));
+			}
+		}
+		return new Parameters(this);
+	}
+
+	/* package-private */ int getCount() {
+		return this.types.length;
+	}
+
+	/* package-private */ void clear() {
+		Arrays.fill(this.types, UNSET);
+		Arrays.fill(this.strings, null);
+	}
+
+	/**
+	 * @param index starting at 1
+	 */
+	private int slot(int index) throws SQLException {
+		if (index < 1 || index > this.types.length) {
+			throw new SQLException(String.format(PoiSSFDriver.INVALID_PARAMETER_INDEX, index));
+		}
+		return index - 1;
+	}
+
+	/* package-private */ void setNull(int index) throws SQLException {
+		final int slot = slot(index);
+		this.types[slot] = Cell.CELL_TYPE_BLANK;
+		this.strings[slot] = null;
+	}
+
+	/* package-private */ void setNumber(int index, double value) throws SQLException {
+		final int slot = slot(index);
+		this.types[slot] = Cell.CELL_TYPE_NUMERIC;
+		this.numbers[slot] = value;
+		this.strings[slot] = null;
+	}
+
+	/* package-private */ void setBoolean(int index, boolean value) throws SQLException {
+		final int slot = slot(index);
+		this.types[slot] = Cell.CELL_TYPE_BOOLEAN;
+		this.numbers[slot] = value ? 1 : 0;
+		this.strings[slot] = null;
+	}
+
+	/**
+	 * @param value <code>null</code> for SQL null
+	 */
+	/* package-private */ void setString(int index, String value) throws SQLException {
+		if (value == null) {
+			setNull(index);
+			return;
+		}
+		final int slot = slot(index);
+		this.types[slot] = Cell.CELL_TYPE_STRING;
+		this.numbers[slot] = Operand.Literal.toNumber(value);
+		this.strings[slot] = value;
+	}
+
+	/**
+	 * Sets a date as the number Excel stores it as, so it compares to date formatted cells.
+	 *
+	 * @param value <code>null</code> for SQL null
+	 */
+	/* package-private */ void setDate(int index, Date value) throws SQLException {
+		setDate(index, value, null);
+	}
+
+	/**
+	 * @param cal time zone the date is stored for, <code>null</code> for the default time zone
+	 */
+	/* package-private */ void setDate(int index, Date value, Calendar cal) throws SQLException {
+		if (value == null) {
+			setNull(index);
+			return;
+		}
+		setNumber(index, getExcelDate(value, cal));
+	}
+
+	/**
+	 * @param cal time zone of the day and time counted by Excel, <code>null</code> for the default time zone
+	 */
+	/* package-private */ static double getExcelDate(Date value, Calendar cal) {
+		if (cal == null) {
+			return DateUtil.getExcelDate(value);
+		}
+		final Calendar local = (Calendar)cal.clone();
+		local.setTime(value);
+		return DateUtil.getExcelDate(local, false);
+	}
+
+	/**
+	 * @return {@link Cell} CELL_TYPE_* constant of the value set
+	 * @throws SQLException if no value has been set
+	 */
+	/* package-private */ int getType(int index) throws SQLException {
+		final int slot = slot(index);
+		if (this.types[slot] == UNSET) {
+			throw new SQLException(String.format(PoiSSFDriver.PARAMETER_NOT_SET, index));
+		}
+		return this.types[slot];
+	}
+
+	/**
+	 * @return the value as number, {@link Double#NaN} if it isn't one
+	 */
+	/* package-private */ double getNumber(int index) throws SQLException {
+		return getType(index) == Cell.CELL_TYPE_BLANK ? Double.NaN : this.numbers[index - 1];
+	}
+
+	/**
+	 * @return the value if it is a string, otherwise <code>null</code>
+	 */
+	/* package-private */ String getString(int index) throws SQLException {
+		getType(index);
+		return this.strings[index - 1];
+	}
+
+	/**
+	 * @return the value set as literal
+	 * @throws SQLException if no value has been set
+	 */
+	/* package-private */ Operand.Literal toLiteral(int index) throws SQLException {
+		final int slot = slot(index);
+		switch (this.types[slot]) {
+			case Cell.CELL_TYPE_NUMERIC:
+				return Operand.Literal.ofNumber(this.numbers[slot]);
+			case Cell.CELL_TYPE_BOOLEAN:
+				return Operand.Literal.ofBoolean(this.numbers[slot] != 0);
+			case Cell.CELL_TYPE_STRING:
+				return Operand.Literal.ofString(this.strings[slot], this.numbers[slot]);
+			case Cell.CELL_TYPE_BLANK:
+				return Operand.Literal.ofNull();
+			default:
+				throw new SQLException(String.format(PoiSSFDriver.PARAMETER_NOT_SET, index));
+		}
+	}
+
+}
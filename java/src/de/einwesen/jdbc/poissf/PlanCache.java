@@ -0,0 +1,95 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used {@link QueryPlan}s of a connection, by their SQL with whitespace outside of quotes collapsed.
+ *
+ * Plans are shared by all statements of the connection, so they only hold what doesn't change between executions.
+ * Statements that don't parse aren't cached.
+ */
+/* package-private */ class PlanCache {
+
+	private final LinkedHashMap<String, QueryPlan> plans;
+	private long hits = 0;
+	private long misses = 0;
+
+	/* package-private */ PlanCache(final int maxSize) {
+		this.plans = new LinkedHashMap<String, QueryPlan>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, QueryPlan> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @return the cached plan of the statement, or a new one
+	 */
+	/* package-private */ QueryPlan get(String sql) throws SQLException {
+		if (sql == null) {
+			return QueryPlan.parse(sql);
+		}
+
+		final String key = normalize(sql);
+		synchronized (this) {
+			final QueryPlan plan = this.plans.get(key);
+			if (plan != null) {
+				this.hits++;
+				return plan;
+			}
+			this.misses++;
+		}
+
+		// parsed outside of the lock, a plan parsed twice at the same time is simply replaced
+		final QueryPlan plan = QueryPlan.parse(sql);
+		synchronized (this) {
+			this.plans.put(key, plan);
+		}
+		return plan;
+	}
+
+	/* package-private */ synchronized long getHits() {
+		return this.hits;
+	}
+
+	/* package-private */ synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * @return the statement with each run of whitespace outside of strings and quoted names replaced by a single space
+	 */
+	private static String normalize(String sql) {
+		final StringBuilder sb = new StringBuilder(sql.length());
+		char close = 0;
+		boolean space = false;
+		for (int i=0; i < sql.length(); i++) {
+			final char c = sql.charAt(i);
+			if (close != 0) {
+				// a doubled quote closes and opens again, which needs no special case here
+				if (c == close) {
+					close = 0;
+				}
+			} else if (Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			} else if (c == '\'' || c == '"' || c == '`') {
+				close = c;
+			} else if (c == '[') {
+				close = ']';
+			}
+			if (space && sb.length() > 0) {
+				sb.append(' ');
+			}
+			space = false;
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+}
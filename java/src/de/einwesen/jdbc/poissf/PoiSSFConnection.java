@@ -1,9 +1,11 @@
 package de.einwesen.jdbc.poissf;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.sql.Array;
@@ -12,6 +14,7 @@ import java.sql.CallableStatement;
 import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.JDBCType;
 import java.sql.NClob;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -23,24 +26,70 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import org.apache.poi.POIXMLDocument;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 public class PoiSSFConnection implements Connection {
 
 	
 	private /*XSSF*/Workbook excelWorkbook = null;
+	private CountingStreamingWorkbook streamingWorkbook = null;
+	private SnapshotWorkbook snapshotWorkbook = null;
+	
+	private boolean closed = false;
 	private boolean readOnly = true;
 	private boolean resultExtendedMetadataEnabled = false;
+	private boolean streamingEnabled = false;
+	private boolean lazyEnabled = false;
+	private boolean snapshotEnabled = false;
+	private boolean parallelEnabled = false;
+	private boolean pipelinedEnabled = false;
+	private boolean workbookCacheEnabled = false;
+	private boolean indexAutoEnabled = false;
+	private boolean resultCacheEnabled = false;
+	private boolean headerRowEnabled = false;
+	/** <code>sheet!column</code> entries of {@link PoiSSFDriver#CONNECTION_PROPERTY_INDEX_COLUMNS} */
+	private final List<String> indexColumns = new ArrayList<String>();
+	private boolean sharedWorkbook = false;
+	private String sidecarDir = null;
+	private boolean workbookOpenedReadOnly = false;
 	private URL workbookURL = null;
+	/** size and modification time of the file when it was opened, to tell whether results may be cached */
+	private long workbookLength = -1;
+	private long workbookLastModified = -1;
+	private Properties info = null;
+	private WorkbookWatcher.Listener watchListener = null;
+	/** replaced by reloads, but cursors may still be reading from them */
+	private final List<CountingStreamingWorkbook> retiredStreamingWorkbooks = new ArrayList<CountingStreamingWorkbook>();
+	/** connections to the workbooks attached by the properties, by lower case name, opened when first used */
+	private final Map<String, PoiSSFConnection> attachedConnections = new HashMap<String, PoiSSFConnection>();
+	/** by lower case sheet and column index, built when first used */
+	private final Map<String, SheetIndex> indexes = new HashMap<String, SheetIndex>();
+	/** counts the changes of the sheets, plans bound to their header rows before are bound again */
+	private int generation = 0;
+	/** names defined in the POI workbook, read when first needed */
+	private Map<String, SheetRange> definedNames = null;
+	/** <code>null</code> unless enabled by {@link PoiSSFDriver#CONNECTION_PROPERTY_PLAN_CACHE_SIZE} */
+	private PlanCache planCache = null;
 	
 	private final Map<String, Class<?>> typeMap = new HashMap<String, Class<?>>(0);
 	private SQLWarning rootWarning = null;
@@ -51,11 +100,312 @@ public class PoiSSFConnection implements Connection {
 	public PoiSSFConnection(URL file, Properties info) throws IOException, InvalidFormatException {
 		
 		this.workbookURL = file;
+		this.info = info != null ? info : new Properties();
+		
+		if (info != null) {
+			this.resultExtendedMetadataEnabled = "true".equalsIgnoreCase(info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_RS_EXTENDED_METADATA));
+			this.streamingEnabled = "true".equalsIgnoreCase(info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_STREAMING));
+			this.lazyEnabled = "true".equalsIgnoreCase(info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_LAZY));
+			this.snapshotEnabled = "true".equalsIgnoreCase(info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_SNAPSHOT));
+			this.parallelEnabled = "true".equalsIgnoreCase(info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_PARALLEL));
+			this.pipelinedEnabled = "true".equalsIgnoreCase(info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_PIPELINED));
+			this.workbookCacheEnabled = "true".equalsIgnoreCase(info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_WORKBOOK_CACHE));
+			this.sidecarDir = info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_SIDECAR_DIR);
+			this.indexAutoEnabled = "true".equalsIgnoreCase(info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_INDEX_AUTO));
+			this.resultCacheEnabled = "true".equalsIgnoreCase(info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_RESULT_CACHE));
+			this.headerRowEnabled = "true".equalsIgnoreCase(info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_HEADER_ROW));
+			final String indexColumns = info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_INDEX_COLUMNS);
+			if (indexColumns != null) {
+				for (String column : indexColumns.split(",")) {
+					if (column.trim().length() > 0) {
+						this.indexColumns.add(column.trim());
+					}
+				}
+			}
+			final String planCacheSize = info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_PLAN_CACHE_SIZE);
+			if (planCacheSize != null) {
+				try {
+					final int size = Integer.parseInt(planCacheSize.trim());
+					if (size > 0) {
+						this.planCache = new PlanCache(size);
+					}
+				} catch (NumberFormatException e) {
+					// no cache, like invalid system properties are ignored
+				}
+			}
+		}
+		
+		final File openedFile = getWorkbookFile();
+		this.workbookLength = openedFile.length();
+		this.workbookLastModified = openedFile.lastModified();
+		
+		if (this.sidecarDir != null) {
+			openSidecar(new File(this.sidecarDir));
+		}
+		
+		if (this.streamingEnabled || this.lazyEnabled || this.parallelEnabled) {
+			// Workbook will be loaded only if a query needs it
+			// Pipelines aren't used for parallel reading, as its tasks would wait for each other on the same thread pool
+			final File workbookFile = getWorkbookFile();
+			if (isOOXMLFile(workbookFile)) {
+				this.streamingWorkbook = new CountingStreamingWorkbook(new XSSFStreamingWorkbook(workbookFile, this.pipelinedEnabled && !this.parallelEnabled));
+			} else {
+				try {
+					this.streamingWorkbook = new CountingStreamingWorkbook(new HSSFStreamingWorkbook(workbookFile));
+				} catch (SQLException e) {
+					// reported as is by the driver
+					throw new IOException(e);
+				}
+			}
+			
+			if ((this.lazyEnabled || this.parallelEnabled) && this.snapshotWorkbook == null) {
+				this.snapshotWorkbook = new SnapshotWorkbook(this.streamingWorkbook);
+				
+				if (this.parallelEnabled) {
+					try {
+						this.snapshotWorkbook.readAll(PoiSSFDriver.getExecutor());
+					} catch (SQLException e) {
+						this.streamingWorkbook.close();
+						throw new IOException(e);
+					}
+				}
+			}
+		} else if (this.snapshotWorkbook == null) {
+			this.excelWorkbook = loadWorkbook();
+		}
+		
+		if ("true".equalsIgnoreCase(this.info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_WATCH))) {
+			this.watchListener = new WorkbookWatcher.Listener() {
+				@Override
+				public void workbookChanged(File changedFile) {
+					reload();
+				}
+			};
+			PoiSSFDriver.getWorkbookWatcher().register(getWorkbookFile(), this.watchListener);
+		}
+	}
+	
+	/**
+	 * Opens the changed file like this connection did, reads the sheets read before again
+	 * and then takes over the result, so following statements see the new content.
+	 * Snapshots of sheets whose parts in a XLSX file are unchanged are kept instead of being read again.
+	 * Nothing is done if the workbook of this connection may have been changed in memory.
+	 */
+	private void reload() {
+		final SnapshotWorkbook previousSnapshots;
+		final List<String> sheetNames;
+		synchronized (this) {
+			if (this.closed || !isWorkbookUnchanged()) {
+				return;
+			}
+			previousSnapshots = this.snapshotWorkbook;
+			sheetNames = previousSnapshots != null ? previousSnapshots.getSnapshotNames() : new ArrayList<String>(0);
+		}
+		
+		final Properties reloadInfo = new Properties();
+		reloadInfo.putAll(this.info);
+		reloadInfo.remove(PoiSSFDriver.CONNECTION_PROPERTY_READ_WATCH);
+		if (this.parallelEnabled) {
+			// all sheets are read below, once the unchanged ones have been taken over
+			reloadInfo.remove(PoiSSFDriver.CONNECTION_PROPERTY_READ_PARALLEL);
+			// read by tasks of the pool, which must not wait for pipelines on the same pool
+			reloadInfo.remove(PoiSSFDriver.CONNECTION_PROPERTY_READ_PIPELINED);
+			reloadInfo.setProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_LAZY, "true");
+		}
+		
+		PoiSSFConnection reloaded = null;
+		try {
+			reloaded = new PoiSSFConnection(this.workbookURL, reloadInfo);
+			
+			if (previousSnapshots != null && reloaded.snapshotWorkbook == null && reloaded.excelWorkbook != null) {
+				reloaded.snapshotWorkbook = SnapshotWorkbook.read(reloaded.excelWorkbook);
+				reloaded.detachPoiWorkbook();
+			} else if (reloaded.snapshotWorkbook != null) {
+				if (previousSnapshots != null) {
+					reloaded.snapshotWorkbook.reuseUnchanged(previousSnapshots);
+				}
+				if (this.parallelEnabled) {
+					reloaded.snapshotWorkbook.readAll(PoiSSFDriver.getExecutor());
+				}
+				for (String sheetName : sheetNames) {
+					try {
+						reloaded.snapshotWorkbook.getSnapshot(sheetName);
+					} catch (SQLException e) {
+						// e.g. the sheet has been removed, reported when it is queried
+					}
+				}
+			}
+		} catch (Throwable e) {
+			synchronized (this) {
+				addWarning(new SQLWarning("Changed workbook could not be read", e));
+			}
+			if (reloaded != null) {
+				try {
+					reloaded.close();
+				} catch (SQLException e1) {
+					// Do nothing
+				}
+			}
+			return;
+		}
+		
+		takeOver(reloaded);
+	}
+	
+	private synchronized void takeOver(PoiSSFConnection reloaded) {
+		if (this.closed || !isWorkbookUnchanged()) {
+			try {
+				reloaded.close();
+			} catch (SQLException e) {
+				// Do nothing
+			}
+			return;
+		}
+		
+		if (this.excelWorkbook != null) {
+			releaseWorkbook(this.excelWorkbook, this.sharedWorkbook);
+		}
+		if (this.snapshotWorkbook != null) {
+			this.snapshotWorkbook.close();
+		}
+		final Iterator<CountingStreamingWorkbook> retired = this.retiredStreamingWorkbooks.iterator();
+		while (retired.hasNext()) {
+			if (retired.next().isClosed()) {
+				retired.remove();
+			}
+		}
+		if (this.streamingWorkbook != null) {
+			// closed by the last cursor still reading it
+			this.streamingWorkbook.retire();
+			this.retiredStreamingWorkbooks.add(this.streamingWorkbook);
+		}
+		
+		this.excelWorkbook = reloaded.excelWorkbook;
+		this.sharedWorkbook = reloaded.sharedWorkbook;
+		this.workbookOpenedReadOnly = reloaded.workbookOpenedReadOnly;
+		this.streamingWorkbook = reloaded.streamingWorkbook;
+		this.snapshotWorkbook = reloaded.snapshotWorkbook;
+		this.workbookLength = reloaded.workbookLength;
+		this.workbookLastModified = reloaded.workbookLastModified;
+		this.definedNames = null;
+		if (reloaded.rootWarning != null) {
+			addWarning(reloaded.rootWarning);
+		}
+		
+		reloaded.excelWorkbook = null;
+		reloaded.streamingWorkbook = null;
+		reloaded.snapshotWorkbook = null;
+		reloaded.closed = true;
+		this.generation++;
+		
+		if (!this.readOnly && this.excelWorkbook != null) {
+			// opened read only by the reload
+			detachPoiWorkbook();
+		}
+	}
+	
+	/**
+	 * @return <code>true</code> if everything this connection has read still matches the file it was read from
+	 */
+	private boolean isWorkbookUnchanged() {
+		return this.excelWorkbook == null || this.workbookOpenedReadOnly;
+	}
+	
+	/**
+	 * Maps the sidecar file of the workbook, or creates it from the workbook if there is none.
+	 */
+	private void openSidecar(File dir) throws IOException, InvalidFormatException {
+		final File workbookFile = getWorkbookFile();
+		final File sidecarFile = SidecarFile.locate(dir, workbookFile);
+		
+		final SidecarFile sidecar = SidecarFile.open(sidecarFile);
+		if (sidecar != null) {
+			this.snapshotWorkbook = new SnapshotWorkbook(sidecar);
+			return;
+		}
+		
+		this.excelWorkbook = loadWorkbook();
+		this.snapshotWorkbook = SnapshotWorkbook.read(this.excelWorkbook);
+		detachPoiWorkbook();
+		
+		try {
+			SidecarFile.write(sidecarFile, workbookFile, this.snapshotWorkbook);
+		} catch (IOException e) {
+			// the snapshots are still usable for this connection
+			addWarning(new SQLWarning("Sidecar file not written", e));
+		}
+	}
+	
+	private void addWarning(SQLWarning warning) {
+		if (this.rootWarning != null) {
+			this.rootWarning.setNextWarning(warning);
+		} else {
+			this.rootWarning = warning;
+		}
+	}
+	
+	private Workbook loadWorkbook() throws IOException, InvalidFormatException {
+		this.workbookOpenedReadOnly = this.readOnly;
+		
+		if (this.workbookCacheEnabled && this.readOnly) {
+			try {
+				final Workbook wb = PoiSSFDriver.getWorkbookCache().get(getWorkbookFile(), new Callable<Workbook>() {
+					@Override
+					public Workbook call() throws Exception {
+						return readWorkbook();
+					}
+				});
+				this.sharedWorkbook = true;
+				return wb;
+			} catch (IOException e) {
+				throw e;
+			} catch (InvalidFormatException e) {
+				throw e;
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException(e);
+			}
+		} else {
+			this.sharedWorkbook = false;
+			return readWorkbook();
+		}
+	}
+	
+	private Workbook readWorkbook() throws IOException, InvalidFormatException {
+		
+		// Files of read only connections are read in place instead of being copied into memory first
+		if (this.readOnly && "file".equalsIgnoreCase(this.workbookURL.getProtocol())) {
+			final File file = getWorkbookFile();
+			if (isOOXMLFile(file)) {
+				final OPCPackage pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
+				try {
+					return new XSSFWorkbook(pkg);
+				} catch (IOException e) {
+					pkg.revert();
+					throw e;
+				} catch (RuntimeException e) {
+					pkg.revert();
+					throw e;
+				}
+			} else {
+				final NPOIFSFileSystem fs = new NPOIFSFileSystem(file, true);
+				try {
+					return new HSSFWorkbook(fs.getRoot(), true);
+				} catch (IOException e) {
+					fs.close();
+					throw e;
+				} catch (RuntimeException e) {
+					fs.close();
+					throw e;
+				}
+			}
+		}
 		
 		InputStream is = null; 
 		try {
-			is = file.openStream();			
-			this.excelWorkbook = WorkbookFactory.create(is);
+			is = this.workbookURL.openStream();			
+			return WorkbookFactory.create(is);
 		} finally {
 			if (is != null) {
 				try {
@@ -65,11 +415,62 @@ public class PoiSSFConnection implements Connection {
 				}
 			}
 		}
-		
-		if (info != null) {
-			this.resultExtendedMetadataEnabled = "true".equalsIgnoreCase(info.getProperty(PoiSSFDriver.CONNECTION_PROPERTY_RS_EXTENDED_METADATA));
+	}
+	
+	/**
+	 * @param shared taken from the {@link WorkbookCache}, which closes it once no connection uses it anymore
+	 */
+	private static void releaseWorkbook(Workbook workbook, boolean shared) {
+		if (shared) {
+			PoiSSFDriver.getWorkbookCache().release(workbook);
+		} else {
+			releaseWorkbook(workbook);
+		}
+	}
+	
+	/**
+	 * Closes the file of a workbook read in place.
+	 */
+	/* package-private */ static void releaseWorkbook(Workbook workbook) {
+		if (workbook instanceof XSSFWorkbook) {
+			final OPCPackage pkg = ((XSSFWorkbook)workbook).getPackage();
+			if (pkg != null && pkg.getPackageAccess() == PackageAccess.READ) {
+				pkg.revert();
+			}
+		} else if (workbook instanceof HSSFWorkbook) {
+			final NPOIFSFileSystem fs = ((HSSFWorkbook)workbook).getRootDirectory().getNFileSystem();
+			if (fs != null) {
+				try {
+					fs.close();
+				} catch (IOException e) {
+					// Do nothing
+				}
+			}
+		}
+	}
+	
+	private static boolean isOOXMLFile(File file) throws IOException {
+		InputStream is = null;
+		try {
+			is = new PushbackInputStream(new FileInputStream(file), 8);
+			return POIXMLDocument.hasOOXMLHeader(is);
+		} finally {
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException e1) {
+					// Do nothing
+				}
+			}
+		}
+	}
+	
+	private File getWorkbookFile() throws IOException {
+		try {
+			return new File(this.workbookURL.toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
 		}
-		
 	}
 	
 	@Override
@@ -99,15 +500,7 @@ public class PoiSSFConnection implements Connection {
 
 	@Override
 	public String nativeSQL(String sql) throws SQLException {
-	   final Pattern p = Pattern.compile("(?<=FROM ).*(?=( |$))", Pattern.CASE_INSENSITIVE);
-	   
-	   final Matcher m = p.matcher(sql);
-	   if (m.find()) {
-		   return m.group();
-	   } else {
-		   throw new SQLException("FROM not found");
-	   }
-
+		return SqlParser.parse(sql).toString();
 	}
 
 	@Override
@@ -130,8 +523,8 @@ public class PoiSSFConnection implements Connection {
 				FileOutputStream fos = null;
 				
 				try {
-					fos = new FileOutputStream(new File(this.workbookURL.toURI()));
-					excelWorkbook.write(fos);
+					fos = new FileOutputStream(getWorkbookFile());
+					getPoiWorkbook().write(fos);
 				} catch (Throwable e) {
 					throw new SQLException("error during commit", e);
 				} finally {
@@ -139,17 +532,20 @@ public class PoiSSFConnection implements Connection {
 						try {
 							fos.close();
 						} catch (IOException e) {
-							SQLWarning myWarning = new SQLWarning("FileOutputStream not closed after commitcall", e);
-							
-							if (this.rootWarning != null) {
-								this.rootWarning.setNextWarning(myWarning);
-							} else {
-								this.rootWarning = myWarning;
-							}
+							addWarning(new SQLWarning("FileOutputStream not closed after commitcall", e));
 						}
 					}
 				}
 				
+				sheetsChanged();
+				
+				// other connections must not get the outdated version anymore
+				try {
+					PoiSSFDriver.getWorkbookCache().invalidate(getWorkbookFile());
+				} catch (IOException e) {
+					throw new SQLException("error during commit", e);
+				}
+				
 			} else {
 				throw new SQLException("Connection is read only");
 			}			
@@ -164,13 +560,47 @@ public class PoiSSFConnection implements Connection {
 	}
 
 	@Override
-	public void close() throws SQLException {
+	public synchronized void close() throws SQLException {
+		this.closed = true;
+		
+		if (this.watchListener != null) {
+			try {
+				PoiSSFDriver.getWorkbookWatcher().unregister(getWorkbookFile(), this.watchListener);
+			} catch (IOException e) {
+				// Do nothing
+			}
+			this.watchListener = null;
+		}
+		
+		if (this.excelWorkbook != null) {
+			releaseWorkbook(this.excelWorkbook, this.sharedWorkbook);
+		}
 		this.excelWorkbook = null;
+		
+		if (this.snapshotWorkbook != null) {
+			this.snapshotWorkbook.close();
+			this.snapshotWorkbook = null;
+		}
+		
+		if (this.streamingWorkbook != null) {
+			this.streamingWorkbook.close();
+			this.streamingWorkbook = null;
+		}
+		
+		for (CountingStreamingWorkbook retired : this.retiredStreamingWorkbooks) {
+			retired.close();
+		}
+		this.retiredStreamingWorkbooks.clear();
+		
+		for (PoiSSFConnection attached : this.attachedConnections.values()) {
+			attached.close();
+		}
+		this.attachedConnections.clear();
 	}
 
 	@Override
 	public boolean isClosed() throws SQLException {
-		return this.excelWorkbook == null;
+		return this.closed;
 	}
 
 	@Override
@@ -179,8 +609,22 @@ public class PoiSSFConnection implements Connection {
 	}
 
 	@Override
-	public void setReadOnly(boolean readOnly) throws SQLException {
+	public synchronized void setReadOnly(boolean readOnly) throws SQLException {
 		this.readOnly = readOnly;
+		
+		if (!readOnly && this.excelWorkbook != null && this.workbookOpenedReadOnly) {
+			// a cached workbook must not be changed and one read in place can't be written back to its file,
+			// so a private one will be loaded on demand
+			detachPoiWorkbook();
+		}
+	}
+	
+	private void detachPoiWorkbook() {
+		if (this.excelWorkbook != null) {
+			releaseWorkbook(this.excelWorkbook, this.sharedWorkbook);
+		}
+		this.excelWorkbook = null;
+		this.sharedWorkbook = false;
 	}
 
 	@Override
@@ -380,10 +824,664 @@ public class PoiSSFConnection implements Connection {
 		throw new SQLFeatureNotSupportedException();
 	}
 
-	public Workbook getPoiWorkbook() {
+	public synchronized Workbook getPoiWorkbook() throws SQLException {
+		if (this.excelWorkbook == null) {
+			if (!isClosed()) {
+				try {
+					this.excelWorkbook = loadWorkbook();
+				} catch (Throwable e) {
+					throw new SQLException(PoiSSFDriver.CONNECT_ERROR, e);
+				}
+			} else {
+				throw new SQLException(PoiSSFDriver.CONNECTION_IS_CLOSED);
+			}
+		}
 		return this.excelWorkbook;
 	}
 	
+	/**
+	 * Opens the sheet of the statement, reading only the columns of its select list and WHERE clause where the sheet is streamed.
+	 * Joined sheets are appended column by column, see {@link JoinedSheetCursor}.
+	 * Rows not matching the WHERE clause are skipped within the cursor, and reading ends after the last row asked for.
+	 * An aggregating statement is computed completely here, the cursor returned holds its groups only.
+	 * A sorted statement is sorted here as well, see {@link Sort}.
+	 * Results read to the end are cached if enabled by {@link PoiSSFDriver#CONNECTION_PROPERTY_RESULT_CACHE}, see {@link ResultCache}.
+	 *
+	 * @param parameters values of the parameters of the statement, <code>null</code> if it has none
+	 * @param maxRows limit of the statement, 0 for none
+	 */
+	/* package-private */ ProjectedSheetCursor openSheetCursor(QueryPlan plan, Parameters parameters, int maxRows, int resultSetType, int resultSetConcurrency) throws SQLException {
+		final ResultCache.Key key = getResultCacheKey(plan, parameters, maxRows, resultSetConcurrency);
+		if (key == null) {
+			return executePlan(plan, parameters, maxRows, resultSetType, resultSetConcurrency);
+		}
+		
+		final ProjectedSheetCursor cached = PoiSSFDriver.getResultCache().get(key);
+		if (cached != null) {
+			return cached;
+		}
+		final RecordingSheetCursor recording = new RecordingSheetCursor(executePlan(plan, parameters, maxRows, resultSetType, resultSetConcurrency),
+				PoiSSFDriver.getResultCache(), key);
+		return new ProjectedSheetCursor(recording, recording.getColumnNames(), recording.getColumnTypes());
+	}
+	
+	/**
+	 * @return <code>null</code> if the result isn't to be cached: the cache isn't enabled, the result set is updatable,
+	 * 		the sheets in memory may differ from the file or a sheet of an attached workbook is queried
+	 */
+	private ResultCache.Key getResultCacheKey(QueryPlan plan, Parameters parameters, int maxRows, int resultSetConcurrency) throws SQLException {
+		if (!this.resultCacheEnabled || resultSetConcurrency != ResultSet.CONCUR_READ_ONLY) {
+			return null;
+		}
+		for (SelectStatement.Table table : plan.getStatement().getTables()) {
+			final int dot = table.getName().indexOf('.');
+			if (table.getWorkbook() != null || (dot > 0 && getAttachedConnection(table.getName().substring(0, dot)) != null)) {
+				return null;
+			}
+		}
+		
+		final String path;
+		final long length;
+		final long lastModified;
+		synchronized (this) {
+			if (!isWorkbookUnchanged()) {
+				return null;
+			}
+			try {
+				final File file = getWorkbookFile();
+				path = file.getCanonicalPath();
+				length = file.length();
+				lastModified = file.lastModified();
+			} catch (IOException e) {
+				return null;
+			}
+			if (length != this.workbookLength || lastModified != this.workbookLastModified) {
+				// read before the file changed
+				return null;
+			}
+		}
+		
+		final StringBuilder query = new StringBuilder(plan.getSql());
+		for (int i=1; parameters != null && i <= parameters.getCount(); i++) {
+			query.append('\u0000').append(parameters.toLiteral(i));
+		}
+		query.append('\u0000').append(maxRows).append('\u0000').append(this.headerRowEnabled);
+		// the read modes see cells differently, e.g. types and cached formula results
+		query.append('\u0000').append(this.streamingEnabled).append(this.lazyEnabled).append(this.snapshotEnabled)
+				.append(this.parallelEnabled).append(this.pipelinedEnabled).append('\u0000').append(this.sidecarDir);
+		return new ResultCache.Key(path, length, lastModified, query.toString());
+	}
+	
+	/**
+	 * Opens the sheet of the statement, see {@link #openSheetCursor(QueryPlan, Parameters, int, int, int)}.
+	 */
+	private ProjectedSheetCursor executePlan(QueryPlan plan, Parameters parameters, int maxRows, int resultSetType, int resultSetConcurrency) throws SQLException {
+		if (parameters == null && plan.getParameterCount() > 0) {
+			throw new SQLException(String.format(PoiSSFDriver.PARAMETER_NOT_SET, 1));
+		}
+		// the rows are read after the statement returned, while its parameters may be set again
+		final Parameters values = parameters != null ? parameters.copy() : null;
+		final SelectStatement statement = plan.getStatement();
+		final QueryPlan.Binding binding = bind(plan, resultSetType, resultSetConcurrency);
+		final Map<String, Integer> header = binding.getHeader();
+		final Condition where = binding.getWhere();
+		final Aggregation aggregation = binding.getAggregation();
+		final BitSet columns = binding.getColumns();
+		
+		SheetCursor cursor = statement.getJoins().isEmpty()
+				? openTableCursor(statement.getTable(), columns, resultSetType, resultSetConcurrency)
+				: openJoinedCursor(statement, header, binding.getOffsets(), columns, resultSetType, resultSetConcurrency);
+		try {
+			if (statement.getJoins().isEmpty()) {
+				final SheetCursor indexed = where != null ? applyIndex(statement.getTable(), cursor, where, values) : null;
+				cursor = indexed != null ? indexed : skipHeaderRow(cursor);
+			}
+			
+			if (aggregation != null) {
+				final SheetCursor source = cursor;
+				try {
+					cursor = aggregation.aggregate(source, where, values);
+				} finally {
+					source.close();
+				}
+			} else if (where != null) {
+				cursor = new FilteredSheetCursor(cursor, where, values);
+			}
+			
+			int limit = statement.getLimit();
+			if (maxRows > 0 && (limit < 0 || maxRows < limit)) {
+				limit = maxRows;
+			}
+			
+			String[] labels = aggregation != null ? aggregation.getLabels() : null;
+			JDBCType[] labelTypes = null;
+			if (!statement.getOrderBy().isEmpty()) {
+				final Sort sort = new Sort(statement, header, cursor.getColumnCount());
+				if (aggregation == null) {
+					// sorting the selected columns only, followed by the columns only sorted by
+					final List<SelectStatement.Column> sorted = new ArrayList<SelectStatement.Column>(statement.getColumns());
+					sorted.addAll(sort.getHiddenColumns());
+					final ProjectedSheetCursor projected = new ProjectedSheetCursor(cursor, sorted, header, binding.getHeaderNames(), binding.getHeaderTypes());
+					cursor = projected;
+					labels = new String[projected.getColumnCount() - sort.getHiddenColumns().size()];
+					labelTypes = new JDBCType[labels.length];
+					for (int i=0; i < labels.length; i++) {
+						labels[i] = projected.getColumnName(i);
+						labelTypes[i] = projected.getColumnType(i);
+					}
+				}
+				cursor = sort.sort(cursor, limit >= 0 ? (int)Math.min(Integer.MAX_VALUE, (long)statement.getOffset() + limit) : -1);
+			}
+			
+			if (limit >= 0 || statement.getOffset() > 0) {
+				cursor = new LimitedSheetCursor(cursor, statement.getOffset(), limit);
+			}
+			if (labels != null) {
+				return new ProjectedSheetCursor(cursor, labels, labelTypes);
+			}
+			return new ProjectedSheetCursor(cursor, statement.getColumns(), header, binding.getHeaderNames(), binding.getHeaderTypes());
+		} catch (SQLException e) {
+			cursor.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return the plan of the statement, cached if {@link PoiSSFDriver#CONNECTION_PROPERTY_PLAN_CACHE_SIZE} is set
+	 */
+	/* package-private */ QueryPlan getPlan(String sql) throws SQLException {
+		return this.planCache != null ? this.planCache.get(sql) : QueryPlan.parse(sql);
+	}
+	
+	/**
+	 * @return number of statements whose plan was found in the cache, 0 if there is none
+	 */
+	public long getPlanCacheHits() {
+		return this.planCache != null ? this.planCache.getHits() : 0;
+	}
+	
+	/**
+	 * @return number of statements parsed as their plan was not in the cache, 0 if there is none
+	 */
+	public long getPlanCacheMisses() {
+		return this.planCache != null ? this.planCache.getMisses() : 0;
+	}
+	
+	/**
+	 * Looks up the columns of the plan in the header rows of its sheets, unless already done since the sheets last changed.
+	 * The columns of Excel tables are those declared, so their cells aren't read.
+	 */
+	private QueryPlan.Binding bind(QueryPlan plan, int resultSetType, int resultSetConcurrency) throws SQLException {
+		final int generation = getGeneration();
+		final QueryPlan.Binding bound = plan.getBinding(generation);
+		if (bound != null) {
+			return bound;
+		}
+		
+		final SelectStatement statement = plan.getStatement();
+		final List<SelectStatement.Table> tables = statement.getTables();
+		// first column of each sheet within the joined columns, followed by their number
+		final int[] offsets = new int[tables.size() + 1];
+		final SheetRange[] excelTables = new SheetRange[tables.size()];
+		boolean declared = false;
+		for (int t=0; t < tables.size(); t++) {
+			excelTables[t] = getExcelTable(tables.get(t));
+			declared |= excelTables[t] != null;
+		}
+		Map<String, Integer> header = null;
+		List<String> headerNames = null;
+		List<JDBCType> headerTypes = null;
+		if (this.headerRowEnabled || statement.hasHeaderNames() || declared) {
+			header = new HashMap<String, Integer>();
+			headerNames = new ArrayList<String>();
+			headerTypes = new ArrayList<JDBCType>();
+			for (int t=0; t < tables.size(); t++) {
+				final String qualifier = tables.get(t).getQualifier().toLowerCase() + ".";
+				header.put(qualifier, Integer.valueOf(offsets[t]));
+				final String[] names;
+				final int columnCount;
+				if (excelTables[t] != null) {
+					names = excelTables[t].getColumnNames();
+					columnCount = names.length;
+					headerNames.addAll(Arrays.asList(names));
+					headerTypes.addAll(Arrays.asList(excelTables[t].getColumnTypes()));
+				} else {
+					final SheetCursor headerCursor = openTableCursor(tables.get(t), null, resultSetType, resultSetConcurrency);
+					try {
+						names = ProjectedSheetCursor.readHeaderNames(headerCursor);
+						columnCount = headerCursor.getColumnCount();
+					} finally {
+						headerCursor.close();
+					}
+					// without header rows the first row of a sheet names its columns for WHERE and the like only
+					headerNames.addAll(Arrays.asList(this.headerRowEnabled ? names : new String[names.length]));
+					headerTypes.addAll(Arrays.asList(new JDBCType[names.length]));
+				}
+				for (Map.Entry<String, Integer> e : ProjectedSheetCursor.toHeader(names).entrySet()) {
+					final Integer index = Integer.valueOf(offsets[t] + e.getValue().intValue());
+					if (!header.containsKey(e.getKey())) {
+						header.put(e.getKey(), index);
+					}
+					header.put(qualifier + e.getKey(), index);
+				}
+				if (tables.size() > 1) {
+					offsets[t + 1] = offsets[t] + columnCount;
+				}
+			}
+		}
+		
+		final Condition where = statement.getWhere() != null ? statement.getWhere().bind(header) : null;
+		final Aggregation aggregation = statement.isAggregated() ? new Aggregation(statement, header) : null;
+		final BitSet columns = aggregation != null ? aggregation.getUsedColumns() : ProjectedSheetCursor.getUsedColumns(statement.getColumns(), header);
+		if (columns != null && where != null) {
+			where.collectColumns(columns);
+		}
+		if (aggregation == null) {
+			Sort.collectColumns(statement, header, columns);
+		}
+		
+		final QueryPlan.Binding binding = new QueryPlan.Binding(generation, header,
+				this.headerRowEnabled || declared ? headerNames.toArray(new String[headerNames.size()]) : null,
+				declared ? headerTypes.toArray(new JDBCType[headerTypes.size()]) : null, offsets, where, aggregation, columns);
+		plan.setBinding(binding);
+		return binding;
+	}
+	
+	/**
+	 * Joins the sheets of the statement from left to right. The sheet joined is read into memory and the rows
+	 * before are streamed, except for a single inner join of two sheets whose sizes are known,
+	 * where the smaller one is read into memory.
+	 *
+	 * @param offsets first column of each sheet within the joined columns, followed by their number
+	 * @param columns the joined columns needed, <code>null</code> for all
+	 */
+	private SheetCursor openJoinedCursor(SelectStatement statement, Map<String, Integer> header, int[] offsets, BitSet columns, int resultSetType, int resultSetConcurrency) throws SQLException {
+		final List<SelectStatement.Table> tables = statement.getTables();
+		final List<SelectStatement.Join> joins = statement.getJoins();
+		final int[][] leftKeys = new int[joins.size()][];
+		final int[][] rightKeys = new int[joins.size()][];
+		for (int j=0; j < joins.size(); j++) {
+			final SelectStatement.Join join = joins.get(j);
+			final int start = offsets[j + 1];
+			final int end = offsets[j + 2];
+			leftKeys[j] = new int[join.getLeftKeys().size()];
+			rightKeys[j] = new int[leftKeys[j].length];
+			for (int k=0; k < leftKeys[j].length; k++) {
+				final SelectStatement.Column a = join.getLeftKeys().get(k);
+				final SelectStatement.Column b = join.getRightKeys().get(k);
+				int left = a.getIndex(header);
+				int right = b.getIndex(header);
+				if (left < 0 || left >= offsets[tables.size()]) {
+					throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_FOUND, a.getName()));
+				}
+				if (right < 0 || right >= offsets[tables.size()]) {
+					throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_FOUND, b.getName()));
+				}
+				if (left >= start && left < end) {
+					final int swapped = left;
+					left = right;
+					right = swapped;
+				}
+				if (left >= start || right < start || right >= end) {
+					throw new SQLException(String.format(PoiSSFDriver.INVALID_JOIN_CONDITION, a + " = " + b, join.getTable().getName()));
+				}
+				leftKeys[j][k] = left;
+				rightKeys[j][k] = right - start;
+				if (columns != null) {
+					columns.set(left);
+					columns.set(right);
+				}
+			}
+		}
+		
+		SheetCursor cursor = skipHeaderRow(openTableCursor(tables.get(0), getTableColumns(columns, offsets, 0), resultSetType, resultSetConcurrency));
+		for (int j=0; j < joins.size(); j++) {
+			final SelectStatement.Join join = joins.get(j);
+			final int t = j + 1;
+			final BitSet rightColumns = getTableColumns(columns, offsets, t);
+			final SheetCursor right;
+			try {
+				right = skipHeaderRow(openTableCursor(join.getTable(), rightColumns, resultSetType, resultSetConcurrency));
+			} catch (SQLException e) {
+				cursor.close();
+				throw e;
+			}
+			
+			final boolean buildLeft = joins.size() == 1 && !join.isOuter()
+					&& cursor.getRowCount() >= 0 && right.getRowCount() >= 0 && cursor.getRowCount() < right.getRowCount();
+			final SheetCursor probe = buildLeft ? right : cursor;
+			try {
+				if (buildLeft) {
+					cursor = new JoinedSheetCursor(tables.get(0).getName(), cursor, offsets[t], getTableColumns(columns, offsets, 0), leftKeys[j],
+							right, offsets[t + 1] - offsets[t], rightKeys[j], false, true);
+				} else {
+					cursor = new JoinedSheetCursor(tables.get(0).getName(), right, offsets[t + 1] - offsets[t], rightColumns, rightKeys[j],
+							cursor, offsets[t], leftKeys[j], join.isOuter(), false);
+				}
+			} catch (SQLException e) {
+				// the other side has been closed already
+				probe.close();
+				throw e;
+			}
+		}
+		return cursor;
+	}
+	
+	/**
+	 * Narrows a sheet held in memory down to the rows an index finds for the WHERE clause,
+	 * if the clause compares an indexed column with literals or parameters.
+	 * Indexes are built on first use and kept until the sheet is read again, a row is deleted or the workbook is committed.
+	 * A header row is never found, see {@link #skipHeaderRow(SheetCursor)}.
+	 *
+	 * @return <code>null</code> if no index is used
+	 */
+	private SheetCursor applyIndex(SelectStatement.Table table, SheetCursor cursor, Condition where, Parameters parameters) throws SQLException {
+		if ((!this.indexAutoEnabled && this.indexColumns.isEmpty()) || !cursor.isScrollable()) {
+			return null;
+		}
+		final SheetIndex.Lookup lookup = where.getIndexLookup(parameters);
+		if (lookup == null) {
+			return null;
+		}
+		final Object source;
+		if (cursor instanceof SnapshotSheetCursor) {
+			source = ((SnapshotSheetCursor)cursor).getSnapshot();
+		} else if (cursor instanceof UsermodelSheetCursor) {
+			source = ((UsermodelSheetCursor)cursor).getSheet();
+		} else {
+			return null;
+		}
+		
+		final String sheetName = table.getWorkbook() != null ? table.getWorkbook() + "." + table.getName() : table.getName();
+		if (!this.indexAutoEnabled && !isIndexDeclared(sheetName, lookup.getColumn(), cursor)) {
+			return null;
+		}
+		
+		final String key = sheetName.toLowerCase() + "!" + lookup.getColumn();
+		SheetIndex index;
+		synchronized (this.indexes) {
+			index = this.indexes.get(key);
+		}
+		if (index == null || !index.isOn(source)) {
+			index = new SheetIndex(source, cursor, lookup.getColumn());
+			synchronized (this.indexes) {
+				this.indexes.put(key, index);
+			}
+		}
+		int[] rows = index.find(lookup);
+		if (this.headerRowEnabled) {
+			int count = 0;
+			for (int row : rows) {
+				if (row > 0) {
+					rows[count++] = row;
+				}
+			}
+			rows = Arrays.copyOf(rows, count);
+		}
+		return new SortedSheetCursor(cursor, rows);
+	}
+	
+	/**
+	 * @return the rows of the sheet below its header row, if {@link PoiSSFDriver#CONNECTION_PROPERTY_HEADER_ROW} is set,
+	 * 		the rows of an Excel table are below its header row already
+	 */
+	private SheetCursor skipHeaderRow(SheetCursor cursor) {
+		if (!this.headerRowEnabled || (cursor instanceof RangeSheetCursor && ((RangeSheetCursor)cursor).getColumnNames() != null)) {
+			return cursor;
+		}
+		return new LimitedSheetCursor(cursor, 1, -1);
+	}
+	
+	/**
+	 * @param cursor on the sheet, to read its header row
+	 * @return <code>true</code> if the column is listed in {@link PoiSSFDriver#CONNECTION_PROPERTY_INDEX_COLUMNS},
+	 * 		by the text in the first row of the sheet or by its letters
+	 */
+	private boolean isIndexDeclared(String sheetName, int column, SheetCursor cursor) throws SQLException {
+		Map<String, Integer> header = null;
+		for (String declared : this.indexColumns) {
+			final int separator = declared.lastIndexOf('!');
+			if (separator < 0 || !declared.substring(0, separator).equalsIgnoreCase(sheetName)) {
+				continue;
+			}
+			final String name = declared.substring(separator + 1);
+			if (header == null) {
+				header = ProjectedSheetCursor.readHeader(cursor);
+			}
+			final Integer index = header.get(name.toLowerCase());
+			if (index != null ? index.intValue() == column : new SelectStatement.Column(name, false, null).getIndex(null) == column) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Drops all indexes, bindings of plans and cached results, after the sheets may have been changed in memory.
+	 */
+	/* package-private */ synchronized void sheetsChanged() {
+		synchronized (this.indexes) {
+			this.indexes.clear();
+		}
+		this.generation++;
+		
+		try {
+			PoiSSFDriver.getResultCache().invalidate(getWorkbookFile());
+		} catch (IOException e) {
+			// results are only taken from the cache while the file is unchanged anyway
+		}
+	}
+	
+	/**
+	 * @return a number changing whenever the sheets of this workbook or of the attached ones may have changed
+	 */
+	private synchronized int getGeneration() {
+		int generation = this.generation;
+		for (PoiSSFConnection attached : this.attachedConnections.values()) {
+			generation += attached.getGeneration();
+		}
+		return generation;
+	}
+	
+	/**
+	 * @return the columns of a single sheet out of the joined columns
+	 */
+	private static BitSet getTableColumns(BitSet columns, int[] offsets, int table) {
+		return columns != null ? columns.get(offsets[table], offsets[table + 1]) : null;
+	}
+	
+	/**
+	 * Opens a sheet of this workbook, or of an attached one if the sheet is prefixed with its name.
+	 *
+	 * @param columns the columns needed, <code>null</code> for all
+	 */
+	private SheetCursor openTableCursor(SelectStatement.Table table, BitSet columns, int resultSetType, int resultSetConcurrency) throws SQLException {
+		if (table.getWorkbook() != null) {
+			final PoiSSFConnection attached = getAttachedConnection(table.getWorkbook());
+			if (attached == null) {
+				throw new SQLException(String.format(PoiSSFDriver.WORKBOOK_NOT_ATTACHED, table.getWorkbook()));
+			}
+			return attached.openRangeCursor(table.getName(), table.getRange(), columns, resultSetType, resultSetConcurrency);
+		}
+		
+		// an unquoted name like other.Sheet1 is a sheet of an attached workbook, if there is one of that name
+		final int dot = table.getName().indexOf('.');
+		if (dot > 0) {
+			final PoiSSFConnection attached = getAttachedConnection(table.getName().substring(0, dot));
+			if (attached != null) {
+				return attached.openRangeCursor(table.getName().substring(dot + 1), table.getRange(), columns, resultSetType, resultSetConcurrency);
+			}
+		}
+		return openRangeCursor(table.getName(), table.getRange(), columns, resultSetType, resultSetConcurrency);
+	}
+	
+	/**
+	 * @return the Excel table queried, <code>null</code> if a sheet, a range or a name defined for a range is queried
+	 */
+	private SheetRange getExcelTable(SelectStatement.Table table) throws SQLException {
+		if (table.getRange() != null) {
+			return null;
+		}
+		if (table.getWorkbook() != null) {
+			final PoiSSFConnection attached = getAttachedConnection(table.getWorkbook());
+			return attached != null ? attached.getExcelTable(table.getName()) : null;
+		}
+		final int dot = table.getName().indexOf('.');
+		if (dot > 0) {
+			final PoiSSFConnection attached = getAttachedConnection(table.getName().substring(0, dot));
+			if (attached != null) {
+				return attached.getExcelTable(table.getName().substring(dot + 1));
+			}
+		}
+		return getExcelTable(table.getName());
+	}
+
+	private SheetRange getExcelTable(String name) throws SQLException {
+		final SheetRange defined = getDefinedNames().get(name.toLowerCase());
+		return defined != null && defined.getColumnNames() != null && !hasSheet(name) ? defined : null;
+	}
+
+	/**
+	 * Opens the cells of a range of a sheet, or those of a name defined in the workbook or of an Excel table if there is no sheet of that name.
+	 *
+	 * @param range cells of the sheet, <code>null</code> for the whole sheet
+	 * @param columns the columns of the range needed, <code>null</code> for all
+	 */
+	/* package-private */ SheetCursor openRangeCursor(String name, SheetRange range, BitSet columns, int resultSetType, int resultSetConcurrency) throws SQLException {
+		String sheetName = name;
+		if (range == null) {
+			final SheetRange defined = getDefinedNames().get(name.toLowerCase());
+			if (defined == null || hasSheet(name)) {
+				return openSheetCursor(name, columns, resultSetType, resultSetConcurrency);
+			}
+			range = defined;
+			sheetName = defined.getSheetName();
+		}
+		
+		final SheetCursor sheet = openSheetCursor(sheetName, range.getSheetColumns(columns), resultSetType, resultSetConcurrency);
+		try {
+			return new RangeSheetCursor(sheet, range);
+		} catch (SQLException e) {
+			sheet.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return ranges by the lower case names defined for the whole workbook and of its Excel tables
+	 */
+	private synchronized Map<String, SheetRange> getDefinedNames() throws SQLException {
+		if (this.streamingWorkbook != null) {
+			return this.streamingWorkbook.getDefinedNames();
+		}
+		if (this.excelWorkbook == null && this.snapshotWorkbook != null && this.snapshotWorkbook.getDefinedNames() != null) {
+			return this.snapshotWorkbook.getDefinedNames();
+		}
+		if (this.definedNames == null) {
+			this.definedNames = SheetRange.readDefinedNames(getPoiWorkbook());
+		}
+		return this.definedNames;
+	}
+	
+	private synchronized boolean hasSheet(String sheetName) throws SQLException {
+		if (this.streamingWorkbook != null) {
+			for (String name : this.streamingWorkbook.getSheetNames()) {
+				if (name.equalsIgnoreCase(sheetName)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (this.excelWorkbook == null && this.snapshotWorkbook != null) {
+			return this.snapshotWorkbook.hasSheet(sheetName);
+		}
+		return getPoiWorkbook().getSheet(sheetName) != null;
+	}
+	
+	/**
+	 * Opens the workbook attached under the given name with the properties of this connection, when it is first used.
+	 * A relative path is resolved against the directory of this workbook.
+	 *
+	 * @return <code>null</code> if no workbook is attached under this name
+	 */
+	private synchronized PoiSSFConnection getAttachedConnection(String name) throws SQLException {
+		final String key = name.toLowerCase();
+		PoiSSFConnection attached = this.attachedConnections.get(key);
+		if (attached != null) {
+			return attached;
+		}
+		if (this.closed) {
+			throw new SQLException(PoiSSFDriver.CONNECTION_IS_CLOSED);
+		}
+		
+		String location = null;
+		final Properties attachedInfo = new Properties();
+		for (String property : this.info.stringPropertyNames()) {
+			if (!property.startsWith(PoiSSFDriver.CONNECTION_PROPERTY_ATTACH_PREFIX)) {
+				attachedInfo.setProperty(property, this.info.getProperty(property));
+			} else if (property.substring(PoiSSFDriver.CONNECTION_PROPERTY_ATTACH_PREFIX.length()).equalsIgnoreCase(name)) {
+				location = this.info.getProperty(property);
+			}
+		}
+		if (location == null) {
+			return null;
+		}
+		
+		try {
+			final URL url;
+			if (location.startsWith("file:")) {
+				url = new URL(location);
+			} else {
+				File file = new File(location);
+				if (!file.isAbsolute()) {
+					file = new File(getWorkbookFile().getParentFile(), location);
+				}
+				url = file.toURI().toURL();
+			}
+			attached = new PoiSSFConnection(url, attachedInfo);
+		} catch (Exception e) {
+			throw new SQLException(PoiSSFDriver.CONNECT_ERROR, e);
+		}
+		this.attachedConnections.put(key, attached);
+		return attached;
+	}
+	
+	/**
+	 * @param columns the columns needed, <code>null</code> for all
+	 */
+	/* package-private */ synchronized SheetCursor openSheetCursor(String sheetName, BitSet columns, int resultSetType, int resultSetConcurrency) throws SQLException {
+		
+		// A workbook which can't have been changed is converted completely, so the POI objects can be dropped
+		if (this.snapshotEnabled && this.snapshotWorkbook == null && this.readOnly && resultSetConcurrency == ResultSet.CONCUR_READ_ONLY) {
+			final Workbook workbook = getPoiWorkbook();
+			if (this.workbookOpenedReadOnly) {
+				this.snapshotWorkbook = SnapshotWorkbook.read(workbook);
+				detachPoiWorkbook();
+			}
+		}
+		
+		// Reading from the file only as long as nothing has been changed in memory
+		if (this.excelWorkbook == null && resultSetConcurrency == ResultSet.CONCUR_READ_ONLY) {
+			
+			final boolean forwardOnly = resultSetType == ResultSet.TYPE_FORWARD_ONLY;
+			
+			if (this.snapshotWorkbook != null && (!forwardOnly || !this.streamingEnabled || this.snapshotWorkbook.hasSnapshot(sheetName))) {
+				return this.snapshotWorkbook.openSheetCursor(sheetName);
+			}
+			
+			if (this.streamingWorkbook != null && forwardOnly) {
+				return this.streamingWorkbook.openSheetCursor(sheetName, columns);
+			}
+		}
+		
+		final Sheet sheet = getPoiWorkbook().getSheet(sheetName);
+		if (sheet != null) {
+			return new UsermodelSheetCursor(sheet);
+		} else {
+			throw new SQLException(String.format(PoiSSFDriver.SHEET_NOT_FOUND, sheetName));
+		}
+	}
+	
 	public String getSchema() {
 		final String[] parts = this.workbookURL.getPath().split("/");
 		return parts[parts.length-1];
@@ -1,6 +1,7 @@
 package de.einwesen.jdbc.poissf;
 
 
+import java.io.IOException;
 import java.net.URL;
 import java.sql.Connection;
 import java.sql.Driver;
@@ -9,27 +10,75 @@ import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 public class PoiSSFDriver implements Driver {
 
 	public static final String CONNECTION_PROPERTY_RS_EXTENDED_METADATA = "resultset.extended_metadata"; 
+	public static final String CONNECTION_PROPERTY_READ_STREAMING = "read.streaming";
+	public static final String CONNECTION_PROPERTY_READ_LAZY = "read.lazy";
+	public static final String CONNECTION_PROPERTY_READ_SNAPSHOT = "read.snapshot";
+	public static final String CONNECTION_PROPERTY_READ_PARALLEL = "read.parallel";
+	public static final String CONNECTION_PROPERTY_READ_PIPELINED = "read.pipelined";
+	public static final String CONNECTION_PROPERTY_READ_WATCH = "read.watch";
+	public static final String CONNECTION_PROPERTY_WORKBOOK_CACHE = "workbook.cache";
+	public static final String CONNECTION_PROPERTY_SIDECAR_DIR = "sidecar.dir";
+	public static final String CONNECTION_PROPERTY_INDEX_AUTO = "index.auto";
+	public static final String CONNECTION_PROPERTY_INDEX_COLUMNS = "index.columns";
+	public static final String CONNECTION_PROPERTY_RESULT_CACHE = "result.cache";
+	/** The first row of each sheet holds the column names, it isn't returned as data */
+	public static final String CONNECTION_PROPERTY_HEADER_ROW = "header.row";
+	/** Number of parsed statements kept by a connection, see {@link PoiSSFConnection#getPlanCacheHits()} */
+	public static final String CONNECTION_PROPERTY_PLAN_CACHE_SIZE = "plan.cache.size";
+	/** Prefix of the properties attaching further workbooks, as in <code>attach.other=/path/to/other.xlsx</code> */
+	public static final String CONNECTION_PROPERTY_ATTACH_PREFIX = "attach.";
+	
+	/** Heap budget in bytes of the workbooks cached for all connections */
+	public static final String SYSTEM_PROPERTY_WORKBOOK_CACHE_MAX_BYTES = "de.einwesen.jdbc.poissf.workbook.cache.max_bytes";
+	/** Size in bytes above which shared strings of streamed workbooks are moved to a memory mapped temp file */
+	public static final String SYSTEM_PROPERTY_STRINGS_SPILL_BYTES = "de.einwesen.jdbc.poissf.strings.spill_bytes";
+	/** Memory for sorting rows of streamed sheets, beyond that sorted runs are written to temp files */
+	public static final String SYSTEM_PROPERTY_SORT_MEMORY_BYTES = "de.einwesen.jdbc.poissf.sort.memory_bytes";
+	/** Heap budget in bytes of the query results cached for all connections, see {@link #CONNECTION_PROPERTY_RESULT_CACHE} */
+	public static final String SYSTEM_PROPERTY_RESULT_CACHE_MAX_BYTES = "de.einwesen.jdbc.poissf.result.cache.max_bytes";
+	/** Number of threads shared by all connections for parsing and aggregating in parallel */
+	public static final String SYSTEM_PROPERTY_THREADS = "de.einwesen.jdbc.poissf.threads";
 	
 	/* package-private */ static final String CONNECT_ERROR = "Could not create connection";
 	/* package-private */ static final String CONNECTION_IS_CLOSED = "Connection is closed";
 	/* package-private */ static final String STATEMENT_IS_CLOSED = "Statement is closed";
 	/* package-private */ static final String RESULTSET_IS_CLOSED = "ResultSet is closed";
 	/* package-private */ static final String CURSOR_ON_INVALID_ROW = "Cursor is not on a valid row";
+	/* package-private */ static final String CURSOR_IS_FORWARD_ONLY = "FORWARD_ONLY";
 	/* package-private */ static final String ERROR_RETRIEVING_DATA = "Error retrieving data from cell";
 	/* package-private */ static final String INCOMPATIBLE_DATATYPE = "Incompatible datatype in cell";
 	/* package-private */ static final String RESULT_SET_NOT_UPDATETABLE = "ResultSet is not updatetable";
 	/* package-private */ static final String INVALID_COLUMN_INDEX = "Invalid columnIndex %d";
 	/* package-private */ static final String NOT_IMPLEMENTED_YET = "Not implemented yet";
 	/* package-private */ static final String PARAMETER_MAY_NOT_BE_NULL = "parameter %s my not be null";
+	/* package-private */ static final String SHEET_NOT_FOUND = "Sheet '%s' not found";
+	/* package-private */ static final String COLUMN_NOT_FOUND = "Column '%s' not found";
+	/* package-private */ static final String INVALID_MAX_ROWS = "Invalid maxRows %d";
+	/* package-private */ static final String SQL_SYNTAX_ERROR = "Syntax error at position %d: %s";
+	/* package-private */ static final String COLUMN_NOT_GROUPED = "Column '%s' must be in GROUP BY or aggregated";
+	/* package-private */ static final String INVALID_JOIN_CONDITION = "Join condition %s must compare a column of sheet '%s' with one of the sheets before";
+	/* package-private */ static final String WORKBOOK_NOT_ATTACHED = "Workbook '%s' not attached";
+	/* package-private */ static final String PARAMETER_NOT_SET = "Parameter %d not set";
+	/* package-private */ static final String INVALID_PARAMETER_INDEX = "Invalid parameterIndex %d";
+	/* package-private */ static final String TARGET_TYPE_NOT_SUPPORTED = "Parameters can't be set as SQL type %d";
+	/* package-private */ static final String ENCRYPTED_WORKBOOK_NOT_STREAMED = "Encrypted XLS workbooks are not supported in streaming mode";
 	
 	private static final String URL_PREFIX = "jdbc:poissf:";
 	private static final String URL_PATTERN = URL_PREFIX + "file:///.*\\.xls(x|$)";
 	
+	private static final WorkbookCache WORKBOOK_CACHE = new WorkbookCache(Long.getLong(SYSTEM_PROPERTY_WORKBOOK_CACHE_MAX_BYTES, 256L * 1024 * 1024).longValue());
+	private static final ResultCache RESULT_CACHE = new ResultCache(Long.getLong(SYSTEM_PROPERTY_RESULT_CACHE_MAX_BYTES, 16L * 1024 * 1024).longValue());
+	private static final WorkbookWatcher WORKBOOK_WATCHER = new WorkbookWatcher();
+	private static ExecutorService executor = null;
+	
     static{
         try{
             DriverManager.registerDriver(new PoiSSFDriver());
@@ -45,7 +94,13 @@ public class PoiSSFDriver implements Driver {
 	public Connection connect(String url, Properties info) throws SQLException {
 		if (acceptsURL(url)) {
 			try {
-				return new PoiSSFConnection(new URL(url.substring(URL_PREFIX.length())));
+				return new PoiSSFConnection(new URL(url.substring(URL_PREFIX.length())), info);
+			} catch (IOException e) {
+				if (e.getCause() instanceof SQLException) {
+					// e.g. a workbook that can't be read in the mode requested
+					throw (SQLException)e.getCause();
+				}
+				throw new SQLException(CONNECT_ERROR, e);
 			} catch (Throwable e) {
 				throw new SQLException(CONNECT_ERROR, e);
 			}
@@ -80,6 +135,45 @@ public class PoiSSFDriver implements Driver {
 		return false;
 	}
 
+	/* package-private */ static WorkbookCache getWorkbookCache() {
+		return WORKBOOK_CACHE;
+	}
+
+	/* package-private */ static ResultCache getResultCache() {
+		return RESULT_CACHE;
+	}
+
+	/* package-private */ static WorkbookWatcher getWorkbookWatcher() {
+		return WORKBOOK_WATCHER;
+	}
+
+	/* package-private */ static int getThreadCount() {
+		return Math.max(1, Integer.getInteger(SYSTEM_PROPERTY_THREADS, Runtime.getRuntime().availableProcessors()).intValue());
+	}
+
+	/* package-private */ static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread t = new Thread(r, "poissf-worker");
+					// must not keep the application alive
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/* package-private */ static long getStringsSpillBytes() {
+		return Long.getLong(SYSTEM_PROPERTY_STRINGS_SPILL_BYTES, 64L * 1024 * 1024).longValue();
+	}
+
+	/* package-private */ static long getSortMemoryBytes() {
+		return Long.getLong(SYSTEM_PROPERTY_SORT_MEMORY_BYTES, 64L * 1024 * 1024).longValue();
+	}
+
 	@Override
 	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
 		throw new SQLFeatureNotSupportedException();
@@ -28,23 +28,19 @@ import java.util.Map;
 
 import org.apache.poi.hssf.usermodel.HSSFDateUtil;
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.FormulaEvaluator;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
 
 import de.einwesen.jdbc.IndexBasedResultSet;
 
 public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 
 	private PoiSSFStatement parentStatement = null;	
-	private Sheet sheet = null;
-	private Row currentRow = null; 
-	private FormulaEvaluator evaluator = null; 
+	private ProjectedSheetCursor cursor = null;
 	
 	private int rowCount = 0;	
 	private int currentRowIndex = 0;
 	
 	private boolean closed = false;
+	private boolean onValidRow = false;
 	private boolean wasNull = false;
 	private boolean wasDeleted = false;
 
@@ -53,18 +49,18 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 	private PoiSSFResultSetMetaData metaData = null;
 	
 	public PoiSSFResultSet(String sql, PoiSSFStatement parentStatement) throws SQLException {
+		this(parentStatement.getConnection().getPlan(sql), null, parentStatement);
+	}
+	
+	/**
+	 * @param parameters values of the parameters of the plan, <code>null</code> if it has none
+	 */
+	/* package-private */ PoiSSFResultSet(QueryPlan plan, Parameters parameters, PoiSSFStatement parentStatement) throws SQLException {
 		this.parentStatement = parentStatement;
-		this.sheet = parentStatement.getConnection().getPoiWorkbook().getSheet(parentStatement.getConnection().nativeSQL(sql));
+		this.cursor = parentStatement.getConnection().openSheetCursor(plan, parameters, parentStatement.getMaxRows(), parentStatement.getResultSetType(), parentStatement.getResultSetConcurrency());
 		
-		this.evaluator = parentStatement.getConnection().getPoiWorkbook().getCreationHelper().createFormulaEvaluator();
-		
-		// Owing to idiosyncrasies in the excel file format, if the result of calling this method is zero, you can't tell if that means there are zero rows on the sheet, or one at position zero. For that case, additionally call getPhysicalNumberOfRows() to tell if there is a row at position zero or not.
-		this.rowCount = sheet.getLastRowNum() + 1;
-		if (this.rowCount == 1) {
-			if (this.sheet.getPhysicalNumberOfRows() == 0) {
-				this.rowCount = 0;
-			}
-		}
+		// -1 as long as a streaming cursor hasn't reached the end of the sheet
+		this.rowCount = this.cursor.getRowCount();
 	}
 	
 	private void checkOpen() throws SQLException {
@@ -83,21 +79,31 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 	}
 	
 	private void checkValidRow() throws SQLException {
-		if (this.currentRow == null) {
+		if (!this.onValidRow) {
 			throw new SQLException(PoiSSFDriver.CURSOR_ON_INVALID_ROW);
 		}		
 	}
 	
-	private Cell getCell(int sqlIndex) throws SQLException {
+	private int getCellType(int sqlIndex) throws SQLException {
 		checkValidRow();
 		checkOpen();	
 		
+		// every getter reads its cell type first, so wasNull only refers to the last one
+		this.wasNull = false;
+		
 		if (sqlIndex > 0 && sqlIndex <= this.getMetaData().getColumnCount()) {
-			return this.currentRow.getCell(sqlIndex-1);
+			return this.cursor.getCellType(sqlIndex-1);
 		} else {
 			throw new SQLException(String.format(PoiSSFDriver.INVALID_COLUMN_INDEX, sqlIndex));
 		}
 	}
+	
+	private int getRowCountOrFail() throws SQLException {
+		if (this.rowCount < 0) {
+			throw new SQLFeatureNotSupportedException("Number of rows is unknown until the last row has been read");
+		}
+		return this.rowCount;
+	}
 
 //	private Cell getCellForUpdate(int sqlIndex) throws SQLException {
 //		if (this.getConcurrency() == ResultSet.CONCUR_UPDATABLE) {
@@ -110,16 +116,11 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 	
 	private BigDecimal getBigDecimal(int columnIndex, boolean nullIsZero) throws SQLException {
 		
-		final Cell cell = getCell(columnIndex);
-		
-		int cellType = cell.getCellType();
-		if (cellType == Cell.CELL_TYPE_FORMULA) {
-			cellType = evaluator.evaluateInCell(cell).getCellType();
-		}
+		final int cellType = getCellType(columnIndex);
 		
 		switch (cellType) {
 		        case Cell.CELL_TYPE_NUMERIC:
-		            return BigDecimal.valueOf(cell.getNumericCellValue());
+		            return BigDecimal.valueOf(this.cursor.getNumericCellValue(columnIndex-1));
 		        		        
 		        case Cell.CELL_TYPE_BLANK:
 		        	this.wasNull = true;
@@ -143,26 +144,21 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 	@Override
 	public Object getObject(int columnIndex) throws SQLException {
 
-		final Cell cell = getCell(columnIndex);
-		
-		int cellType = cell.getCellType();
-		if (cellType == Cell.CELL_TYPE_FORMULA) {
-			cellType = evaluator.evaluateInCell(cell).getCellType();
-		}
+		final int cellType = getCellType(columnIndex);
 		
 
 		
 		switch (cellType) {
 		        case Cell.CELL_TYPE_BOOLEAN:
-		            return new Boolean(cell.getBooleanCellValue());
+		            return new Boolean(this.cursor.getBooleanCellValue(columnIndex-1));
 		        case Cell.CELL_TYPE_NUMERIC:
-		        	if (HSSFDateUtil.isCellDateFormatted(cell)) {
-		        		return HSSFDateUtil.getJavaDate(cell.getNumericCellValue() /* , timezone */);
+		        	if (this.cursor.isCellDateFormatted(columnIndex-1)) {
+		        		return HSSFDateUtil.getJavaDate(this.cursor.getNumericCellValue(columnIndex-1) /* , timezone */);
 		        	} else {
-		        		return new BigDecimal(String.valueOf(cell.getNumericCellValue()));		        		
+		        		return new BigDecimal(String.valueOf(this.cursor.getNumericCellValue(columnIndex-1)));		        		
 		        	}
 		        case Cell.CELL_TYPE_STRING:
-		            return cell.getStringCellValue();
+		            return this.cursor.getStringCellValue(columnIndex-1);
 		        case Cell.CELL_TYPE_BLANK:
 		        	this.wasNull = true;
 		            return null;
@@ -177,23 +173,18 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 	@Override
 	public boolean getBoolean(int columnIndex) throws SQLException {
 
-		final Cell cell = getCell(columnIndex);
-		
-		int cellType = cell.getCellType();
-		if (cellType == Cell.CELL_TYPE_FORMULA) {
-			cellType = evaluator.evaluateInCell(cell).getCellType();
-		}
+		final int cellType = getCellType(columnIndex);
 		
 		switch (cellType) {
 		        case Cell.CELL_TYPE_BOOLEAN:
-		            return cell.getBooleanCellValue();
+		            return this.cursor.getBooleanCellValue(columnIndex-1);
 		        case Cell.CELL_TYPE_NUMERIC:
-		        	return cell.getNumericCellValue() > 0;
+		        	return this.cursor.getNumericCellValue(columnIndex-1) > 0;
 		        case Cell.CELL_TYPE_BLANK:
 		        	this.wasNull = true;
 		            return false;		            
 		        case Cell.CELL_TYPE_STRING:
-		        	final String tmp = cell.getStringCellValue();
+		        	final String tmp = this.cursor.getStringCellValue(columnIndex-1);
 		        	if ("1".equals(tmp)) {
 		        		return true;
 		        	} else if ("0".equals(tmp)){
@@ -211,21 +202,16 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 	
 	@Override
 	public byte getByte(int columnIndex) throws SQLException {
-		final Cell cell = getCell(columnIndex);
-		
-		int cellType = cell.getCellType();
-		if (cellType == Cell.CELL_TYPE_FORMULA) {
-			cellType = evaluator.evaluateInCell(cell).getCellType();
-		}		
+		final int cellType = getCellType(columnIndex);
 		
 		switch (cellType) {
 			case Cell.CELL_TYPE_ERROR:
-				return cell.getErrorCellValue();
+				return this.cursor.getErrorCellValue(columnIndex-1);
 			case Cell.CELL_TYPE_BLANK:
 				this.wasNull = true;
 				return 0;		            
 			case Cell.CELL_TYPE_STRING:
-				return (byte)cell.getStringCellValue().charAt(0);
+				return (byte)this.cursor.getStringCellValue(columnIndex-1).charAt(0);
 			case Cell.CELL_TYPE_BOOLEAN:			
 	        case Cell.CELL_TYPE_NUMERIC:
         		throw new SQLException(PoiSSFDriver.INCOMPATIBLE_DATATYPE);		        		
@@ -237,21 +223,16 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 	
 	@Override
 	public byte[] getBytes(int columnIndex) throws SQLException {
-		final Cell cell = getCell(columnIndex);
-		
-		int cellType = cell.getCellType();
-		if (cellType == Cell.CELL_TYPE_FORMULA) {
-			cellType = evaluator.evaluateInCell(cell).getCellType();
-		}		
+		final int cellType = getCellType(columnIndex);
 		
 		switch (cellType) {
 			case Cell.CELL_TYPE_ERROR:
-				return new byte[]{cell.getErrorCellValue()};
+				return new byte[]{this.cursor.getErrorCellValue(columnIndex-1)};
 			case Cell.CELL_TYPE_BLANK:
 				this.wasNull = true;
 				return null;		            
 			case Cell.CELL_TYPE_STRING:
-				return cell.getStringCellValue().getBytes();
+				return this.cursor.getStringCellValue(columnIndex-1).getBytes();
 			case Cell.CELL_TYPE_BOOLEAN:			
 	        case Cell.CELL_TYPE_NUMERIC:
         		throw new SQLException(PoiSSFDriver.INCOMPATIBLE_DATATYPE);		        		
@@ -284,6 +265,7 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 	@Override
 	public void close() throws SQLException {
 		this.closed = true;		
+		this.cursor.close();
 	}
 
 	@Override
@@ -410,7 +392,7 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 
 	@Override
 	public boolean isAfterLast() throws SQLException {
-		return this.currentRowIndex > rowCount;
+		return this.rowCount >= 0 && this.currentRowIndex > rowCount;
 	}
 
 	@Override
@@ -420,7 +402,7 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 
 	@Override
 	public boolean isLast() throws SQLException {
-		return this.currentRowIndex == this.rowCount;
+		return this.currentRowIndex == this.getRowCountOrFail();
 	}
 
 	@Override
@@ -430,7 +412,7 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 
 	@Override
 	public void afterLast() throws SQLException {
-		if (this.rowCount > 0) {
+		if (this.getRowCountOrFail() > 0) {
 			this.absolute(this.rowCount + 1);					
 		}
 	}
@@ -442,12 +424,12 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 
 	@Override
 	public boolean last() throws SQLException {
-		return this.absolute(this.rowCount);
+		return this.absolute(this.getRowCountOrFail());
 	}
 
 	@Override
 	public int getRow() throws SQLException {
-		if  (this.currentRow != null && !this.isBeforeFirst() && !this.isAfterLast()) {
+		if  (this.onValidRow && !this.isBeforeFirst() && !this.isAfterLast()) {
 			return this.currentRowIndex;			
 		} else {
 			return 0;
@@ -471,7 +453,7 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 			
 		} else if (row < 0) {
 			
-			newRow = this.rowCount + row + 1; 
+			newRow = this.getRowCountOrFail() + row + 1; 
 			
 		} else {
 			throw new SQLException("Illegal row");
@@ -485,15 +467,16 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 		
 		if (this.isBeforeFirst()) {
 			this.currentRowIndex = 0;
-			this.currentRow = null;
+			this.onValidRow = false;
 			return false;
-		} else if (this.isAfterLast()) {
+		} else if (!this.isAfterLast() && this.cursor.moveTo(this.currentRowIndex-1)) {
+			this.onValidRow = true;
+			return true;
+		} else {
+			this.rowCount = this.cursor.getRowCount();
 			this.currentRowIndex = this.rowCount + 1;
-			this.currentRow = null;
+			this.onValidRow = false;
 			return false;
-		} else {
-			this.currentRow = this.sheet.getRow(this.currentRowIndex-1);
-			return true;
 		}
 	}
 
@@ -691,8 +674,9 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 	@Override
 	public void deleteRow() throws SQLException {
 		checkValidRow();
-		this.sheet.removeRow(this.currentRow);
-		this.currentRow = null;
+		this.cursor.deleteRow();
+		this.parentStatement.getConnection().sheetsChanged();
+		this.onValidRow = false;
 		this.rowCount--;		
 	}
 
@@ -983,18 +967,13 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 		checkOpen();
 		checkValidRow();
 
-		final Cell cell = getCell(columnIndex);
-
-		int cellType = cell.getCellType();
-		if (cellType == Cell.CELL_TYPE_FORMULA) {
-			cellType = evaluator.evaluateInCell(cell).getCellType();
-		}
+		final int cellType = getCellType(columnIndex);
 
 		switch (cellType) {
 		case Cell.CELL_TYPE_BOOLEAN:
 			return JDBCType.BOOLEAN;
 		case Cell.CELL_TYPE_NUMERIC:
-			if (HSSFDateUtil.isCellDateFormatted(cell)) {
+			if (this.cursor.isCellDateFormatted(columnIndex-1)) {
 				return JDBCType.TIMESTAMP;
 			} else {
 				return JDBCType.NUMERIC;
@@ -1014,8 +993,8 @@ public class PoiSSFResultSet extends IndexBasedResultSet implements ResultSet {
 		}
 	}
 	
-	/* Package-private */ Sheet getPoiSheet() {
-		return this.sheet;
+	/* Package-private */ ProjectedSheetCursor getCursor() {
+		return this.cursor;
 	}
 
 }
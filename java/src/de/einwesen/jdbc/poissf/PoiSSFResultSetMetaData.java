@@ -7,12 +7,9 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.util.CellReference;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
+import java.util.Map;
 
 import de.einwesen.jdbc.UnknownException;
 
@@ -26,36 +23,38 @@ public class PoiSSFResultSetMetaData implements ResultSetMetaData {
 	private boolean readOnly = true;
 	
 	private List<String> columnNames = null;
+	/** declared by Excel tables, <code>null</code> for other columns */
+	private JDBCType[] columnTypes = null;
+	/** 1-based column indexes by label as given and in lower case, the first column of a label wins */
+	private Map<String, Integer> columnIndexes = null;
 		
 	private PoiSSFResultSet parentResultSet = null;
 
 	/* Package-Private */ static PoiSSFResultSetMetaData getInstance(PoiSSFResultSet rs) throws SQLException {
-		final Sheet sheet = rs.getPoiSheet();
-		if (sheet instanceof XSSFSheet) {
-			return new PoiSSFResultSetMetaData((XSSFSheet)sheet, rs);
-		} else if (sheet instanceof HSSFSheet) {
-			return new PoiSSFResultSetMetaData((HSSFSheet)sheet, rs);
-		} else {
-			return null;
-		}
+		return new PoiSSFResultSetMetaData(rs.getCursor(), rs);
 	}
 		
-	private PoiSSFResultSetMetaData(XSSFSheet sheet, PoiSSFResultSet rs) throws SQLException {
+	private PoiSSFResultSetMetaData(ProjectedSheetCursor cursor, PoiSSFResultSet rs) throws SQLException {
 			
-		final String[] sheetDimensions = sheet.getCTWorksheet().getDimension().getRef().split(":");
-
-		final String rightColName = sheetDimensions[1].replaceAll("\\d", "");
-				
-		this.columnCount = CellReference.convertColStringToIndex(rightColName) + 1;
+		this.columnCount = cursor.getColumnCount();
 		this.catalog = rs.getStatement().getConnection().getCatalog();
 		this.schema = rs.getStatement().getConnection().getSchema();
-		this.tableName = sheet.getSheetName();
+		this.tableName = cursor.getTableName();
 		this.readOnly = rs.getConcurrency() == ResultSet.CONCUR_READ_ONLY;
 		
 		this.columnNames = new ArrayList<String>(columnCount);
+		this.columnTypes = new JDBCType[columnCount];
+		this.columnIndexes = new HashMap<String, Integer>(columnCount * 4);
 		
 		for (int i=0; i< columnCount; i++) {
-			columnNames.add(CellReference.convertNumToColString(i));
+			final String name = cursor.getColumnName(i);
+			columnNames.add(name);
+			columnTypes[i] = cursor.getColumnType(i);
+			if (!columnIndexes.containsKey(name.toLowerCase())) {
+				// found as given without converting the label on each lookup
+				columnIndexes.put(name, Integer.valueOf(i + 1));
+				columnIndexes.put(name.toLowerCase(), Integer.valueOf(i + 1));
+			}
 		}
 		
 		if (rs.getStatement().getConnection().isResultExtendedMetadataEnabled()) {
@@ -64,46 +63,6 @@ public class PoiSSFResultSetMetaData implements ResultSetMetaData {
 		
 	}
 	
-	private PoiSSFResultSetMetaData(HSSFSheet sheet, PoiSSFResultSet rs) throws SQLException {
-		this.catalog = rs.getStatement().getConnection().getCatalog();
-		this.schema = rs.getStatement().getConnection().getSchema();
-		this.tableName = sheet.getSheetName();
-		this.readOnly = rs.getConcurrency() == ResultSet.CONCUR_READ_ONLY;
-		this.columnCount = getNumberOfColumns(sheet);
-
-		this.columnNames = new ArrayList<String>(columnCount);
-		
-		for (int i=0; i< columnCount; i++) {
-			columnNames.add(CellReference.convertNumToColString(i));
-		}
-		
-		if (this.columnCount == 0) {
-			throw new SQLException("Can't figure out number of columns");
-		}
-	}
-	
-	private int getNumberOfColumns(HSSFSheet sheet) {
-
-		// getting number of cols, damn inefficient...
-		int rowCount = sheet.getLastRowNum() + 1;
-		if (rowCount == 1) {
-			if (sheet.getPhysicalNumberOfRows() == 0) {
-				rowCount = 0;
-			}
-		}
-				
-		short columnCount = 0;
-		for (int r=0; r < rowCount; r++) {
-			short cellCount = sheet.getRow(r).getLastCellNum();
-			
-			if (cellCount > columnCount) {
-				columnCount = cellCount;
-			}
-		}
-		
-		return columnCount;
-	}
-
 	@Override
 	public <T> T unwrap(Class<T> iface) throws SQLException {
 		throw new SQLFeatureNotSupportedException();
@@ -196,7 +155,9 @@ public class PoiSSFResultSetMetaData implements ResultSetMetaData {
 	}
 
 	public JDBCType getColumnJDBCType(int column) throws SQLException {
-		if (this.parentResultSet != null) {
+		if (column > 0 && column <= this.columnCount && this.columnTypes[column - 1] != null) {
+			return this.columnTypes[column - 1];
+		} else if (this.parentResultSet != null) {
 			return this.parentResultSet.getCellJDBCTypeAtCurrentRow(column);
 		} else {
 			return JDBCType.OTHER;
@@ -247,10 +208,16 @@ public class PoiSSFResultSetMetaData implements ResultSetMetaData {
 		}
 	}
 	
+	/**
+	 * @return the 1-based index of the first column of that label, which is matched case insensitive
+	 */
 	public int getColumnIndex(String label) throws SQLException {
-		int idx =  columnNames.indexOf(label);
-		if (idx != -1) {
-			return idx;
+		Integer idx = label != null ? columnIndexes.get(label) : null;
+		if (idx == null && label != null) {
+			idx = columnIndexes.get(label.toLowerCase());
+		}
+		if (idx != null) {
+			return idx.intValue();
 		} else {
 			throw new SQLException("invalid column label '" + label+ "'");
 		}
@@ -0,0 +1,92 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Checks that a missing cell doesn't make the cells read after it null, run by its main method.
+ */
+public class PoiSSFResultSetTest {
+
+	public static void main(String[] args) throws Exception {
+		Class.forName(PoiSSFDriver.class.getName());
+
+		final File xls = createWorkbook(new HSSFWorkbook(), ".xls");
+		final File xlsx = createWorkbook(new XSSFWorkbook(), ".xlsx");
+		try {
+			for (File file : new File[]{xls, xlsx}) {
+				check(file, new Properties());
+
+				final Properties streaming = new Properties();
+				streaming.setProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_STREAMING, "true");
+				check(file, streaming);
+			}
+			System.out.println("OK");
+		} finally {
+			xls.delete();
+			xlsx.delete();
+		}
+	}
+
+	private static void check(File file, Properties info) throws SQLException {
+		final Connection con = DriverManager.getConnection("jdbc:poissf:file://" + file.getAbsolutePath(), info);
+		try {
+			final ResultSet rs = con.createStatement().executeQuery("SELECT * FROM Data");
+			check(rs.next(), "first row");
+
+			check("1.0".equals(rs.getString(1)), "cell before the gap");
+			check(!rs.wasNull(), "cell before the gap not null");
+			rs.getString(2);
+			check(rs.wasNull(), "missing cell null");
+			check("2.0".equals(rs.getString(3)), "cell after the gap");
+			check(!rs.wasNull(), "cell after the gap not null");
+
+			rs.getObject(2);
+			check(rs.getInt(3) == 2 && !rs.wasNull(), "number after the gap");
+			rs.getObject(2);
+			check("2.0".equals(rs.getString("C")), "cell after the gap by label");
+			rs.close();
+		} finally {
+			con.close();
+		}
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+
+	/**
+	 * @return file with a single row having its second cell missing
+	 */
+	private static File createWorkbook(Workbook wb, String suffix) throws IOException {
+		final File file = File.createTempFile("resultset", suffix);
+		final Row row = wb.createSheet("Data").createRow(0);
+		row.createCell(0).setCellValue(1);
+		row.createCell(2).setCellValue(2);
+		if (wb instanceof XSSFWorkbook) {
+			// not updated by POI, and read for the number of columns
+			((XSSFWorkbook)wb).getSheetAt(0).getCTWorksheet().getDimension().setRef("A1:C1");
+		}
+		final FileOutputStream fos = new FileOutputStream(file);
+		try {
+			wb.write(fos);
+		} finally {
+			fos.close();
+		}
+		return file;
+	}
+
+}
@@ -90,6 +90,9 @@ public class PoiSSFStatement implements Statement {
 
 	@Override
 	public void setMaxRows(int max) throws SQLException {
+		if (max < 0) {
+			throw new SQLException(String.format(PoiSSFDriver.INVALID_MAX_ROWS, max));
+		}
 		this.maxRows = max;
 	}
 
@@ -3,6 +3,7 @@ package de.einwesen.jdbc.poissf;
 import java.io.InputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.net.URL;
 import java.sql.Array;
 import java.sql.Blob;
@@ -20,22 +21,43 @@ import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.Calendar;
-import java.util.HashMap;
 
+
+/**
+ * The statement is parsed once when prepared, or taken from the plan cache of the connection, and its columns are looked up in the header rows only once
+ * as long as the sheets don't change, see {@link QueryPlan}.
+ * Parameters are held in primitive slots, see {@link Parameters}.
+ */
 public class PreparedPoiSSFStatement extends PoiSSFStatement implements PreparedStatement {
 
 	private String sqlString = null;
-	private HashMap<Integer, Object> parameter = new HashMap<Integer, Object>();
+	private final QueryPlan plan;
+	private final Parameters parameters;
 	
 	public PreparedPoiSSFStatement(String sql, PoiSSFConnection connection, int type, int concur, int hold) throws SQLException {
 		super(connection, type, concur, hold);
 		this.sqlString = sql;
+		this.plan = connection.getPlan(sql);
+		this.parameters = new Parameters(this.plan.getParameterCount());
 	}
 
 	@Override
 	public ResultSet executeQuery() throws SQLException {
-		return this.executeQuery(this.sqlString);
+
+		if (!this.getConnection().isClosed()) {
+			if (!this.isClosed()) {
+				
+				return new PoiSSFResultSet(this.plan, this.parameters, this);
+				
+			} else {
+				throw new SQLException(PoiSSFDriver.STATEMENT_IS_CLOSED);	
+			}
+			
+		} else {
+			throw new SQLException(PoiSSFDriver.CONNECTION_IS_CLOSED);
+		}
 	}
 
 	@Override
@@ -45,73 +67,76 @@ public class PreparedPoiSSFStatement extends PoiSSFStatement implements Prepared
 
 	@Override
 	public void setNull(int parameterIndex, int sqlType) throws SQLException {
-		this.parameter.put(parameterIndex, null);
-		
+		this.parameters.setNull(parameterIndex);
 	}
 
 	@Override
 	public void setBoolean(int parameterIndex, boolean x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		this.parameters.setBoolean(parameterIndex, x);
 	}
 
 	@Override
 	public void setByte(int parameterIndex, byte x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		this.parameters.setNumber(parameterIndex, x);
 	}
 
 	@Override
 	public void setShort(int parameterIndex, short x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		this.parameters.setNumber(parameterIndex, x);
 	}
 
 	@Override
 	public void setInt(int parameterIndex, int x) throws SQLException {
-		this.parameter.put(parameterIndex, x);
+		this.parameters.setNumber(parameterIndex, x);
 	}
 
 	@Override
 	public void setLong(int parameterIndex, long x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		this.parameters.setNumber(parameterIndex, x);
 	}
 
 	@Override
 	public void setFloat(int parameterIndex, float x) throws SQLException {
-		this.parameter.put(parameterIndex, x);
+		this.parameters.setNumber(parameterIndex, x);
 	}
 
 	@Override
 	public void setDouble(int parameterIndex, double x) throws SQLException {
-		this.parameter.put(parameterIndex, x);
+		this.parameters.setNumber(parameterIndex, x);
 	}
 
 	@Override
 	public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		if (x != null) {
+			this.parameters.setNumber(parameterIndex, x.doubleValue());
+		} else {
+			this.parameters.setNull(parameterIndex);
+		}
 	}
 
 	@Override
 	public void setString(int parameterIndex, String x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		this.parameters.setString(parameterIndex, x);
 	}
 
 	@Override
 	public void setBytes(int parameterIndex, byte[] x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		throw new SQLFeatureNotSupportedException();
 	}
 
 	@Override
 	public void setDate(int parameterIndex, Date x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		this.parameters.setDate(parameterIndex, x);
 	}
 
 	@Override
 	public void setTime(int parameterIndex, Time x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		setTime(parameterIndex, x, null);
 	}
 
 	@Override
 	public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		this.parameters.setDate(parameterIndex, x);
 	}
 
 	@Override
@@ -134,17 +159,33 @@ public class PreparedPoiSSFStatement extends PoiSSFStatement implements Prepared
 
 	@Override
 	public void clearParameters() throws SQLException {
-		this.parameter.clear();
+		this.parameters.clear();
 	}
 
 	@Override
 	public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		setObject(parameterIndex, x, targetSqlType, -1);
 	}
 
 	@Override
 	public void setObject(int parameterIndex, Object x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		if (x == null) {
+			this.parameters.setNull(parameterIndex);
+		} else if (x instanceof Boolean) {
+			this.parameters.setBoolean(parameterIndex, ((Boolean)x).booleanValue());
+		} else if (x instanceof Number) {
+			this.parameters.setNumber(parameterIndex, ((Number)x).doubleValue());
+		} else if (x instanceof String || x instanceof Character) {
+			this.parameters.setString(parameterIndex, x.toString());
+		} else if (x instanceof Time) {
+			setTime(parameterIndex, (Time)x, null);
+		} else if (x instanceof java.util.Date) {
+			this.parameters.setDate(parameterIndex, (java.util.Date)x);
+		} else if (x instanceof Calendar) {
+			this.parameters.setDate(parameterIndex, ((Calendar)x).getTime(), (Calendar)x);
+		} else {
+			throw new SQLFeatureNotSupportedException(x.getClass().getName());
+		}
 	}
 
 	@Override
@@ -164,22 +205,22 @@ public class PreparedPoiSSFStatement extends PoiSSFStatement implements Prepared
 
 	@Override
 	public void setRef(int parameterIndex, Ref x) throws SQLException {
-		this.parameter.put(parameterIndex, x);
+		throw new SQLFeatureNotSupportedException();
 	}
 
 	@Override
 	public void setBlob(int parameterIndex, Blob x) throws SQLException {
-		this.parameter.put(parameterIndex, x);
+		throw new SQLFeatureNotSupportedException();
 	}
 
 	@Override
 	public void setClob(int parameterIndex, Clob x) throws SQLException {
-		this.parameter.put(parameterIndex, x);	
+		throw new SQLFeatureNotSupportedException();
 	}
 
 	@Override
 	public void setArray(int parameterIndex, Array x) throws SQLException {
-		this.parameter.put(parameterIndex, x);
+		throw new SQLFeatureNotSupportedException();
 	}
 
 	@Override
@@ -189,22 +230,28 @@ public class PreparedPoiSSFStatement extends PoiSSFStatement implements Prepared
 
 	@Override
 	public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		this.parameters.setDate(parameterIndex, x, cal);
 	}
 
 	@Override
 	public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		if (x != null) {
+			// Excel keeps times as fraction of a day
+			final double date = Parameters.getExcelDate(x, cal);
+			this.parameters.setNumber(parameterIndex, date - Math.floor(date));
+		} else {
+			this.parameters.setNull(parameterIndex);
+		}
 	}
 
 	@Override
 	public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		this.parameters.setDate(parameterIndex, x, cal);
 	}
 
 	@Override
 	public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
-		this.parameter.put(parameterIndex, null);		
+		this.parameters.setNull(parameterIndex);
 	}
 
 	@Override
@@ -220,12 +267,12 @@ public class PreparedPoiSSFStatement extends PoiSSFStatement implements Prepared
 
 	@Override
 	public void setRowId(int parameterIndex, RowId x) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		throw new SQLFeatureNotSupportedException();
 	}
 
 	@Override
 	public void setNString(int parameterIndex, String value) throws SQLException {
-		this.parameter.put(parameterIndex, value);		
+		this.parameters.setString(parameterIndex, value);
 	}
 
 	@Override
@@ -236,7 +283,7 @@ public class PreparedPoiSSFStatement extends PoiSSFStatement implements Prepared
 
 	@Override
 	public void setNClob(int parameterIndex, NClob value) throws SQLException {
-		this.parameter.put(parameterIndex, value);				
+		throw new SQLFeatureNotSupportedException();
 	}
 
 	@Override
@@ -256,13 +303,141 @@ public class PreparedPoiSSFStatement extends PoiSSFStatement implements Prepared
 
 	@Override
 	public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
-		this.parameter.put(parameterIndex, xmlObject);
-		
+		throw new SQLFeatureNotSupportedException();
 	}
 
+	/**
+	 * Converts the value to the type like the setter of the type would set it, e.g. a string set as {@link Types#DATE}
+	 * is read like {@link Date#valueOf(String)}.
+	 *
+	 * @param scaleOrLength digits after the decimal point of {@link Types#DECIMAL} and {@link Types#NUMERIC}, ignored for other types
+	 */
 	@Override
 	public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
-		this.parameter.put(parameterIndex, x);		
+		if (x == null) {
+			this.parameters.setNull(parameterIndex);
+			return;
+		}
+
+		switch (targetSqlType) {
+			case Types.BIT:
+			case Types.BOOLEAN:
+				this.parameters.setBoolean(parameterIndex, toBoolean(x));
+				break;
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				this.parameters.setNumber(parameterIndex, toNumber(x).doubleValue());
+				break;
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				final BigDecimal number = toNumber(x);
+				this.parameters.setNumber(parameterIndex, (scaleOrLength >= 0 ? number.setScale(scaleOrLength, RoundingMode.HALF_UP) : number).doubleValue());
+				break;
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.NCHAR:
+			case Types.NVARCHAR:
+			case Types.LONGNVARCHAR:
+				this.parameters.setString(parameterIndex, x.toString());
+				break;
+			case Types.DATE:
+			case Types.TIME:
+			case Types.TIMESTAMP:
+				this.parameters.setNumber(parameterIndex, toExcelDate(x, targetSqlType));
+				break;
+			case Types.NULL:
+				this.parameters.setNull(parameterIndex);
+				break;
+			case Types.JAVA_OBJECT:
+			case Types.OTHER:
+				setObject(parameterIndex, x);
+				break;
+			default:
+				throw new SQLFeatureNotSupportedException(String.format(PoiSSFDriver.TARGET_TYPE_NOT_SUPPORTED, targetSqlType));
+		}
+	}
+
+	private static boolean toBoolean(Object x) throws SQLException {
+		if (x instanceof Boolean) {
+			return ((Boolean)x).booleanValue();
+		} else if (x instanceof Number) {
+			return ((Number)x).doubleValue() != 0;
+		} else if (x instanceof String || x instanceof Character) {
+			final String s = x.toString().trim();
+			if ("true".equalsIgnoreCase(s) || "1".equals(s)) {
+				return true;
+			} else if ("false".equalsIgnoreCase(s) || "0".equals(s)) {
+				return false;
+			}
+		}
+		throw new SQLException(PoiSSFDriver.INCOMPATIBLE_DATATYPE);
+	}
+
+	private static BigDecimal toNumber(Object x) throws SQLException {
+		try {
+			if (x instanceof BigDecimal) {
+				return (BigDecimal)x;
+			} else if (x instanceof Number) {
+				return new BigDecimal(x.toString());
+			} else if (x instanceof Boolean) {
+				return ((Boolean)x).booleanValue() ? BigDecimal.ONE : BigDecimal.ZERO;
+			} else if (x instanceof String || x instanceof Character) {
+				return new BigDecimal(x.toString().trim());
+			}
+		} catch (NumberFormatException e) {
+			throw new SQLException(PoiSSFDriver.INCOMPATIBLE_DATATYPE, e);
+		}
+		throw new SQLException(PoiSSFDriver.INCOMPATIBLE_DATATYPE);
+	}
+
+	/**
+	 * @return the Excel date of the day for {@link Types#DATE}, the fraction of the day for {@link Types#TIME}
+	 */
+	private static double toExcelDate(Object x, int targetSqlType) throws SQLException {
+		final java.util.Date date;
+		Calendar cal = null;
+		if (x instanceof java.util.Date) {
+			date = (java.util.Date)x;
+		} else if (x instanceof Calendar) {
+			cal = (Calendar)x;
+			date = cal.getTime();
+		} else if (x instanceof String) {
+			final String s = ((String)x).trim();
+			try {
+				switch (targetSqlType) {
+					case Types.DATE:
+						date = Date.valueOf(s);
+						break;
+					case Types.TIME:
+						date = Time.valueOf(s);
+						break;
+					default:
+						date = Timestamp.valueOf(s);
+						break;
+				}
+			} catch (IllegalArgumentException e) {
+				throw new SQLException(PoiSSFDriver.INCOMPATIBLE_DATATYPE, e);
+			}
+		} else {
+			throw new SQLException(PoiSSFDriver.INCOMPATIBLE_DATATYPE);
+		}
+
+		final double excelDate = Parameters.getExcelDate(date, cal);
+		switch (targetSqlType) {
+			case Types.DATE:
+				return Math.floor(excelDate);
+			case Types.TIME:
+				// Excel keeps times as fraction of a day
+				return excelDate - Math.floor(excelDate);
+			default:
+				return excelDate;
+		}
 	}
 
 	@Override
@@ -0,0 +1,230 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.JDBCType;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * {@link SheetCursor} returning the columns of a select list, in its order and under its names.
+ */
+/* package-private */ class ProjectedSheetCursor implements SheetCursor {
+
+	private final SheetCursor source;
+	private final int[] columns;
+	private final String[] columnNames;
+	/** <code>null</code> if no type is declared */
+	private final JDBCType[] columnTypes;
+
+	/**
+	 * @param header column indexes by the lower case names in the first row of the sheet,
+	 * 		only needed if {@link SelectStatement#hasHeaderNames()}
+	 * @param headerNames names of the columns of the source for <code>*</code> and columns given by their letters,
+	 * 		<code>null</code> to name them by their letters
+	 * @param headerTypes types declared for the columns of the source, <code>null</code> if there are none
+	 */
+	/* package-private */ ProjectedSheetCursor(SheetCursor source, List<SelectStatement.Column> selectList, Map<String, Integer> header, String[] headerNames,
+			JDBCType[] headerTypes) throws SQLException {
+		this.source = source;
+
+		final int sourceColumnCount = source.getColumnCount();
+		final List<Integer> columns = new ArrayList<Integer>();
+		final List<String> columnNames = new ArrayList<String>();
+		for (SelectStatement.Column c : selectList) {
+			if (c.isAll()) {
+				for (int i=0; i < sourceColumnCount; i++) {
+					columns.add(Integer.valueOf(i));
+					columnNames.add(getHeaderName(headerNames, i, CellReference.convertNumToColString(i)));
+				}
+			} else {
+				final int index = c.getIndex(header);
+				if (index < 0 || index >= sourceColumnCount) {
+					throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_FOUND, c.getName()));
+				}
+				columns.add(Integer.valueOf(index));
+				columnNames.add(c.isColumnLetters() && c.getAlias() == null ? getHeaderName(headerNames, index, c.getLabel()) : c.getLabel());
+			}
+		}
+
+		this.columns = new int[columns.size()];
+		for (int i=0; i < this.columns.length; i++) {
+			this.columns[i] = columns.get(i).intValue();
+		}
+		this.columnNames = columnNames.toArray(new String[columnNames.size()]);
+
+		if (headerTypes != null) {
+			this.columnTypes = new JDBCType[this.columns.length];
+			for (int i=0; i < this.columns.length; i++) {
+				this.columnTypes[i] = this.columns[i] < headerTypes.length ? headerTypes[this.columns[i]] : null;
+			}
+		} else {
+			this.columnTypes = null;
+		}
+	}
+
+	/**
+	 * Returns all columns of the source, under the given names.
+	 */
+	/* package-private */ ProjectedSheetCursor(SheetCursor source, String[] columnNames) {
+		this(source, columnNames, null);
+	}
+
+	/**
+	 * Returns all columns of the source, under the given names and of the given types.
+	 *
+	 * @param columnTypes <code>null</code> if no type is declared
+	 */
+	/* package-private */ ProjectedSheetCursor(SheetCursor source, String[] columnNames, JDBCType[] columnTypes) {
+		this.source = source;
+		this.columns = new int[columnNames.length];
+		for (int i=0; i < this.columns.length; i++) {
+			this.columns[i] = i;
+		}
+		this.columnNames = columnNames;
+		this.columnTypes = columnTypes;
+	}
+
+	/**
+	 * @return the columns of the sheet needed for the select list, <code>null</code> if all are needed
+	 */
+	/* package-private */ static BitSet getUsedColumns(List<SelectStatement.Column> selectList, Map<String, Integer> header) {
+		final BitSet used = new BitSet();
+		for (SelectStatement.Column c : selectList) {
+			if (c.isAll()) {
+				return null;
+			}
+			final int index = c.getIndex(header);
+			if (index >= 0) {
+				used.set(index);
+			}
+		}
+		return used;
+	}
+
+	private static String getHeaderName(String[] headerNames, int column, String letters) {
+		return headerNames != null && column < headerNames.length && headerNames[column] != null ? headerNames[column] : letters;
+	}
+
+	/**
+	 * @return column indexes by the lower case strings in the first row of the sheet
+	 */
+	/* package-private */ static Map<String, Integer> readHeader(SheetCursor cursor) throws SQLException {
+		return toHeader(readHeaderNames(cursor));
+	}
+
+	/**
+	 * @return the trimmed strings in the first row of the sheet by column, <code>null</code> for other cells
+	 */
+	/* package-private */ static String[] readHeaderNames(SheetCursor cursor) throws SQLException {
+		if (!cursor.moveTo(0)) {
+			return new String[0];
+		}
+		final String[] names = new String[cursor.getColumnCount()];
+		for (int i=0; i < names.length; i++) {
+			if (cursor.getCellType(i) == Cell.CELL_TYPE_STRING) {
+				final String name = cursor.getStringCellValue(i).trim();
+				names[i] = name.length() > 0 ? name : null;
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * @return column indexes by the lower case names, the first column of a name wins
+	 */
+	/* package-private */ static Map<String, Integer> toHeader(String[] headerNames) {
+		final Map<String, Integer> header = new HashMap<String, Integer>();
+		for (int i=0; i < headerNames.length; i++) {
+			if (headerNames[i] != null) {
+				final String name = headerNames[i].toLowerCase();
+				if (!header.containsKey(name)) {
+					header.put(name, Integer.valueOf(i));
+				}
+			}
+		}
+		return header;
+	}
+
+	/* package-private */ String getColumnName(int column) {
+		return this.columnNames[column];
+	}
+
+	/**
+	 * @return the type declared for the column by an Excel table, <code>null</code> if there is none
+	 */
+	/* package-private */ JDBCType getColumnType(int column) {
+		return this.columnTypes != null ? this.columnTypes[column] : null;
+	}
+
+	@Override
+	public String getTableName() {
+		return this.source.getTableName();
+	}
+
+	@Override
+	public int getColumnCount() {
+		return this.columns.length;
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.source.getRowCount();
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return this.source.isScrollable();
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		return this.source.moveTo(row);
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		return this.source.getCellType(this.columns[column]);
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return this.source.getNumericCellValue(this.columns[column]);
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return this.source.getStringCellValue(this.columns[column]);
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return this.source.getBooleanCellValue(this.columns[column]);
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return this.source.getErrorCellValue(this.columns[column]);
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		return this.source.isCellDateFormatted(this.columns[column]);
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		this.source.deleteRow();
+	}
+
+	@Override
+	public void close() {
+		this.source.close();
+	}
+
+}
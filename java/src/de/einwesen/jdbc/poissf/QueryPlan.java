@@ -0,0 +1,127 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.JDBCType;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * SELECT parsed once, to be executed any number of times, see {@link PoiSSFConnection#openSheetCursor(QueryPlan, Parameters, int, int, int)}.
+ *
+ * The columns looked up in the header rows of the sheets are kept with the plan as a {@link Binding},
+ * as long as the sheets of the connection haven't changed. Parameters are read from the values of each execution.
+ */
+/* package-private */ class QueryPlan {
+
+	/**
+	 * Statement bound to the header rows of its sheets, for one generation of the sheets of a connection.
+	 */
+	/* package-private */ static class Binding {
+
+		private final int generation;
+		private final Map<String, Integer> header;
+		private final String[] headerNames;
+		private final JDBCType[] headerTypes;
+		private final int[] offsets;
+		private final Condition where;
+		private final Aggregation aggregation;
+		private final BitSet columns;
+
+		/**
+		 * @param header <code>null</code> if no column is looked up by name
+		 * @param headerNames names of the joined columns in the header rows or declared by Excel tables, <code>null</code> to name them by their letters
+		 * @param headerTypes types of the joined columns declared by Excel tables, <code>null</code> if no table is queried
+		 * @param offsets first column of each sheet within the joined columns, followed by their number
+		 * @param where <code>null</code> for all rows, shared by all executions
+		 * @param aggregation <code>null</code> if not aggregated
+		 * @param columns the columns needed, <code>null</code> for all
+		 */
+		/* package-private */ Binding(int generation, Map<String, Integer> header, String[] headerNames, JDBCType[] headerTypes, int[] offsets, Condition where, Aggregation aggregation, BitSet columns) {
+			this.generation = generation;
+			this.header = header;
+			this.headerNames = headerNames;
+			this.headerTypes = headerTypes;
+			this.offsets = offsets;
+			this.where = where;
+			this.aggregation = aggregation;
+			this.columns = columns;
+		}
+
+		/* package-private */ Map<String, Integer> getHeader() {
+			return this.header;
+		}
+
+		/* package-private */ String[] getHeaderNames() {
+			return this.headerNames;
+		}
+
+		/* package-private */ JDBCType[] getHeaderTypes() {
+			return this.headerTypes;
+		}
+
+		/* package-private */ int[] getOffsets() {
+			return this.offsets;
+		}
+
+		/**
+		 * @return <code>null</code> for all rows, evaluated with the parameters of the execution
+		 */
+		/* package-private */ Condition getWhere() {
+			return this.where;
+		}
+
+		/* package-private */ Aggregation getAggregation() {
+			return this.aggregation;
+		}
+
+		/**
+		 * @return a copy, as joining adds the join keys
+		 */
+		/* package-private */ BitSet getColumns() {
+			return this.columns != null ? (BitSet)this.columns.clone() : null;
+		}
+	}
+
+	private final SelectStatement statement;
+	private volatile Binding binding = null;
+	private volatile String sql = null;
+
+	/* package-private */ QueryPlan(SelectStatement statement) {
+		this.statement = statement;
+	}
+
+	/* package-private */ static QueryPlan parse(String sql) throws SQLException {
+		return new QueryPlan(SqlParser.parse(sql));
+	}
+
+	/* package-private */ SelectStatement getStatement() {
+		return this.statement;
+	}
+
+	/**
+	 * @return the statement as rendered by {@link PoiSSFConnection#nativeSQL(String)}, the same for statements differing only in their layout
+	 */
+	/* package-private */ String getSql() {
+		if (this.sql == null) {
+			this.sql = this.statement.toString();
+		}
+		return this.sql;
+	}
+
+	/* package-private */ int getParameterCount() {
+		return this.statement.getParameterCount();
+	}
+
+	/**
+	 * @return <code>null</code> if not bound for this generation
+	 */
+	/* package-private */ Binding getBinding(int generation) {
+		final Binding b = this.binding;
+		return b != null && b.generation == generation ? b : null;
+	}
+
+	/* package-private */ void setBinding(Binding binding) {
+		this.binding = binding;
+	}
+
+}
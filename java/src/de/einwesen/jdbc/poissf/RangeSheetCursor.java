@@ -0,0 +1,107 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+
+import org.apache.poi.ss.usermodel.Cell;
+
+/**
+ * {@link SheetCursor} on the cells of a {@link SheetRange}, starting with the first row of the range.
+ * Rows before the range are passed without reading their cells, and after its last row a forward only
+ * source is closed, see {@link LimitedSheetCursor}. Cells right of the last column of the sheet are blank.
+ */
+/* package-private */ class RangeSheetCursor implements SheetCursor {
+
+	private final LimitedSheetCursor rows;
+	private final int firstColumn;
+	private final int columnCount;
+	/** columns of the range within the sheet */
+	private final int sheetColumnCount;
+	private final String[] columnNames;
+
+	/**
+	 * @param source on the sheet of the range, reading at least the columns of the range
+	 */
+	/* package-private */ RangeSheetCursor(SheetCursor source, SheetRange range) throws SQLException {
+		this.rows = new LimitedSheetCursor(source, range.getFirstRow(), range.getRowLimit());
+		this.firstColumn = range.getFirstColumn();
+		this.columnCount = range.getColumnCount(source.getColumnCount());
+		this.sheetColumnCount = Math.max(0, Math.min(this.columnCount, source.getColumnCount() - this.firstColumn));
+		this.columnNames = range.getColumnNames();
+	}
+
+	/**
+	 * @return names declared for the columns by an Excel table, which has no header row among its rows then
+	 */
+	/* package-private */ String[] getColumnNames() {
+		return this.columnNames;
+	}
+
+	@Override
+	public String getTableName() {
+		return this.rows.getTableName();
+	}
+
+	@Override
+	public int getColumnCount() {
+		return this.columnCount;
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.rows.getRowCount();
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return this.rows.isScrollable();
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		return this.rows.moveTo(row);
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		if (column >= this.sheetColumnCount && column < this.columnCount) {
+			return Cell.CELL_TYPE_BLANK;
+		}
+		return this.rows.getCellType(this.firstColumn + column);
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return this.rows.getNumericCellValue(this.firstColumn + column);
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return this.rows.getStringCellValue(this.firstColumn + column);
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return this.rows.getBooleanCellValue(this.firstColumn + column);
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return this.rows.getErrorCellValue(this.firstColumn + column);
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		return this.rows.isCellDateFormatted(this.firstColumn + column);
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		this.rows.deleteRow();
+	}
+
+	@Override
+	public void close() {
+		this.rows.close();
+	}
+
+}
@@ -0,0 +1,156 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.JDBCType;
+import java.sql.SQLException;
+
+import org.apache.poi.ss.usermodel.Cell;
+
+/**
+ * {@link SheetCursor} copying the rows of a query result while they are read one after the other,
+ * to put them into the {@link ResultCache} once the end has been reached.
+ * Recording stops as soon as rows are skipped or the result gets too large for the cache.
+ */
+/* package-private */ class RecordingSheetCursor implements SheetCursor {
+
+	private final ProjectedSheetCursor source;
+	private final ResultCache cache;
+	private final ResultCache.Key key;
+	private final int columnCount;
+
+	/** <code>null</code> once recording has stopped */
+	private MaterializedSheetCursor rows;
+	private long estimatedBytes = 0;
+
+	/* package-private */ RecordingSheetCursor(ProjectedSheetCursor source, ResultCache cache, ResultCache.Key key) {
+		this.source = source;
+		this.cache = cache;
+		this.key = key;
+		this.columnCount = source.getColumnCount();
+		this.rows = new MaterializedSheetCursor(source.getTableName(), this.columnCount);
+		putIfComplete();
+	}
+
+	/* package-private */ String[] getColumnNames() {
+		final String[] names = new String[this.columnCount];
+		for (int i=0; i < names.length; i++) {
+			names[i] = this.source.getColumnName(i);
+		}
+		return names;
+	}
+
+	/* package-private */ JDBCType[] getColumnTypes() {
+		final JDBCType[] types = new JDBCType[this.columnCount];
+		for (int i=0; i < types.length; i++) {
+			types[i] = this.source.getColumnType(i);
+		}
+		return types;
+	}
+
+	private void record() throws SQLException {
+		final int row = this.rows.addRow();
+		this.estimatedBytes += 9 * this.columnCount;
+		for (int column=0; column < this.columnCount; column++) {
+			this.rows.copyCell(row, column, this.source, column);
+			if (this.source.getCellType(column) == Cell.CELL_TYPE_STRING) {
+				this.estimatedBytes += 40 + 2 * this.source.getStringCellValue(column).length();
+			}
+		}
+		if (this.estimatedBytes > this.cache.getMaxEntryBytes()) {
+			this.rows = null;
+		} else {
+			putIfComplete();
+		}
+	}
+
+	/**
+	 * Result sets don't move past the end once the number of rows is known.
+	 */
+	private void putIfComplete() {
+		if (this.rows.getRowCount() == this.source.getRowCount()) {
+			put();
+		}
+	}
+
+	private void put() {
+		this.cache.put(this.key, getColumnNames(), getColumnTypes(), this.rows, this.estimatedBytes);
+		this.rows = null;
+	}
+
+	@Override
+	public String getTableName() {
+		return this.source.getTableName();
+	}
+
+	@Override
+	public int getColumnCount() {
+		return this.columnCount;
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.source.getRowCount();
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return this.source.isScrollable();
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		final boolean valid = this.source.moveTo(row);
+		if (this.rows != null && row >= this.rows.getRowCount()) {
+			if (row > this.rows.getRowCount()) {
+				// skipped rows aren't recorded
+				this.rows = null;
+			} else if (valid) {
+				record();
+			} else {
+				put();
+			}
+		}
+		return valid;
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		return this.source.getCellType(column);
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return this.source.getNumericCellValue(column);
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return this.source.getStringCellValue(column);
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return this.source.getBooleanCellValue(column);
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return this.source.getErrorCellValue(column);
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		return this.source.isCellDateFormatted(column);
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		this.source.deleteRow();
+	}
+
+	@Override
+	public void close() {
+		this.rows = null;
+		this.source.close();
+	}
+
+}
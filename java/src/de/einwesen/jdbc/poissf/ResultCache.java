@@ -0,0 +1,139 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.JDBCType;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of small query results, by workbook file, its size and modification time, and the query.
+ *
+ * Results are kept as {@link MaterializedSheetCursor} and replayed by a cursor of their own for each result set.
+ * Least recently used entries are evicted as soon as their estimated size exceeds the budget.
+ * A result may take a sixteenth of the budget at most.
+ */
+/* package-private */ class ResultCache {
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	private final long maxBytes;
+	private long usedBytes = 0;
+
+	/* package-private */ ResultCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the most a single result may take
+	 */
+	/* package-private */ long getMaxEntryBytes() {
+		return this.maxBytes / 16;
+	}
+
+	/**
+	 * @return a new cursor on the cached result, <code>null</code> if there is none
+	 */
+	/* package-private */ synchronized ProjectedSheetCursor get(Key key) {
+		final Entry entry = this.entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		return new ProjectedSheetCursor(entry.rows.share(), entry.columnNames, entry.columnTypes);
+	}
+
+	/**
+	 * @param rows complete, not changed anymore
+	 */
+	/* package-private */ synchronized void put(Key key, String[] columnNames, JDBCType[] columnTypes, MaterializedSheetCursor rows, long estimatedBytes) {
+		if (estimatedBytes > getMaxEntryBytes()) {
+			return;
+		}
+		removeOutdated(key.path, key);
+
+		final Entry previous = this.entries.put(key, new Entry(columnNames, columnTypes, rows, estimatedBytes));
+		if (previous != null) {
+			this.usedBytes -= previous.estimatedBytes;
+		}
+		this.usedBytes += estimatedBytes;
+
+		final Iterator<Entry> it = this.entries.values().iterator();
+		while (this.usedBytes > this.maxBytes && it.hasNext()) {
+			this.usedBytes -= it.next().estimatedBytes;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Drops all results of the file.
+	 */
+	/* package-private */ synchronized void invalidate(File file) throws IOException {
+		removeOutdated(file.getCanonicalPath(), null);
+	}
+
+	/**
+	 * @param current entries of this version of the file are kept, <code>null</code> for none
+	 */
+	private void removeOutdated(String path, Key current) {
+		final Iterator<Map.Entry<Key, Entry>> it = this.entries.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<Key, Entry> e = it.next();
+			final Key key = e.getKey();
+			if (key.path.equals(path) && (current == null || key.length != current.length || key.lastModified != current.lastModified)) {
+				this.usedBytes -= e.getValue().estimatedBytes;
+				it.remove();
+			}
+		}
+	}
+
+	private static class Entry {
+		private final String[] columnNames;
+		private final JDBCType[] columnTypes;
+		private final MaterializedSheetCursor rows;
+		private final long estimatedBytes;
+
+		private Entry(String[] columnNames, JDBCType[] columnTypes, MaterializedSheetCursor rows, long estimatedBytes) {
+			this.columnNames = columnNames;
+			this.columnTypes = columnTypes;
+			this.rows = rows;
+			this.estimatedBytes = estimatedBytes;
+		}
+	}
+
+	/**
+	 * Version of a workbook file and the query run on it.
+	 */
+	/* package-private */ static class Key {
+		private final String path;
+		private final long length;
+		private final long lastModified;
+		private final String query;
+
+		/**
+		 * @param query everything the result depends on besides the file, e.g. the statement, its parameters and the read mode
+		 */
+		/* package-private */ Key(String path, long length, long lastModified, String query) {
+			this.path = path;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.query = query;
+		}
+
+		@Override
+		public int hashCode() {
+			return (this.path.hashCode() * 31 + (int)(this.length ^ this.lastModified)) * 31 + this.query.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				final Key other = (Key)obj;
+				return this.path.equals(other.path) && this.length == other.length && this.lastModified == other.lastModified
+						&& this.query.equals(other.query);
+			} else {
+				return false;
+			}
+		}
+	}
+
+}
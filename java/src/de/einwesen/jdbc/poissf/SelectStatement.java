@@ -0,0 +1,454 @@
+package de.einwesen.jdbc.poissf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * A parsed SELECT, see {@link SqlParser}.
+ */
+/* package-private */ class SelectStatement {
+
+	/**
+	 * Sheet of the FROM clause or of a JOIN.
+	 */
+	/* package-private */ static class Table {
+
+		private final String workbook;
+		private final String name;
+		private final SheetRange range;
+		private final String alias;
+
+		/**
+		 * @param workbook name of an attached workbook, <code>null</code> if not given explicitly
+		 * @param range cells of the sheet, <code>null</code> for the whole sheet or the range of a defined name
+		 */
+		/* package-private */ Table(String workbook, String name, SheetRange range, String alias) {
+			this.workbook = workbook;
+			this.name = name;
+			this.range = range;
+			this.alias = alias;
+		}
+
+		/* package-private */ String getWorkbook() {
+			return this.workbook;
+		}
+
+		/* package-private */ String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return <code>null</code> if not given
+		 */
+		/* package-private */ SheetRange getRange() {
+			return this.range;
+		}
+
+		/**
+		 * @return the name columns of this sheet are qualified with
+		 */
+		/* package-private */ String getQualifier() {
+			return this.alias != null ? this.alias : this.name;
+		}
+
+		@Override
+		public String toString() {
+			String table = this.workbook != null ? SqlParser.quote(this.workbook) + "." + SqlParser.quote(this.name) : SqlParser.quote(this.name);
+			if (this.range != null) {
+				table += "!" + this.range;
+			}
+			return this.alias != null ? table + " AS " + SqlParser.quote(this.alias) : table;
+		}
+	}
+
+	/**
+	 * Equi-join of a sheet with the sheets before it.
+	 */
+	/* package-private */ static class Join {
+
+		private final Table table;
+		private final boolean outer;
+		private final List<Column> leftKeys = new ArrayList<Column>();
+		private final List<Column> rightKeys = new ArrayList<Column>();
+
+		/**
+		 * @param outer <code>true</code> for a LEFT JOIN
+		 */
+		/* package-private */ Join(Table table, boolean outer) {
+			this.table = table;
+			this.outer = outer;
+		}
+
+		/* package-private */ Table getTable() {
+			return this.table;
+		}
+
+		/* package-private */ boolean isOuter() {
+			return this.outer;
+		}
+
+		/* package-private */ void addKeys(Column left, Column right) {
+			this.leftKeys.add(left);
+			this.rightKeys.add(right);
+		}
+
+		/**
+		 * @return the columns left of the <code>=</code> in the ON clause, not necessarily of the sheets before
+		 */
+		/* package-private */ List<Column> getLeftKeys() {
+			return this.leftKeys;
+		}
+
+		/* package-private */ List<Column> getRightKeys() {
+			return this.rightKeys;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder sb = new StringBuilder(this.outer ? " LEFT JOIN " : " JOIN ").append(this.table);
+			for (int i=0; i < this.leftKeys.size(); i++) {
+				sb.append(i == 0 ? " ON " : " AND ").append(this.leftKeys.get(i)).append(" = ").append(this.rightKeys.get(i));
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Column of the select list, either a column letter, a name from the header row or <code>*</code>,
+	 * optionally qualified with a sheet and optionally as the argument of an aggregate function.
+	 */
+	/* package-private */ static class Column {
+
+		private final String name;
+		private final boolean quoted;
+		private final String alias;
+		private final String function;
+		private final String table;
+
+		/* package-private */ Column(String name, boolean quoted, String alias) {
+			this(name, quoted, alias, null, null);
+		}
+
+		/**
+		 * @param function upper case name of the aggregate function, see {@link Aggregation}
+		 * @param table alias or name of the sheet, <code>null</code> if not qualified
+		 */
+		/* package-private */ Column(String name, boolean quoted, String alias, String function, String table) {
+			this.name = name;
+			this.quoted = quoted;
+			this.alias = alias;
+			this.function = function;
+			this.table = table;
+		}
+
+		/**
+		 * @return <code>null</code> for <code>*</code>
+		 */
+		/* package-private */ String getName() {
+			return this.name;
+		}
+
+		/* package-private */ String getAlias() {
+			return this.alias;
+		}
+
+		/* package-private */ boolean isAll() {
+			return this.name == null && this.function == null;
+		}
+
+		/**
+		 * @return <code>null</code> if the column isn't aggregated
+		 */
+		/* package-private */ String getFunction() {
+			return this.function;
+		}
+
+		/**
+		 * @return <code>true</code> if the name is meant as column letters like <code>A</code> or <code>AB</code>,
+		 * 		otherwise it is looked up in the first row of the sheet
+		 */
+		/* package-private */ boolean isColumnLetters() {
+			return !this.quoted && this.name != null && this.name.matches("[A-Za-z]{1,3}");
+		}
+
+		/**
+		 * @return <code>true</code> if the column can only be found with the header of the sheets
+		 */
+		/* package-private */ boolean needsHeader() {
+			return this.name != null && (this.table != null || !isColumnLetters());
+		}
+
+		/**
+		 * @param header column indexes by the lower case names in the first row of the sheet,
+		 * 		qualified columns are found under <code>qualifier.name</code> and the first column of a sheet under <code>qualifier.</code>
+		 * @return -1 if the column isn't in the header
+		 */
+		/* package-private */ int getIndex(Map<String, Integer> header) {
+			if (this.name == null) {
+				return -1;
+			}
+			if (this.table != null) {
+				final String qualifier = this.table.toLowerCase() + ".";
+				final Integer index;
+				if (header == null) {
+					index = null;
+				} else if (isColumnLetters()) {
+					final Integer offset = header.get(qualifier);
+					index = offset != null ? Integer.valueOf(offset.intValue() + CellReference.convertColStringToIndex(this.name.toUpperCase())) : null;
+				} else {
+					index = header.get(qualifier + this.name.toLowerCase());
+				}
+				return index != null ? index.intValue() : -1;
+			}
+			if (isColumnLetters()) {
+				return CellReference.convertColStringToIndex(this.name.toUpperCase());
+			}
+			final Integer index = header != null ? header.get(this.name.toLowerCase()) : null;
+			return index != null ? index.intValue() : -1;
+		}
+
+		/* package-private */ String getLabel() {
+			if (this.alias != null) {
+				return this.alias;
+			}
+			final String column = this.name == null ? "*" : isColumnLetters() ? this.name.toUpperCase() : this.name;
+			return this.function != null ? this.function + "(" + column + ")" : column;
+		}
+
+		@Override
+		public String toString() {
+			String column = this.name == null ? "*" : this.quoted ? SqlParser.quote(this.name) : this.name;
+			if (this.table != null) {
+				column = SqlParser.quote(this.table) + "." + column;
+			}
+			if (this.function != null) {
+				column = this.function + "(" + column + ")";
+			}
+			return this.alias != null ? column + " AS " + SqlParser.quote(this.alias) : column;
+		}
+	}
+
+	/**
+	 * Key of the ORDER BY, either a column like in the select list or the position of a column of the select list.
+	 */
+	/* package-private */ static class SortKey {
+
+		private final Column column;
+		private final int position;
+		private boolean descending = false;
+
+		/**
+		 * @param position 1 based position in the select list, only if <code>column</code> is <code>null</code>
+		 */
+		/* package-private */ SortKey(Column column, int position) {
+			this.column = column;
+			this.position = position;
+		}
+
+		/**
+		 * @return <code>null</code> if the key is given by its position
+		 */
+		/* package-private */ Column getColumn() {
+			return this.column;
+		}
+
+		/* package-private */ int getPosition() {
+			return this.position;
+		}
+
+		/* package-private */ boolean isDescending() {
+			return this.descending;
+		}
+
+		/* package-private */ void setDescending(boolean descending) {
+			this.descending = descending;
+		}
+
+		@Override
+		public String toString() {
+			final String key = this.column != null ? this.column.toString() : String.valueOf(this.position);
+			return this.descending ? key + " DESC" : key;
+		}
+	}
+
+	private final List<Column> columns = new ArrayList<Column>();
+	private Table table = null;
+	private final List<Join> joins = new ArrayList<Join>();
+	private Condition where = null;
+	private final List<Column> groupBy = new ArrayList<Column>();
+	private final List<SortKey> orderBy = new ArrayList<SortKey>();
+	private int limit = -1;
+	private int offset = 0;
+	private int parameterCount = 0;
+
+	/* package-private */ void addColumn(Column column) {
+		this.columns.add(column);
+	}
+
+	/* package-private */ List<Column> getColumns() {
+		return this.columns;
+	}
+
+	/* package-private */ Table getTable() {
+		return this.table;
+	}
+
+	/* package-private */ void setTable(Table table) {
+		this.table = table;
+	}
+
+	/* package-private */ void addJoin(Join join) {
+		this.joins.add(join);
+	}
+
+	/* package-private */ List<Join> getJoins() {
+		return this.joins;
+	}
+
+	/**
+	 * @return the sheet of the FROM clause followed by the joined sheets
+	 */
+	/* package-private */ List<Table> getTables() {
+		final List<Table> tables = new ArrayList<Table>();
+		tables.add(this.table);
+		for (Join j : this.joins) {
+			tables.add(j.getTable());
+		}
+		return tables;
+	}
+
+	/**
+	 * @return <code>null</code> if all rows are selected
+	 */
+	/* package-private */ Condition getWhere() {
+		return this.where;
+	}
+
+	/* package-private */ void setWhere(Condition where) {
+		this.where = where;
+	}
+
+	/* package-private */ void addGroupBy(Column column) {
+		this.groupBy.add(column);
+	}
+
+	/* package-private */ List<Column> getGroupBy() {
+		return this.groupBy;
+	}
+
+	/* package-private */ void addOrderBy(SortKey key) {
+		this.orderBy.add(key);
+	}
+
+	/* package-private */ List<SortKey> getOrderBy() {
+		return this.orderBy;
+	}
+
+	/**
+	 * @return <code>true</code> if the rows are aggregated, by a GROUP BY or an aggregate function in the select list
+	 */
+	/* package-private */ boolean isAggregated() {
+		if (!this.groupBy.isEmpty()) {
+			return true;
+		}
+		for (Column c : this.columns) {
+			if (c.getFunction() != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return maximum number of rows, -1 for all
+	 */
+	/* package-private */ int getLimit() {
+		return this.limit;
+	}
+
+	/* package-private */ void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * @return number of rows skipped
+	 */
+	/* package-private */ int getOffset() {
+		return this.offset;
+	}
+
+	/* package-private */ void setOffset(int offset) {
+		this.offset = offset;
+	}
+
+	/**
+	 * @return number of <code>?</code> parameters
+	 */
+	/* package-private */ int getParameterCount() {
+		return this.parameterCount;
+	}
+
+	/* package-private */ void setParameterCount(int parameterCount) {
+		this.parameterCount = parameterCount;
+	}
+
+	/**
+	 * @return <code>true</code> if a column has to be looked up in the first row of the sheet
+	 */
+	/* package-private */ boolean hasHeaderNames() {
+		if (!this.joins.isEmpty()) {
+			return true;
+		}
+		for (Column c : this.columns) {
+			if (c.needsHeader()) {
+				return true;
+			}
+		}
+		for (Column c : this.groupBy) {
+			if (c.needsHeader()) {
+				return true;
+			}
+		}
+		for (SortKey k : this.orderBy) {
+			if (k.getColumn() != null && k.getColumn().needsHeader()) {
+				return true;
+			}
+		}
+		return this.where != null && this.where.hasHeaderNames();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("SELECT ");
+		for (int i=0; i < this.columns.size(); i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(this.columns.get(i));
+		}
+		sb.append(" FROM ").append(this.table);
+		for (Join j : this.joins) {
+			sb.append(j);
+		}
+		if (this.where != null) {
+			sb.append(" WHERE ").append(this.where);
+		}
+		for (int i=0; i < this.groupBy.size(); i++) {
+			sb.append(i == 0 ? " GROUP BY " : ", ").append(this.groupBy.get(i));
+		}
+		for (int i=0; i < this.orderBy.size(); i++) {
+			sb.append(i == 0 ? " ORDER BY " : ", ").append(this.orderBy.get(i));
+		}
+		if (this.limit >= 0) {
+			sb.append(" LIMIT ").append(this.limit);
+		}
+		if (this.offset > 0) {
+			sb.append(" OFFSET ").append(this.offset);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,49 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+
+/**
+ * Row-wise access to the cells of a sheet, independent of how the sheet is read.
+ *
+ * Rows and columns are 0-based. Cell types are the {@link org.apache.poi.ss.usermodel.Cell}
+ * CELL_TYPE_* constants, formulas are already resolved to their result type and
+ * missing cells are reported as {@link org.apache.poi.ss.usermodel.Cell#CELL_TYPE_BLANK}.
+ */
+/* package-private */ interface SheetCursor {
+
+	String getTableName();
+
+	int getColumnCount() throws SQLException;
+
+	/**
+	 * @return number of rows, or -1 if it is not known before the cursor has been exhausted
+	 */
+	int getRowCount();
+
+	/**
+	 * @return true if {@link #moveTo(int)} accepts rows before the current one
+	 */
+	boolean isScrollable();
+
+	/**
+	 * @return false if the row is beyond the last row of the sheet
+	 */
+	boolean moveTo(int row) throws SQLException;
+
+	int getCellType(int column) throws SQLException;
+
+	double getNumericCellValue(int column) throws SQLException;
+
+	String getStringCellValue(int column) throws SQLException;
+
+	boolean getBooleanCellValue(int column) throws SQLException;
+
+	byte getErrorCellValue(int column) throws SQLException;
+
+	boolean isCellDateFormatted(int column) throws SQLException;
+
+	void deleteRow() throws SQLException;
+
+	void close();
+
+}
@@ -0,0 +1,386 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.Cell;
+
+/**
+ * Secondary index on a column of a sheet held in memory, for WHERE clauses comparing the column with literals.
+ *
+ * Numeric and boolean cells are sorted by their number, string cells by their string, each together with its row.
+ * Ranges are found by binary search, equal values by a hash table on the first entry of each distinct value.
+ * Conditions compare numbers with numbers and strings with strings or with numbers read from them,
+ * see {@link Operand#compare(Operand, Operand, SheetCursor, Parameters)}, so empty and error cells aren't indexed.
+ *
+ * The rows found are candidates only, the whole WHERE clause is still evaluated on them.
+ */
+/* package-private */ class SheetIndex {
+
+	/** the snapshot or POI sheet indexed, the index is outdated once the sheet is read into another one */
+	private final Object source;
+
+	private double[] numbers = new double[64];
+	private int[] numberRows = new int[64];
+	private int numberCount = 0;
+	private String[] strings = new String[64];
+	private int[] stringRows = new int[64];
+	private int stringCount = 0;
+
+	/** first entry + 1 of each distinct value by hash, 0 for free slots */
+	private int[] numberSlots;
+	private int[] stringSlots;
+
+	private final long[] hashKey = new long[1];
+
+	/**
+	 * Reads the column from all rows of the cursor.
+	 */
+	/* package-private */ SheetIndex(Object source, SheetCursor cursor, int column) throws SQLException {
+		this.source = source;
+
+		for (int row=0; cursor.moveTo(row); row++) {
+			switch (column < cursor.getColumnCount() ? cursor.getCellType(column) : Cell.CELL_TYPE_BLANK) {
+				case Cell.CELL_TYPE_NUMERIC:
+					addNumber(cursor.getNumericCellValue(column), row);
+					break;
+				case Cell.CELL_TYPE_BOOLEAN:
+					addNumber(cursor.getBooleanCellValue(column) ? 1 : 0, row);
+					break;
+				case Cell.CELL_TYPE_STRING:
+					addString(cursor.getStringCellValue(column), row);
+					break;
+				default:
+					// never equal to anything
+					break;
+			}
+		}
+
+		sortNumbers();
+		sortStrings();
+	}
+
+	private void addNumber(double value, int row) {
+		if (this.numberCount == this.numbers.length) {
+			this.numbers = Arrays.copyOf(this.numbers, this.numberCount * 2);
+			this.numberRows = Arrays.copyOf(this.numberRows, this.numberCount * 2);
+		}
+		this.numbers[this.numberCount] = value;
+		this.numberRows[this.numberCount++] = row;
+	}
+
+	private void addString(String value, int row) {
+		if (this.stringCount == this.strings.length) {
+			this.strings = Arrays.copyOf(this.strings, this.stringCount * 2);
+			this.stringRows = Arrays.copyOf(this.stringRows, this.stringCount * 2);
+		}
+		this.strings[this.stringCount] = value;
+		this.stringRows[this.stringCount++] = row;
+	}
+
+	private static int[] identity(int count) {
+		final int[] order = new int[count];
+		for (int i=0; i < count; i++) {
+			order[i] = i;
+		}
+		return order;
+	}
+
+	private static int[] newSlots(int count) {
+		int slotCount = 16;
+		while (slotCount < 2 * count) {
+			slotCount *= 2;
+		}
+		return new int[slotCount];
+	}
+
+	private void sortNumbers() throws SQLException {
+		final double[] values = this.numbers;
+		final int[] order = identity(this.numberCount);
+		// stable, so equal values stay in the order of their rows
+		Sort.sortRows(order, new Sort.RowComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return Double.compare(values[a], values[b]);
+			}
+		}, false);
+
+		this.numbers = new double[this.numberCount];
+		final int[] rows = new int[this.numberCount];
+		for (int i=0; i < order.length; i++) {
+			this.numbers[i] = values[order[i]];
+			rows[i] = this.numberRows[order[i]];
+		}
+		this.numberRows = rows;
+
+		this.numberSlots = newSlots(this.numberCount);
+		final int mask = this.numberSlots.length - 1;
+		for (int i=0; i < this.numberCount; i++) {
+			if (i == 0 || Double.compare(this.numbers[i - 1], this.numbers[i]) != 0) {
+				int slot = hashNumber(this.numbers[i]) & mask;
+				while (this.numberSlots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				this.numberSlots[slot] = i + 1;
+			}
+		}
+	}
+
+	private void sortStrings() throws SQLException {
+		final String[] values = this.strings;
+		final int[] order = identity(this.stringCount);
+		Sort.sortRows(order, new Sort.RowComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return values[a].compareTo(values[b]);
+			}
+		}, false);
+
+		this.strings = new String[this.stringCount];
+		final int[] rows = new int[this.stringCount];
+		for (int i=0; i < order.length; i++) {
+			this.strings[i] = values[order[i]];
+			rows[i] = this.stringRows[order[i]];
+		}
+		this.stringRows = rows;
+
+		this.stringSlots = newSlots(this.stringCount);
+		final int mask = this.stringSlots.length - 1;
+		for (int i=0; i < this.stringCount; i++) {
+			if (i == 0 || !this.strings[i - 1].equals(this.strings[i])) {
+				int slot = hashString(this.strings[i]) & mask;
+				while (this.stringSlots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				this.stringSlots[slot] = i + 1;
+			}
+		}
+	}
+
+	private int hashNumber(double value) {
+		// the bits Double.compare tells apart
+		this.hashKey[0] = Double.doubleToLongBits(value);
+		return Aggregation.hash(this.hashKey, 0, 1);
+	}
+
+	private int hashString(String value) {
+		this.hashKey[0] = value.hashCode();
+		return Aggregation.hash(this.hashKey, 0, 1);
+	}
+
+	/**
+	 * @return <code>false</code> if the sheet has been read again since the index was built
+	 */
+	/* package-private */ boolean isOn(Object source) {
+		return this.source == source;
+	}
+
+	/**
+	 * @return the rows that may match, ascending
+	 */
+	/* package-private */ int[] find(Lookup lookup) {
+		final Rows rows = new Rows();
+		if (lookup.values != null) {
+			for (Operand.Literal value : lookup.values) {
+				findEqual(value, rows);
+			}
+		} else {
+			findRange(lookup, rows);
+		}
+		return rows.toArray();
+	}
+
+	private void findEqual(Operand.Literal value, Rows rows) {
+		final int type = value.getType(null, null);
+		if (type == Cell.CELL_TYPE_STRING) {
+			final String s = value.getString(null, null);
+			final int mask = this.stringSlots.length - 1;
+			int slot = hashString(s) & mask;
+			while (this.stringSlots[slot] != 0) {
+				final int first = this.stringSlots[slot] - 1;
+				if (this.strings[first].equals(s)) {
+					int i = first;
+					while (i < this.stringCount && this.strings[i].equals(s)) {
+						rows.add(this.stringRows[i++]);
+					}
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		// strings that read as a number match numeric cells as well
+		final double number = value.getNumber(null, null);
+		if (!Double.isNaN(number)) {
+			final int mask = this.numberSlots.length - 1;
+			int slot = hashNumber(number) & mask;
+			while (this.numberSlots[slot] != 0) {
+				final int first = this.numberSlots[slot] - 1;
+				if (Double.compare(this.numbers[first], number) == 0) {
+					int i = first;
+					while (i < this.numberCount && Double.compare(this.numbers[i], number) == 0) {
+						rows.add(this.numberRows[i++]);
+					}
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+	}
+
+	private void findRange(Lookup lookup, Rows rows) {
+		final Operand.Literal low = lookup.low;
+		final Operand.Literal high = lookup.high;
+
+		if ((low == null || !Double.isNaN(low.getNumber(null, null))) && (high == null || !Double.isNaN(high.getNumber(null, null)))) {
+			int from = 0;
+			int to = this.numberCount;
+			if (low != null) {
+				from = searchNumber(low.getNumber(null, null), !lookup.lowInclusive);
+			}
+			if (high != null) {
+				to = searchNumber(high.getNumber(null, null), lookup.highInclusive);
+			}
+			for (int i=from; i < to; i++) {
+				rows.add(this.numberRows[i]);
+			}
+		}
+
+		if ((low == null || low.getType(null, null) == Cell.CELL_TYPE_STRING) && (high == null || high.getType(null, null) == Cell.CELL_TYPE_STRING)) {
+			int from = 0;
+			int to = this.stringCount;
+			if (low != null) {
+				from = searchString(low.getString(null, null), !lookup.lowInclusive);
+			}
+			if (high != null) {
+				to = searchString(high.getString(null, null), lookup.highInclusive);
+			}
+			for (int i=from; i < to; i++) {
+				rows.add(this.stringRows[i]);
+			}
+		}
+	}
+
+	/**
+	 * @param after <code>true</code> for the first entry greater than the value, otherwise the first one not less than it
+	 */
+	private int searchNumber(double value, boolean after) {
+		int from = 0;
+		int to = this.numberCount;
+		while (from < to) {
+			final int middle = (from + to) >>> 1;
+			final int c = Double.compare(this.numbers[middle], value);
+			if (c < 0 || (after && c == 0)) {
+				from = middle + 1;
+			} else {
+				to = middle;
+			}
+		}
+		return from;
+	}
+
+	private int searchString(String value, boolean after) {
+		int from = 0;
+		int to = this.stringCount;
+		while (from < to) {
+			final int middle = (from + to) >>> 1;
+			final int c = this.strings[middle].compareTo(value);
+			if (c < 0 || (after && c == 0)) {
+				from = middle + 1;
+			} else {
+				to = middle;
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * Rows found, collected unordered.
+	 */
+	private static class Rows {
+		private int[] rows = new int[16];
+		private int count = 0;
+
+		private void add(int row) {
+			if (this.count == this.rows.length) {
+				this.rows = Arrays.copyOf(this.rows, this.count * 2);
+			}
+			this.rows[this.count++] = row;
+		}
+
+		/**
+		 * @return the rows ascending, without duplicates
+		 */
+		private int[] toArray() {
+			Arrays.sort(this.rows, 0, this.count);
+			int distinct = 0;
+			for (int i=0; i < this.count; i++) {
+				if (distinct == 0 || this.rows[distinct - 1] != this.rows[i]) {
+					this.rows[distinct++] = this.rows[i];
+				}
+			}
+			return Arrays.copyOf(this.rows, distinct);
+		}
+	}
+
+	/**
+	 * Part of a WHERE clause an index can answer: the column equal to one of some literals, or within a range.
+	 * Rows not found can't match the whole clause.
+	 */
+	/* package-private */ static class Lookup {
+
+		private final int column;
+		/** equal to one of these, <code>null</code> for a range */
+		private final Operand.Literal[] values;
+		/** bounds of the range, <code>null</code> if open */
+		private final Operand.Literal low;
+		private final boolean lowInclusive;
+		private final Operand.Literal high;
+		private final boolean highInclusive;
+
+		private Lookup(int column, Operand.Literal[] values, Operand.Literal low, boolean lowInclusive, Operand.Literal high, boolean highInclusive) {
+			this.column = column;
+			this.values = values;
+			this.low = low;
+			this.lowInclusive = lowInclusive;
+			this.high = high;
+			this.highInclusive = highInclusive;
+		}
+
+		/* package-private */ static Lookup ofValues(int column, Operand.Literal[] values) {
+			return new Lookup(column, values, null, false, null, false);
+		}
+
+		/**
+		 * @param low <code>null</code> for none
+		 * @param high <code>null</code> for none
+		 */
+		/* package-private */ static Lookup ofRange(int column, Operand.Literal low, boolean lowInclusive, Operand.Literal high, boolean highInclusive) {
+			return new Lookup(column, null, low, lowInclusive, high, highInclusive);
+		}
+
+		/**
+		 * @param operator comparison of the column with the literal, the column on its left
+		 * @return <code>null</code> for <code>&lt;&gt;</code>
+		 */
+		/* package-private */ static Lookup ofComparison(int column, String operator, Operand.Literal literal) {
+			if ("=".equals(operator)) {
+				return ofValues(column, new Operand.Literal[] {literal});
+			} else if ("<".equals(operator) || "<=".equals(operator)) {
+				return ofRange(column, null, false, literal, operator.length() == 2);
+			} else if (">".equals(operator) || ">=".equals(operator)) {
+				return ofRange(column, literal, operator.length() == 2, null, false);
+			}
+			return null;
+		}
+
+		/* package-private */ int getColumn() {
+			return this.column;
+		}
+
+		/* package-private */ boolean isEquality() {
+			return this.values != null;
+		}
+	}
+
+}
@@ -0,0 +1,252 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.JDBCType;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Name;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Rectangle of cells on a sheet, given in FROM as in <code>Sheet1!B5:H20000</code> or by a name defined in the workbook.
+ * Whole columns as in <code>A:C</code> end with the last row of the sheet, whole rows as in <code>5:10</code> with its last column.
+ * The rows of an Excel table come with the names and types declared for its columns, see {@link TablePart}.
+ */
+/* package-private */ class SheetRange {
+
+	private static final Pattern CELL = Pattern.compile("\\$?([A-Za-z]{0,3})\\$?([0-9]{0,7})");
+
+	private final String sheetName;
+	private final int firstRow;
+	/** -1 for the last row of the sheet */
+	private final int lastRow;
+	private final int firstColumn;
+	/** -1 for the last column of the sheet */
+	private final int lastColumn;
+	/** <code>null</code> unless declared by an Excel table */
+	private final String[] columnNames;
+	private final JDBCType[] columnTypes;
+
+	/**
+	 * @param sheetName <code>null</code> for the sheet the range is given for
+	 */
+	/* package-private */ SheetRange(String sheetName, int firstRow, int lastRow, int firstColumn, int lastColumn) {
+		this(sheetName, firstRow, lastRow, firstColumn, lastColumn, null, null);
+	}
+
+	/**
+	 * @param columnNames names declared for the columns, <code>null</code> if there are none
+	 * @param columnTypes types declared for the columns, <code>null</code> for those without
+	 */
+	/* package-private */ SheetRange(String sheetName, int firstRow, int lastRow, int firstColumn, int lastColumn, String[] columnNames, JDBCType[] columnTypes) {
+		this.sheetName = sheetName;
+		this.firstRow = firstRow;
+		this.lastRow = lastRow;
+		this.firstColumn = firstColumn;
+		this.lastColumn = lastColumn;
+		this.columnNames = columnNames;
+		this.columnTypes = columnTypes;
+	}
+
+	/**
+	 * @param reference like <code>B5:H20000</code>, <code>C7</code>, <code>A:C</code> or <code>5:10</code>,
+	 * 		optionally preceded by a sheet name and <code>!</code> as in the formula of a defined name
+	 * @return <code>null</code> if the reference isn't a single rectangle of cells
+	 */
+	/* package-private */ static SheetRange parse(String reference) {
+		String sheetName = null;
+		String cells = reference.trim();
+		final int separator = cells.lastIndexOf('!');
+		if (separator >= 0) {
+			sheetName = cells.substring(0, separator).trim();
+			cells = cells.substring(separator + 1).trim();
+			if (sheetName.length() > 1 && sheetName.startsWith("'") && sheetName.endsWith("'")) {
+				sheetName = sheetName.substring(1, sheetName.length() - 1).replace("''", "'");
+			}
+			if (sheetName.length() == 0) {
+				return null;
+			}
+		}
+
+		final int colon = cells.indexOf(':');
+		final Matcher first = CELL.matcher(colon < 0 ? cells : cells.substring(0, colon));
+		final Matcher last = CELL.matcher(colon < 0 ? cells : cells.substring(colon + 1));
+		if (!first.matches() || !last.matches()) {
+			return null;
+		}
+		final boolean columns = first.group(1).length() > 0;
+		final boolean rows = first.group(2).length() > 0;
+		if (columns != last.group(1).length() > 0 || rows != last.group(2).length() > 0 || !(colon < 0 ? columns && rows : columns || rows)) {
+			// a single cell needs both, whole columns or rows need the same on both ends
+			return null;
+		}
+
+		int firstRow = 0;
+		int lastRow = -1;
+		if (rows) {
+			firstRow = Integer.parseInt(first.group(2)) - 1;
+			lastRow = Integer.parseInt(last.group(2)) - 1;
+		}
+		int firstColumn = 0;
+		int lastColumn = -1;
+		if (columns) {
+			firstColumn = CellReference.convertColStringToIndex(first.group(1).toUpperCase());
+			lastColumn = CellReference.convertColStringToIndex(last.group(1).toUpperCase());
+		}
+		if (firstRow < 0 || lastRow < -1 || lastRow >= 0 && lastRow < firstRow || lastColumn >= 0 && lastColumn < firstColumn) {
+			return null;
+		}
+		return new SheetRange(sheetName, firstRow, lastRow, firstColumn, lastColumn);
+	}
+
+	/**
+	 * @return ranges by the lower case names defined for the whole workbook and of its Excel tables,
+	 * 		names of anything else than a rectangle on a sheet are left out
+	 */
+	/* package-private */ static Map<String, SheetRange> readDefinedNames(Workbook workbook) {
+		final Map<String, SheetRange> names = new HashMap<String, SheetRange>();
+		for (int i=0; i < workbook.getNumberOfNames(); i++) {
+			final Name name = workbook.getNameAt(i);
+			if (name.getSheetIndex() >= 0 || name.isFunctionName() || name.isDeleted()) {
+				continue;
+			}
+			try {
+				final SheetRange range = parse(name.getRefersToFormula());
+				if (range != null && range.getSheetName() != null) {
+					names.put(name.getNameName().toLowerCase(), range);
+				}
+			} catch (RuntimeException e) {
+				// a formula POI can't render, it's no range anyway
+			}
+		}
+		if (workbook instanceof XSSFWorkbook) {
+			TablePart.readTables((XSSFWorkbook)workbook, names);
+		}
+		return names;
+	}
+
+	/**
+	 * @return the same cells on the given sheet
+	 */
+	/* package-private */ SheetRange onSheet(String sheetName) {
+		return new SheetRange(sheetName, this.firstRow, this.lastRow, this.firstColumn, this.lastColumn, this.columnNames, this.columnTypes);
+	}
+
+	/**
+	 * Reads a range written by {@link #writeTo(DataOutputStream)}.
+	 */
+	/* package-private */ static SheetRange readFrom(ByteBuffer buffer) {
+		final String sheetName = SidecarFile.readString(buffer);
+		final int firstRow = buffer.getInt();
+		final int lastRow = buffer.getInt();
+		final int firstColumn = buffer.getInt();
+		final int lastColumn = buffer.getInt();
+		final int columnCount = buffer.getInt();
+		String[] columnNames = null;
+		JDBCType[] columnTypes = null;
+		if (columnCount >= 0) {
+			columnNames = new String[columnCount];
+			columnTypes = new JDBCType[columnCount];
+			for (int i=0; i < columnCount; i++) {
+				columnNames[i] = SidecarFile.readString(buffer);
+				final String type = SidecarFile.readString(buffer);
+				columnTypes[i] = type.length() > 0 ? JDBCType.valueOf(type) : null;
+			}
+		}
+		return new SheetRange(sheetName, firstRow, lastRow, firstColumn, lastColumn, columnNames, columnTypes);
+	}
+
+	/* package-private */ void writeTo(DataOutputStream out) throws IOException {
+		SidecarFile.writeString(out, this.sheetName);
+		out.writeInt(this.firstRow);
+		out.writeInt(this.lastRow);
+		out.writeInt(this.firstColumn);
+		out.writeInt(this.lastColumn);
+		out.writeInt(this.columnNames != null ? this.columnNames.length : -1);
+		for (int i=0; this.columnNames != null && i < this.columnNames.length; i++) {
+			SidecarFile.writeString(out, this.columnNames[i]);
+			SidecarFile.writeString(out, this.columnTypes[i] != null ? this.columnTypes[i].name() : "");
+		}
+	}
+
+	/**
+	 * @return <code>null</code> for the sheet the range is given for
+	 */
+	/* package-private */ String getSheetName() {
+		return this.sheetName;
+	}
+
+	/* package-private */ int getFirstRow() {
+		return this.firstRow;
+	}
+
+	/**
+	 * @return number of rows, -1 up to the last row of the sheet
+	 */
+	/* package-private */ int getRowLimit() {
+		return this.lastRow >= 0 ? this.lastRow - this.firstRow + 1 : -1;
+	}
+
+	/* package-private */ int getFirstColumn() {
+		return this.firstColumn;
+	}
+
+	/**
+	 * @return names declared for the columns by an Excel table, <code>null</code> for other ranges
+	 */
+	/* package-private */ String[] getColumnNames() {
+		return this.columnNames;
+	}
+
+	/**
+	 * @return types declared for the columns by an Excel table, <code>null</code> for those without
+	 */
+	/* package-private */ JDBCType[] getColumnTypes() {
+		return this.columnTypes;
+	}
+
+	/**
+	 * @param sheetColumnCount number of columns of the sheet
+	 */
+	/* package-private */ int getColumnCount(int sheetColumnCount) {
+		return this.lastColumn >= 0 ? this.lastColumn - this.firstColumn + 1 : Math.max(0, sheetColumnCount - this.firstColumn);
+	}
+
+	/**
+	 * @param columns columns of the range, <code>null</code> for all
+	 * @return the same columns of the sheet, so the cells left and right of the range aren't read
+	 */
+	/* package-private */ BitSet getSheetColumns(BitSet columns) {
+		final BitSet sheetColumns = new BitSet();
+		if (columns == null) {
+			sheetColumns.set(this.firstColumn, this.lastColumn >= 0 ? this.lastColumn + 1 : SpreadsheetVersion.EXCEL2007.getMaxColumns());
+		} else {
+			for (int i=columns.nextSetBit(0); i >= 0; i=columns.nextSetBit(i + 1)) {
+				if (this.lastColumn < 0 || this.firstColumn + i <= this.lastColumn) {
+					sheetColumns.set(this.firstColumn + i);
+				}
+			}
+		}
+		return sheetColumns;
+	}
+
+	/**
+	 * @return the cells as in <code>B5:H20000</code>, without the sheet
+	 */
+	@Override
+	public String toString() {
+		final String first = (this.lastColumn >= 0 ? CellReference.convertNumToColString(this.firstColumn) : "") + (this.lastRow >= 0 ? String.valueOf(this.firstRow + 1) : "");
+		final String last = (this.lastColumn >= 0 ? CellReference.convertNumToColString(this.lastColumn) : "") + (this.lastRow >= 0 ? String.valueOf(this.lastRow + 1) : "");
+		return first + ":" + last;
+	}
+
+}
@@ -0,0 +1,335 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Cell;
+
+/**
+ * Decoded cell values of a whole sheet, stored per column.
+ *
+ * Blank cells are tracked in a bit set per column. Numeric, boolean and error values share a <code>double[]</code>,
+ * strings are stored as indexes into a dictionary of the distinct strings of the sheet.
+ * The type of the cells is kept once per column, unless the column mixes several types.
+ *
+ * Read once from a {@link SheetCursor} and immutable afterwards, so it can be used by several cursors.
+ */
+/* package-private */ class SheetSnapshot {
+
+	private static final int INITIAL_CAPACITY = 256;
+	private static final byte DATE_FORMATTED = 0x40;
+	private static final byte TYPE_MASK = 0x0F;
+	private static final byte NO_TYPE = -1;
+
+	private static final int HAS_TYPES = 1;
+	private static final int HAS_NUMBERS = 2;
+	private static final int HAS_STRINGS = 4;
+
+	private final String tableName;
+	private final int columnCount;
+	private int rowCount = 0;
+	private int capacity = INITIAL_CAPACITY;
+
+	private final Column[] columns;
+	private String[] dictionary = new String[0];
+	private Map<String, Integer> dictionaryIndex = new HashMap<String, Integer>();
+
+	private SheetSnapshot(String tableName, int columnCount) {
+		this.tableName = tableName;
+		this.columnCount = columnCount;
+		this.columns = new Column[columnCount];
+
+		for (int c=0; c < columnCount; c++) {
+			this.columns[c] = new Column(this.capacity);
+		}
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #writeTo(DataOutputStream)}.
+	 */
+	/* package-private */ static SheetSnapshot readFrom(ByteBuffer buffer) {
+		final SheetSnapshot snapshot = new SheetSnapshot(SidecarFile.readString(buffer), buffer.getInt());
+		final int rowCount = buffer.getInt();
+		snapshot.rowCount = rowCount;
+		snapshot.capacity = rowCount;
+
+		snapshot.dictionary = new String[buffer.getInt()];
+		for (int i=0; i < snapshot.dictionary.length; i++) {
+			snapshot.dictionary[i] = SidecarFile.readString(buffer);
+		}
+		snapshot.dictionaryIndex = null;
+
+		for (int c=0; c < snapshot.columnCount; c++) {
+			final Column column = snapshot.columns[c];
+			column.type = buffer.get();
+			final byte flags = buffer.get();
+
+			column.present = new long[(rowCount + 63) >>> 6];
+			buffer.asLongBuffer().get(column.present);
+			buffer.position(buffer.position() + column.present.length * 8);
+
+			if ((flags & HAS_TYPES) != 0) {
+				column.types = new byte[rowCount];
+				buffer.get(column.types);
+			}
+			if ((flags & HAS_NUMBERS) != 0) {
+				column.numbers = new double[rowCount];
+				buffer.asDoubleBuffer().get(column.numbers);
+				buffer.position(buffer.position() + rowCount * 8);
+			}
+			if ((flags & HAS_STRINGS) != 0) {
+				column.strings = new int[rowCount];
+				buffer.asIntBuffer().get(column.strings);
+				buffer.position(buffer.position() + rowCount * 4);
+			}
+		}
+		return snapshot;
+	}
+
+	/* package-private */ void writeTo(DataOutputStream out) throws IOException {
+		SidecarFile.writeString(out, this.tableName);
+		out.writeInt(this.columnCount);
+		out.writeInt(this.rowCount);
+
+		out.writeInt(this.dictionary.length);
+		for (String s : this.dictionary) {
+			SidecarFile.writeString(out, s);
+		}
+
+		for (Column column : this.columns) {
+			out.writeByte(column.type);
+			out.writeByte((column.types != null ? HAS_TYPES : 0) | (column.numbers != null ? HAS_NUMBERS : 0) | (column.strings != null ? HAS_STRINGS : 0));
+
+			for (long l : column.present) {
+				out.writeLong(l);
+			}
+			if (column.types != null) {
+				out.write(column.types);
+			}
+			if (column.numbers != null) {
+				for (double d : column.numbers) {
+					out.writeDouble(d);
+				}
+			}
+			if (column.strings != null) {
+				for (int i : column.strings) {
+					out.writeInt(i);
+				}
+			}
+		}
+	}
+
+	/* package-private */ static SheetSnapshot read(SheetCursor source) throws SQLException {
+		try {
+			final SheetSnapshot snapshot = new SheetSnapshot(source.getTableName(), source.getColumnCount());
+
+			while (source.moveTo(snapshot.rowCount)) {
+				snapshot.addRow(source);
+			}
+
+			snapshot.trim();
+			return snapshot;
+		} finally {
+			source.close();
+		}
+	}
+
+	private void addRow(SheetCursor source) throws SQLException {
+		if (this.rowCount == this.capacity) {
+			resize(this.capacity * 2);
+		}
+
+		final int row = this.rowCount++;
+		for (int c=0; c < this.columnCount; c++) {
+			final Column column = this.columns[c];
+			final int cellType = source.getCellType(c);
+			switch (cellType) {
+				case Cell.CELL_TYPE_NUMERIC:
+					column.numbers(this.capacity)[row] = source.getNumericCellValue(c);
+					column.setType(row, (byte)(source.isCellDateFormatted(c) ? cellType | DATE_FORMATTED : cellType), this.capacity);
+					break;
+				case Cell.CELL_TYPE_BOOLEAN:
+					column.numbers(this.capacity)[row] = source.getBooleanCellValue(c) ? 1 : 0;
+					column.setType(row, (byte)cellType, this.capacity);
+					break;
+				case Cell.CELL_TYPE_ERROR:
+					column.numbers(this.capacity)[row] = source.getErrorCellValue(c);
+					column.setType(row, (byte)cellType, this.capacity);
+					break;
+				case Cell.CELL_TYPE_STRING:
+					column.strings(this.capacity)[row] = addToDictionary(source.getStringCellValue(c));
+					column.setType(row, (byte)cellType, this.capacity);
+					break;
+				default:
+					// stays blank
+					break;
+			}
+		}
+	}
+
+	private int addToDictionary(String value) {
+		Integer index = this.dictionaryIndex.get(value);
+		if (index == null) {
+			index = Integer.valueOf(this.dictionaryIndex.size());
+			this.dictionaryIndex.put(value, index);
+		}
+		return index.intValue();
+	}
+
+	private void trim() {
+		resize(this.rowCount);
+
+		this.dictionary = new String[this.dictionaryIndex.size()];
+		for (Map.Entry<String, Integer> e : this.dictionaryIndex.entrySet()) {
+			this.dictionary[e.getValue().intValue()] = e.getKey();
+		}
+		// only needed while reading
+		this.dictionaryIndex = null;
+	}
+
+	private void resize(int newCapacity) {
+		for (int c=0; c < this.columnCount; c++) {
+			this.columns[c].resize(newCapacity);
+		}
+		this.capacity = newCapacity;
+	}
+
+	/* package-private */ String getTableName() {
+		return this.tableName;
+	}
+
+	/* package-private */ int getColumnCount() {
+		return this.columnCount;
+	}
+
+	/* package-private */ int getRowCount() {
+		return this.rowCount;
+	}
+
+	/**
+	 * @return <code>true</code> if the sheet has any string cell
+	 */
+	/* package-private */ boolean hasStrings() {
+		return this.dictionary.length > 0;
+	}
+
+	/* package-private */ int getCellType(int row, int column) {
+		final Column col = this.columns[column];
+		if (!col.isPresent(row)) {
+			return Cell.CELL_TYPE_BLANK;
+		}
+		return (col.types != null ? col.types[row] : col.type) & TYPE_MASK;
+	}
+
+	/* package-private */ boolean isCellDateFormatted(int row, int column) {
+		final Column col = this.columns[column];
+		return col.isPresent(row) && ((col.types != null ? col.types[row] : col.type) & DATE_FORMATTED) != 0;
+	}
+
+	/* package-private */ double getNumericCellValue(int row, int column) {
+		return this.columns[column].numbers[row];
+	}
+
+	/* package-private */ String getStringCellValue(int row, int column) {
+		return this.dictionary[this.columns[column].strings[row]];
+	}
+
+	/**
+	 * Copies the cells of a column in the given rows into arrays, so many rows can be processed at once.
+	 * Strings are copied as their index in the dictionary of the sheet, see {@link #getDictionaryString(int)}.
+	 */
+	/* package-private */ void readColumn(int column, int[] rows, int count, byte[] types, boolean[] dateFormatted, double[] numbers, int[] strings) {
+		final Column col = this.columns[column];
+		for (int i=0; i < count; i++) {
+			final int row = rows[i];
+			if (!col.isPresent(row)) {
+				types[i] = Cell.CELL_TYPE_BLANK;
+				dateFormatted[i] = false;
+				continue;
+			}
+			final byte type = col.types != null ? col.types[row] : col.type;
+			types[i] = (byte)(type & TYPE_MASK);
+			dateFormatted[i] = (type & DATE_FORMATTED) != 0;
+			if (types[i] == Cell.CELL_TYPE_STRING) {
+				strings[i] = col.strings[row];
+			} else {
+				numbers[i] = col.numbers[row];
+			}
+		}
+	}
+
+	/* package-private */ String getDictionaryString(int index) {
+		return this.dictionary[index];
+	}
+
+	/* package-private */ int getDictionarySize() {
+		return this.dictionary.length;
+	}
+
+	private static class Column {
+		/** bit set of the rows with a value */
+		private long[] present;
+		/** type of all values, as long as they are of the same type */
+		private byte type = NO_TYPE;
+		/** type of each row, only if the types are mixed */
+		private byte[] types = null;
+		private double[] numbers = null;
+		private int[] strings = null;
+
+		private Column(int capacity) {
+			this.present = new long[(capacity + 63) >>> 6];
+		}
+
+		private boolean isPresent(int row) {
+			return (this.present[row >>> 6] & (1L << row)) != 0;
+		}
+
+		private void setType(int row, byte cellType, int capacity) {
+			this.present[row >>> 6] |= 1L << row;
+
+			if (this.types != null) {
+				this.types[row] = cellType;
+			} else if (this.type == NO_TYPE) {
+				this.type = cellType;
+			} else if (this.type != cellType) {
+				// rows without value are not looked at, so the former type can be set for all of them
+				this.types = new byte[capacity];
+				Arrays.fill(this.types, 0, row, this.type);
+				this.types[row] = cellType;
+			}
+		}
+
+		private double[] numbers(int capacity) {
+			if (this.numbers == null) {
+				this.numbers = new double[capacity];
+			}
+			return this.numbers;
+		}
+
+		private int[] strings(int capacity) {
+			if (this.strings == null) {
+				this.strings = new int[capacity];
+			}
+			return this.strings;
+		}
+
+		private void resize(int newCapacity) {
+			this.present = Arrays.copyOf(this.present, (newCapacity + 63) >>> 6);
+			if (this.types != null) {
+				this.types = Arrays.copyOf(this.types, newCapacity);
+			}
+			if (this.numbers != null) {
+				this.numbers = Arrays.copyOf(this.numbers, newCapacity);
+			}
+			if (this.strings != null) {
+				this.strings = Arrays.copyOf(this.strings, newCapacity);
+			}
+		}
+	}
+
+}
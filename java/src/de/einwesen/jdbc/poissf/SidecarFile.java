@@ -0,0 +1,260 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * File holding the {@link SheetSnapshot}s of all sheets of a workbook, so they don't have to be parsed again
+ * after a restart.
+ *
+ * The name contains a hash of the workbook's content, so a changed workbook never matches an old file.
+ * Each sheet is memory mapped and decoded when it is queried for the first time.
+ */
+/* package-private */ class SidecarFile {
+
+	private static final int MAGIC = 0x50535346;
+	private static final int VERSION = 3;
+	private static final String SUFFIX = ".poissf";
+
+	private RandomAccessFile file = null;
+	private final Map<String, long[]> sheets = new HashMap<String, long[]>();
+	private final Map<String, String> failures = new HashMap<String, String>();
+	private final Map<String, SheetRange> definedNames = new HashMap<String, SheetRange>();
+
+	private SidecarFile(RandomAccessFile file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the sidecar file of the current content of the workbook
+	 */
+	/* package-private */ static File locate(File dir, File workbookFile) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		final InputStream is = new FileInputStream(workbookFile);
+		try {
+			final byte[] buffer = new byte[64 * 1024];
+			int read = 0;
+			while ((read = is.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			is.close();
+		}
+
+		final StringBuilder sb = new StringBuilder(getPrefix(workbookFile));
+		for (byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return new File(dir, sb.append(SUFFIX).toString());
+	}
+
+	private static String getPrefix(File workbookFile) throws IOException {
+		// files of the same name in different directories must not replace each other
+		return workbookFile.getName() + "-" + Integer.toHexString(workbookFile.getCanonicalPath().hashCode()) + ".";
+	}
+
+	/**
+	 * @return <code>null</code> if there is no usable file
+	 */
+	/* package-private */ static SidecarFile open(File sidecar) {
+		if (!sidecar.isFile()) {
+			return null;
+		}
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(sidecar, "r");
+			if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+				raf.close();
+				return null;
+			}
+
+			final long indexOffset = raf.readLong();
+			final ByteBuffer index = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, indexOffset, raf.length() - indexOffset);
+
+			final SidecarFile result = new SidecarFile(raf);
+			final int sheetCount = index.getInt();
+			for (int i=0; i < sheetCount; i++) {
+				final String key = readString(index);
+				if (index.get() == 0) {
+					result.sheets.put(key, new long[] {index.getLong(), index.getLong()});
+				} else {
+					result.failures.put(key, readString(index));
+				}
+			}
+			final int nameCount = index.getInt();
+			for (int i=0; i < nameCount; i++) {
+				final String key = readString(index);
+				result.definedNames.put(key, SheetRange.readFrom(index));
+			}
+			return result;
+		} catch (IOException e) {
+			close(raf);
+			return null;
+		} catch (RuntimeException e) {
+			// e.g. a truncated file
+			close(raf);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes all snapshots of the workbook and deletes the files of former versions of the workbook.
+	 */
+	/* package-private */ static void write(File sidecar, File workbookFile, SnapshotWorkbook workbook) throws IOException {
+		final File dir = sidecar.getAbsoluteFile().getParentFile();
+		final File tmp = File.createTempFile("poissf", ".tmp", dir);
+
+		try {
+			final FileOutputStream fos = new FileOutputStream(tmp);
+			try {
+				final FileChannel channel = fos.getChannel();
+				final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(0);
+
+				final Map<String, long[]> offsets = new HashMap<String, long[]>();
+				for (SheetSnapshot snapshot : workbook.getSnapshots()) {
+					out.flush();
+					final long start = channel.position();
+					snapshot.writeTo(out);
+					out.flush();
+					offsets.put(snapshot.getTableName().toLowerCase(), new long[] {start, channel.position() - start});
+				}
+
+				final Map<String, SQLException> failures = workbook.getFailures();
+				final long indexOffset = channel.position();
+				out.writeInt(offsets.size() + failures.size());
+				for (Map.Entry<String, long[]> e : offsets.entrySet()) {
+					writeString(out, e.getKey());
+					out.writeByte(0);
+					out.writeLong(e.getValue()[0]);
+					out.writeLong(e.getValue()[1]);
+				}
+				for (Map.Entry<String, SQLException> e : failures.entrySet()) {
+					writeString(out, e.getKey());
+					out.writeByte(1);
+					writeString(out, String.valueOf(e.getValue().getMessage()));
+				}
+				final Map<String, SheetRange> definedNames = workbook.getDefinedNames();
+				out.writeInt(definedNames != null ? definedNames.size() : 0);
+				if (definedNames != null) {
+					for (Map.Entry<String, SheetRange> e : definedNames.entrySet()) {
+						writeString(out, e.getKey());
+						e.getValue().writeTo(out);
+					}
+				}
+				out.flush();
+
+				final ByteBuffer header = ByteBuffer.allocate(8);
+				header.putLong(indexOffset).flip();
+				channel.write(header, 8);
+			} finally {
+				fos.close();
+			}
+
+			// an unusable file of the same content
+			sidecar.delete();
+			if (!tmp.renameTo(sidecar)) {
+				throw new IOException("Could not rename " + tmp);
+			}
+		} finally {
+			tmp.delete();
+		}
+
+		final String prefix = getPrefix(workbookFile);
+		final File[] outdated = dir.listFiles();
+		if (outdated != null) {
+			for (File f : outdated) {
+				if (f.getName().startsWith(prefix) && f.getName().endsWith(SUFFIX) && !f.getName().equals(sidecar.getName())) {
+					f.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return ranges by the lower case names defined for the whole workbook
+	 */
+	/* package-private */ Map<String, SheetRange> getDefinedNames() {
+		return this.definedNames;
+	}
+
+	/* package-private */ synchronized boolean hasSheet(String sheetName) {
+		final String key = sheetName.toLowerCase();
+		return this.sheets.containsKey(key) || this.failures.containsKey(key);
+	}
+
+	/* package-private */ synchronized SheetSnapshot readSheet(String sheetName) throws SQLException {
+		final String key = sheetName.toLowerCase();
+		final long[] position = this.sheets.get(key);
+		if (position == null) {
+			if (this.failures.containsKey(key)) {
+				throw new SQLException(this.failures.get(key));
+			} else {
+				throw new SQLException(String.format(PoiSSFDriver.SHEET_NOT_FOUND, sheetName));
+			}
+		}
+
+		if (this.file == null) {
+			throw new SQLException(PoiSSFDriver.CONNECTION_IS_CLOSED);
+		}
+
+		try {
+			return SheetSnapshot.readFrom(this.file.getChannel().map(FileChannel.MapMode.READ_ONLY, position[0], position[1]));
+		} catch (IOException e) {
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		} catch (RuntimeException e) {
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		}
+	}
+
+	/* package-private */ synchronized void close() {
+		close(this.file);
+		this.file = null;
+	}
+
+	private static void close(RandomAccessFile raf) {
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				// Do nothing
+			}
+		}
+	}
+
+	/* package-private */ static void writeString(DataOutputStream out, String s) throws IOException {
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/* package-private */ static String readString(ByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,92 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+
+/**
+ * Scrollable {@link SheetCursor} on a {@link SheetSnapshot}.
+ */
+/* package-private */ class SnapshotSheetCursor implements SheetCursor {
+
+	private SheetSnapshot snapshot = null;
+	private int currentRow = -1;
+
+	/* package-private */ SnapshotSheetCursor(SheetSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/* package-private */ SheetSnapshot getSnapshot() {
+		return this.snapshot;
+	}
+
+	@Override
+	public String getTableName() {
+		return this.snapshot.getTableName();
+	}
+
+	@Override
+	public int getColumnCount() throws SQLException {
+		return this.snapshot.getColumnCount();
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.snapshot.getRowCount();
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return true;
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		if (row >= 0 && row < this.snapshot.getRowCount()) {
+			this.currentRow = row;
+			return true;
+		} else {
+			this.currentRow = -1;
+			return false;
+		}
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		return this.snapshot.getCellType(this.currentRow, column);
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return this.snapshot.getNumericCellValue(this.currentRow, column);
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return this.snapshot.getStringCellValue(this.currentRow, column);
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return this.snapshot.getNumericCellValue(this.currentRow, column) != 0;
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return (byte)this.snapshot.getNumericCellValue(this.currentRow, column);
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		return this.snapshot.isCellDateFormatted(this.currentRow, column);
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		throw new SQLException(PoiSSFDriver.RESULT_SET_NOT_UPDATETABLE);
+	}
+
+	@Override
+	public void close() {
+		this.currentRow = -1;
+	}
+
+}
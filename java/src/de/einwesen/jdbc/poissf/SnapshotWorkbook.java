@@ -0,0 +1,236 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Parses each sheet of a {@link StreamingWorkbook} into a {@link SheetSnapshot}
+ * when it is queried for the first time and keeps it for later queries.
+ */
+/* package-private */ class SnapshotWorkbook {
+
+	private final StreamingWorkbook source;
+	private final SidecarFile sidecar;
+	private final Map<String, SheetSnapshot> snapshots = new HashMap<String, SheetSnapshot>();
+	private final Map<String, SQLException> failures = new HashMap<String, SQLException>();
+	/** versions of the sheets in the source when their snapshots were taken, also written by the threads of {@link #readAll(ExecutorService)} */
+	private final Map<String, String> versions = new HashMap<String, String>();
+	/** <code>null</code> if read from a {@link StreamingWorkbook}, which knows them itself */
+	private Map<String, SheetRange> definedNames = null;
+
+	/* package-private */ SnapshotWorkbook(StreamingWorkbook source) {
+		this.source = source;
+		this.sidecar = null;
+	}
+
+	/* package-private */ SnapshotWorkbook(SidecarFile sidecar) {
+		this.source = null;
+		this.sidecar = sidecar;
+		this.definedNames = sidecar.getDefinedNames();
+	}
+
+	/**
+	 * Takes snapshots of all sheets at once, so the POI workbook isn't needed afterwards.
+	 */
+	/* package-private */ static SnapshotWorkbook read(Workbook workbook) {
+		final SnapshotWorkbook result = new SnapshotWorkbook((StreamingWorkbook)null);
+		result.definedNames = SheetRange.readDefinedNames(workbook);
+		for (int i=0; i < workbook.getNumberOfSheets(); i++) {
+			final Sheet sheet = workbook.getSheetAt(i);
+			final String key = sheet.getSheetName().toLowerCase();
+			try {
+				result.snapshots.put(key, SheetSnapshot.read(new UsermodelSheetCursor(sheet)));
+			} catch (SQLException e) {
+				// e.g. an empty sheet, reported when it is queried
+				result.failures.put(key, e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Takes over the snapshots of a former version of the workbook whose sheets haven't changed since.
+	 */
+	/* package-private */ void reuseUnchanged(SnapshotWorkbook previous) {
+		final Map<String, SheetSnapshot> previousSnapshots;
+		final Map<String, String> previousVersions;
+		synchronized (previous) {
+			previousSnapshots = new HashMap<String, SheetSnapshot>(previous.snapshots);
+		}
+		synchronized (previous.versions) {
+			previousVersions = new HashMap<String, String>(previous.versions);
+		}
+
+		synchronized (this) {
+			if (this.source == null) {
+				return;
+			}
+			for (Map.Entry<String, SheetSnapshot> e : previousSnapshots.entrySet()) {
+				final String version = this.source.getSheetVersion(e.getKey(), e.getValue().hasStrings());
+				if (version != null && version.equals(previousVersions.get(e.getKey())) && !this.snapshots.containsKey(e.getKey())) {
+					this.snapshots.put(e.getKey(), e.getValue());
+					synchronized (this.versions) {
+						this.versions.put(e.getKey(), version);
+					}
+				}
+			}
+		}
+	}
+
+	private SheetSnapshot readSnapshot(String sheetName) throws SQLException {
+		final SheetSnapshot snapshot = SheetSnapshot.read(this.source.openSheetCursor(sheetName, null));
+		final String version = this.source.getSheetVersion(sheetName, snapshot.hasStrings());
+		if (version != null) {
+			synchronized (this.versions) {
+				this.versions.put(sheetName.toLowerCase(), version);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Takes snapshots of all sheets of the source not read yet, in parallel if the source supports it.
+	 */
+	/* package-private */ synchronized void readAll(ExecutorService executor) throws SQLException {
+		final List<String> sheetNames = new ArrayList<String>();
+		for (String sheetName : this.source.getSheetNames()) {
+			if (!this.snapshots.containsKey(sheetName.toLowerCase())) {
+				sheetNames.add(sheetName);
+			}
+		}
+
+		if (!this.source.supportsConcurrentCursors()) {
+			for (String sheetName : sheetNames) {
+				try {
+					getSnapshot(sheetName);
+				} catch (SQLException e) {
+					this.failures.put(sheetName.toLowerCase(), e);
+				}
+			}
+			return;
+		}
+
+		final List<Future<SheetSnapshot>> futures = new ArrayList<Future<SheetSnapshot>>(sheetNames.size());
+		for (final String sheetName : sheetNames) {
+			futures.add(executor.submit(new Callable<SheetSnapshot>() {
+				@Override
+				public SheetSnapshot call() throws Exception {
+					return readSnapshot(sheetName);
+				}
+			}));
+		}
+
+		try {
+			for (int i=0; i < sheetNames.size(); i++) {
+				final String key = sheetNames.get(i).toLowerCase();
+				try {
+					this.snapshots.put(key, futures.get(i).get());
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof SQLException) {
+						// e.g. an empty sheet, reported when it is queried
+						this.failures.put(key, (SQLException)e.getCause());
+					} else {
+						throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e.getCause());
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		} finally {
+			for (Future<SheetSnapshot> f : futures) {
+				f.cancel(true);
+			}
+		}
+	}
+
+	/* package-private */ synchronized SheetSnapshot getSnapshot(String sheetName) throws SQLException {
+		final String key = sheetName.toLowerCase();
+
+		SheetSnapshot snapshot = this.snapshots.get(key);
+		if (snapshot == null) {
+			if (this.failures.containsKey(key)) {
+				throw new SQLException(this.failures.get(key).getMessage(), this.failures.get(key));
+			} else if (this.sidecar != null) {
+				snapshot = this.sidecar.readSheet(sheetName);
+			} else if (this.source != null) {
+				snapshot = readSnapshot(sheetName);
+			} else {
+				throw new SQLException(String.format(PoiSSFDriver.SHEET_NOT_FOUND, sheetName));
+			}
+			this.snapshots.put(key, snapshot);
+		}
+		return snapshot;
+	}
+
+	/* package-private */ synchronized boolean hasSnapshot(String sheetName) {
+		return this.snapshots.containsKey(sheetName.toLowerCase()) || this.sidecar != null;
+	}
+
+	/**
+	 * @return <code>true</code> if the sheet exists, whether it has been read or not
+	 */
+	/* package-private */ synchronized boolean hasSheet(String sheetName) throws SQLException {
+		final String key = sheetName.toLowerCase();
+		if (this.snapshots.containsKey(key) || this.failures.containsKey(key)) {
+			return true;
+		} else if (this.sidecar != null) {
+			return this.sidecar.hasSheet(sheetName);
+		} else if (this.source != null) {
+			for (String name : this.source.getSheetNames()) {
+				if (name.equalsIgnoreCase(sheetName)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return ranges by the lower case names defined for the whole workbook, <code>null</code> if not known to the snapshots
+	 */
+	/* package-private */ Map<String, SheetRange> getDefinedNames() {
+		return this.definedNames;
+	}
+
+	/* package-private */ SheetCursor openSheetCursor(String sheetName) throws SQLException {
+		return new SnapshotSheetCursor(getSnapshot(sheetName));
+	}
+
+	/* package-private */ synchronized Collection<SheetSnapshot> getSnapshots() {
+		return new ArrayList<SheetSnapshot>(this.snapshots.values());
+	}
+
+	/**
+	 * @return the names of the sheets read so far
+	 */
+	/* package-private */ synchronized List<String> getSnapshotNames() {
+		final List<String> names = new ArrayList<String>(this.snapshots.size());
+		for (SheetSnapshot snapshot : this.snapshots.values()) {
+			names.add(snapshot.getTableName());
+		}
+		return names;
+	}
+
+	/* package-private */ synchronized Map<String, SQLException> getFailures() {
+		return new HashMap<String, SQLException>(this.failures);
+	}
+
+	/* package-private */ void close() {
+		if (this.sidecar != null) {
+			this.sidecar.close();
+		}
+	}
+
+}
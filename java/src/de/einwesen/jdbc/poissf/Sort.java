@@ -0,0 +1,626 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.poi.ss.usermodel.Cell;
+
+/**
+ * Sorts the rows of a query by its ORDER BY.
+ *
+ * Cells are ordered as in Excel: numbers before strings before booleans before errors, and empty cells last,
+ * also when sorting descending. Rows with equal keys keep their order.
+ *
+ * A scrollable source is in memory anyway, so only the keys are copied and an index of its rows is sorted.
+ * Rows of a forward only source are copied into buffers, which are sorted and written to temp files by the driver's
+ * thread pool once they exceed half of the memory given by {@link PoiSSFDriver#SYSTEM_PROPERTY_SORT_MEMORY_BYTES},
+ * while the next buffer is filled. The files are merged while the result is read.
+ * With a LIMIT only that many rows are kept, in a heap.
+ */
+/* package-private */ class Sort {
+
+	/** rows kept in a heap at most for a LIMIT */
+	private static final int MAX_HEAP_ROWS = 64 * 1024;
+	/** rows sorted by one thread at least */
+	private static final int MIN_PARALLEL_ROWS = 64 * 1024;
+	/** rows sorted by insertion instead of merging */
+	private static final int INSERTION_SORT_ROWS = 16;
+	/** estimated memory of a buffered cell, and of a string in addition to its characters */
+	private static final long CELL_BYTES = 17;
+	private static final long STRING_BYTES = 48;
+
+	/* package-private */ static interface RowComparator {
+		int compare(int rowA, int rowB);
+	}
+
+	/** columns of the rows sorted, i.e. of the select list followed by {@link #hiddenColumns} */
+	private final int[] keyColumns;
+	private final boolean[] descending;
+	/** columns only needed for sorting */
+	private final List<SelectStatement.Column> hiddenColumns = new ArrayList<SelectStatement.Column>();
+
+	/**
+	 * Binds the ORDER BY to the columns of the result: positions, aliases and columns of the select list.
+	 * Other columns of the sheet become hidden columns, unless the statement is aggregated.
+	 *
+	 * @param header column indexes by the lower case names in the first row of the sheet,
+	 * 		only needed if {@link SelectStatement#hasHeaderNames()}
+	 */
+	/* package-private */ Sort(SelectStatement statement, Map<String, Integer> header, int sourceColumnCount) throws SQLException {
+		final boolean aggregated = statement.isAggregated();
+
+		// the columns of the result, with * expanded
+		final List<SelectStatement.Column> outputs = new ArrayList<SelectStatement.Column>();
+		final List<Integer> outputIndexes = new ArrayList<Integer>();
+		for (SelectStatement.Column c : statement.getColumns()) {
+			if (c.isAll()) {
+				for (int i=0; i < sourceColumnCount; i++) {
+					outputs.add(null);
+					outputIndexes.add(Integer.valueOf(i));
+				}
+			} else {
+				outputs.add(c);
+				outputIndexes.add(Integer.valueOf(c.getFunction() == null ? c.getIndex(header) : -1));
+			}
+		}
+
+		final List<SelectStatement.SortKey> orderBy = statement.getOrderBy();
+		this.keyColumns = new int[orderBy.size()];
+		this.descending = new boolean[orderBy.size()];
+		for (int k=0; k < this.keyColumns.length; k++) {
+			final SelectStatement.SortKey key = orderBy.get(k);
+			this.descending[k] = key.isDescending();
+
+			if (key.getColumn() == null) {
+				if (key.getPosition() > outputs.size()) {
+					throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_FOUND, String.valueOf(key.getPosition())));
+				}
+				this.keyColumns[k] = key.getPosition() - 1;
+				continue;
+			}
+
+			final SelectStatement.Column c = key.getColumn();
+			int column = findAlias(outputs, c);
+			if (column < 0 && c.getFunction() != null) {
+				column = findAggregate(outputs, c, header);
+				if (column < 0) {
+					throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_FOUND, c.getLabel()));
+				}
+			} else if (column < 0) {
+				final int index = c.getIndex(header);
+				if (index < 0 || index >= sourceColumnCount) {
+					throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_FOUND, c.getName()));
+				}
+				column = outputIndexes.indexOf(Integer.valueOf(index));
+				if (column < 0 && aggregated) {
+					throw new SQLException(String.format(PoiSSFDriver.COLUMN_NOT_GROUPED, c.getName()));
+				} else if (column < 0) {
+					column = outputs.size() + this.hiddenColumns.size();
+					this.hiddenColumns.add(c);
+				}
+			}
+			this.keyColumns[k] = column;
+		}
+	}
+
+	private static int findAlias(List<SelectStatement.Column> outputs, SelectStatement.Column key) {
+		if (key.getFunction() == null) {
+			for (int i=0; i < outputs.size(); i++) {
+				final SelectStatement.Column c = outputs.get(i);
+				if (c != null && c.getAlias() != null && c.getAlias().equalsIgnoreCase(key.getName())) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static int findAggregate(List<SelectStatement.Column> outputs, SelectStatement.Column key, Map<String, Integer> header) {
+		for (int i=0; i < outputs.size(); i++) {
+			final SelectStatement.Column c = outputs.get(i);
+			if (c != null && key.getFunction().equals(c.getFunction())
+					&& (key.getName() == null ? c.getName() == null : c.getName() != null && c.getIndex(header) == key.getIndex(header))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds the columns of the sheet the ORDER BY needs besides the select list.
+	 *
+	 * @param used <code>null</code> if all columns are read anyway
+	 */
+	/* package-private */ static void collectColumns(SelectStatement statement, Map<String, Integer> header, BitSet used) {
+		if (used == null) {
+			return;
+		}
+		for (SelectStatement.SortKey key : statement.getOrderBy()) {
+			final SelectStatement.Column c = key.getColumn();
+			if (c != null && c.getFunction() == null && findAlias(statement.getColumns(), c) < 0) {
+				final int index = c.getIndex(header);
+				if (index >= 0) {
+					used.set(index);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return columns to be appended to the select list, to be sorted by but not returned
+	 */
+	/* package-private */ List<SelectStatement.Column> getHiddenColumns() {
+		return this.hiddenColumns;
+	}
+
+	/**
+	 * @param limit number of rows needed at most, negative for all
+	 * @return the rows of the source in order, closing it closes the source
+	 */
+	/* package-private */ SheetCursor sort(SheetCursor source, int limit) throws SQLException {
+		if (source.isScrollable()) {
+			return sortScrollable(source, limit);
+		}
+		return sortForwardOnly(source, limit);
+	}
+
+	private SheetCursor sortScrollable(SheetCursor source, int limit) throws SQLException {
+		final int[] keyIndexes = new int[this.keyColumns.length];
+		for (int k=0; k < keyIndexes.length; k++) {
+			keyIndexes[k] = k;
+		}
+		final MaterializedSheetCursor keys = new MaterializedSheetCursor(source.getTableName(), this.keyColumns.length);
+
+		if (limit >= 0 && limit <= MAX_HEAP_ROWS) {
+			final TopRows top = new TopRows(keys, keyIndexes, limit);
+			int row = 0;
+			while (source.moveTo(row)) {
+				final int r = top.prepare();
+				for (int k=0; k < keyIndexes.length; k++) {
+					keys.copyCell(r, k, source, this.keyColumns[k]);
+				}
+				top.offer(r, row++);
+			}
+			// the rows of the source are the sequence numbers
+			final int[] order = top.getOrder();
+			for (int i=0; i < order.length; i++) {
+				order[i] = (int)top.sequence[order[i]];
+			}
+			return new SortedSheetCursor(source, order);
+		}
+
+		int row = 0;
+		while (source.moveTo(row++)) {
+			final int r = keys.addRow();
+			for (int k=0; k < keyIndexes.length; k++) {
+				keys.copyCell(r, k, source, this.keyColumns[k]);
+			}
+		}
+		// key row i is row i of the source
+		return new SortedSheetCursor(source, sortRows(keys, keyIndexes, true));
+	}
+
+	private SheetCursor sortForwardOnly(SheetCursor source, int limit) throws SQLException {
+		final String tableName = source.getTableName();
+		final int columnCount = source.getColumnCount();
+
+		if (limit >= 0 && limit <= MAX_HEAP_ROWS) {
+			final MaterializedSheetCursor rows = new MaterializedSheetCursor(tableName, columnCount);
+			final TopRows top = new TopRows(rows, this.keyColumns, limit);
+			int row = 0;
+			try {
+				while (source.moveTo(row)) {
+					final int r = top.prepare();
+					for (int c=0; c < columnCount; c++) {
+						rows.copyCell(r, c, source, c);
+					}
+					top.offer(r, row++);
+				}
+			} finally {
+				source.close();
+			}
+			return new SortedSheetCursor(rows, top.getOrder());
+		}
+
+		final long budget = PoiSSFDriver.getSortMemoryBytes() / 2;
+		final List<File> runs = new ArrayList<File>();
+		Future<File> writing = null;
+		boolean done = false;
+		try {
+			MaterializedSheetCursor buffer = new MaterializedSheetCursor(tableName, columnCount);
+			long bytes = 0;
+			int row = 0;
+			while (source.moveTo(row++)) {
+				final int r = buffer.addRow();
+				bytes += CELL_BYTES * columnCount;
+				for (int c=0; c < columnCount; c++) {
+					buffer.copyCell(r, c, source, c);
+					if (buffer.getCellType(r, c) == Cell.CELL_TYPE_STRING) {
+						bytes += STRING_BYTES + buffer.getStringCellValue(r, c).length();
+					}
+				}
+
+				if (bytes >= budget) {
+					// at most one buffer is written while the next one is filled
+					if (writing != null) {
+						runs.add(getRun(writing));
+					}
+					writing = writeRunInBackground(buffer);
+					buffer = new MaterializedSheetCursor(tableName, columnCount);
+					bytes = 0;
+				}
+			}
+
+			if (writing == null) {
+				// everything fit into memory
+				done = true;
+				return new SortedSheetCursor(buffer, sortRows(buffer, this.keyColumns, true));
+			}
+
+			runs.add(getRun(writing));
+			writing = null;
+			if (buffer.getRowCount() > 0) {
+				runs.add(writeRun(buffer, true));
+			}
+			final MergingSheetCursor result = new MergingSheetCursor(this, tableName, columnCount, runs);
+			done = true;
+			return result;
+		} catch (IOException e) {
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		} finally {
+			source.close();
+			if (!done) {
+				if (writing != null) {
+					discardRun(writing);
+				}
+				for (File f : runs) {
+					TempFiles.delete(f);
+				}
+			}
+		}
+	}
+
+	private Future<File> writeRunInBackground(final MaterializedSheetCursor buffer) {
+		return PoiSSFDriver.getExecutor().submit(new Callable<File>() {
+			@Override
+			public File call() throws Exception {
+				// a task of the pool must not wait for other tasks of the pool
+				return writeRun(buffer, false);
+			}
+		});
+	}
+
+	private static File getRun(Future<File> writing) throws SQLException {
+		try {
+			return writing.get();
+		} catch (ExecutionException e) {
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e.getCause());
+		} catch (InterruptedException e) {
+			// the run is still written, and deleted by discardRun
+			Thread.currentThread().interrupt();
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		}
+	}
+
+	/**
+	 * Waits for a run written in the background to delete its file, after the sort has failed.
+	 */
+	private static void discardRun(Future<File> writing) {
+		boolean interrupted = Thread.interrupted();
+		try {
+			while (true) {
+				try {
+					TempFiles.delete(writing.get());
+					return;
+				} catch (ExecutionException e) {
+					// deleted by writeRun
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Writes the rows of the buffer sorted to a temp file, as read by {@link MergingSheetCursor}.
+	 */
+	private File writeRun(MaterializedSheetCursor buffer, boolean parallel) throws IOException, SQLException {
+		final int[] order = sortRows(buffer, this.keyColumns, parallel);
+
+		final File file = File.createTempFile("poissf-sort", ".run");
+		boolean written = false;
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+			try {
+				out.writeInt(order.length);
+				for (int row : order) {
+					buffer.writeRow(out, row);
+				}
+			} finally {
+				out.close();
+			}
+			written = true;
+		} finally {
+			if (!written) {
+				TempFiles.delete(file);
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Compares rows by the keys, both having the columns of the select list followed by the hidden columns.
+	 */
+	/* package-private */ int compare(MaterializedSheetCursor rowsA, int rowA, MaterializedSheetCursor rowsB, int rowB) {
+		return compare(rowsA, rowA, rowsB, rowB, this.keyColumns);
+	}
+
+	private int compare(MaterializedSheetCursor rowsA, int rowA, MaterializedSheetCursor rowsB, int rowB, int[] columns) {
+		for (int k=0; k < columns.length; k++) {
+			final int column = columns[k];
+			final int typeA = rowsA.getCellType(rowA, column);
+			final int typeB = rowsB.getCellType(rowB, column);
+
+			if (typeA == Cell.CELL_TYPE_BLANK || typeB == Cell.CELL_TYPE_BLANK) {
+				if (typeA != typeB) {
+					return typeA == Cell.CELL_TYPE_BLANK ? 1 : -1;
+				}
+				continue;
+			}
+
+			final int c;
+			if (typeA != typeB) {
+				c = rank(typeA) - rank(typeB);
+			} else if (typeA == Cell.CELL_TYPE_STRING) {
+				c = rowsA.getStringCellValue(rowA, column).compareTo(rowsB.getStringCellValue(rowB, column));
+			} else {
+				c = Double.compare(rowsA.getNumericCellValue(rowA, column), rowsB.getNumericCellValue(rowB, column));
+			}
+			if (c != 0) {
+				return this.descending[k] ? -c : c;
+			}
+		}
+		return 0;
+	}
+
+	private static int rank(int cellType) {
+		switch (cellType) {
+			case Cell.CELL_TYPE_NUMERIC:
+				return 0;
+			case Cell.CELL_TYPE_STRING:
+				return 1;
+			case Cell.CELL_TYPE_BOOLEAN:
+				return 2;
+			default:
+				return 3;
+		}
+	}
+
+	/**
+	 * @return the rows in order, equal rows in their original order
+	 */
+	private int[] sortRows(final MaterializedSheetCursor rows, final int[] columns, boolean parallel) throws SQLException {
+		final int[] order = new int[rows.getRowCount()];
+		for (int i=0; i < order.length; i++) {
+			order[i] = i;
+		}
+		sortRows(order, new RowComparator() {
+			@Override
+			public int compare(int rowA, int rowB) {
+				return Sort.this.compare(rows, rowA, rows, rowB, columns);
+			}
+		}, parallel);
+		return order;
+	}
+
+	/**
+	 * Merge sort, the parts of big arrays are sorted by the driver's thread pool and merged afterwards.
+	 */
+	/* package-private */ static void sortRows(final int[] rows, final RowComparator comparator, boolean parallel) throws SQLException {
+		final int[] buffer = new int[rows.length];
+		final int parts = parallel ? Math.max(1, Math.min(PoiSSFDriver.getThreadCount(), rows.length / MIN_PARALLEL_ROWS)) : 1;
+		if (parts == 1) {
+			mergeSort(rows, buffer, 0, rows.length, comparator);
+			return;
+		}
+
+		final int[] bounds = new int[parts + 1];
+		for (int p=0; p <= parts; p++) {
+			bounds[p] = (int)((long)rows.length * p / parts);
+		}
+
+		final ExecutorService executor = PoiSSFDriver.getExecutor();
+		final List<Future<?>> futures = new ArrayList<Future<?>>(parts);
+		for (int p=0; p < parts; p++) {
+			final int from = bounds[p];
+			final int to = bounds[p + 1];
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					mergeSort(rows, buffer, from, to, comparator);
+				}
+			}));
+		}
+		try {
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} catch (ExecutionException e) {
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		} finally {
+			for (Future<?> f : futures) {
+				f.cancel(true);
+			}
+		}
+
+		// merging neighboured parts until one is left
+		int[] partBounds = bounds;
+		while (partBounds.length > 2) {
+			final int[] merged = new int[partBounds.length / 2 + 1];
+			int m = 0;
+			for (int p=0; p + 1 < partBounds.length; p += 2) {
+				merged[m++] = partBounds[p];
+				if (p + 2 < partBounds.length) {
+					merge(rows, buffer, partBounds[p], partBounds[p + 1], partBounds[p + 2], comparator);
+				}
+			}
+			merged[m++] = rows.length;
+			partBounds = Arrays.copyOf(merged, m);
+		}
+	}
+
+	private static void mergeSort(int[] rows, int[] buffer, int from, int to, RowComparator comparator) {
+		if (to - from <= INSERTION_SORT_ROWS) {
+			for (int i=from + 1; i < to; i++) {
+				final int row = rows[i];
+				int j = i - 1;
+				while (j >= from && comparator.compare(rows[j], row) > 0) {
+					rows[j + 1] = rows[j];
+					j--;
+				}
+				rows[j + 1] = row;
+			}
+			return;
+		}
+
+		final int middle = (from + to) >>> 1;
+		mergeSort(rows, buffer, from, middle, comparator);
+		mergeSort(rows, buffer, middle, to, comparator);
+		if (comparator.compare(rows[middle - 1], rows[middle]) > 0) {
+			merge(rows, buffer, from, middle, to, comparator);
+		}
+	}
+
+	private static void merge(int[] rows, int[] buffer, int from, int middle, int to, RowComparator comparator) {
+		System.arraycopy(rows, from, buffer, from, to - from);
+		int left = from;
+		int right = middle;
+		for (int i=from; i < to; i++) {
+			if (right >= to || (left < middle && comparator.compare(buffer[left], buffer[right]) <= 0)) {
+				rows[i] = buffer[left++];
+			} else {
+				rows[i] = buffer[right++];
+			}
+		}
+	}
+
+	/**
+	 * The first rows in order, in a heap with the last of them on top.
+	 */
+	private class TopRows {
+		private final MaterializedSheetCursor rows;
+		private final int[] columns;
+		private final int limit;
+		private final int[] heap;
+		private int size = 0;
+		/** number of each row in the source, to keep equal rows in order */
+		private long[] sequence = new long[16];
+		/** row of {@link #rows} not in the heap, filled with the next row */
+		private int spare = -1;
+
+		private TopRows(MaterializedSheetCursor rows, int[] columns, int limit) {
+			this.rows = rows;
+			this.columns = columns;
+			this.limit = limit;
+			this.heap = new int[limit];
+		}
+
+		private boolean after(int rowA, int rowB) {
+			final int c = compare(this.rows, rowA, this.rows, rowB, this.columns);
+			return c > 0 || (c == 0 && this.sequence[rowA] > this.sequence[rowB]);
+		}
+
+		/**
+		 * @return the row of {@link #rows} to copy the next row of the source into
+		 */
+		private int prepare() {
+			if (this.size < this.limit) {
+				return addRow();
+			}
+			if (this.spare < 0) {
+				this.spare = addRow();
+			} else {
+				this.rows.clearRow(this.spare);
+			}
+			return this.spare;
+		}
+
+		private int addRow() {
+			final int row = this.rows.addRow();
+			if (row == this.sequence.length) {
+				this.sequence = Arrays.copyOf(this.sequence, row * 2);
+			}
+			return row;
+		}
+
+		private void offer(int row, long sequence) {
+			this.sequence[row] = sequence;
+			if (this.size < this.limit) {
+				int index = this.size++;
+				while (index > 0) {
+					final int parent = (index - 1) >>> 1;
+					if (!after(row, this.heap[parent])) {
+						break;
+					}
+					this.heap[index] = this.heap[parent];
+					index = parent;
+				}
+				this.heap[index] = row;
+			} else if (this.limit > 0 && after(this.heap[0], row)) {
+				this.spare = this.heap[0];
+				int index = 0;
+				while (true) {
+					int child = 2 * index + 1;
+					if (child >= this.size) {
+						break;
+					}
+					if (child + 1 < this.size && after(this.heap[child + 1], this.heap[child])) {
+						child++;
+					}
+					if (!after(this.heap[child], row)) {
+						break;
+					}
+					this.heap[index] = this.heap[child];
+					index = child;
+				}
+				this.heap[index] = row;
+			}
+		}
+
+		/**
+		 * @return the rows of {@link #rows} in the heap, in order
+		 */
+		private int[] getOrder() throws SQLException {
+			final int[] order = Arrays.copyOf(this.heap, this.size);
+			sortRows(order, new RowComparator() {
+				@Override
+				public int compare(int rowA, int rowB) {
+					return after(rowA, rowB) ? 1 : after(rowB, rowA) ? -1 : 0;
+				}
+			}, false);
+			return order;
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+
+/**
+ * {@link SheetCursor} returning the rows of a scrollable cursor in the order of an index, see {@link Sort}.
+ */
+/* package-private */ class SortedSheetCursor implements SheetCursor {
+
+	private final SheetCursor source;
+	/** rows of the source, in the order they are returned */
+	private final int[] order;
+
+	/* package-private */ SortedSheetCursor(SheetCursor source, int[] order) {
+		this.source = source;
+		this.order = order;
+	}
+
+	@Override
+	public String getTableName() {
+		return this.source.getTableName();
+	}
+
+	@Override
+	public int getColumnCount() throws SQLException {
+		return this.source.getColumnCount();
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.order.length;
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return true;
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		if (row < 0 || row >= this.order.length) {
+			this.source.moveTo(-1);
+			return false;
+		}
+		return this.source.moveTo(this.order[row]);
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		return this.source.getCellType(column);
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return this.source.getNumericCellValue(column);
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return this.source.getStringCellValue(column);
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return this.source.getBooleanCellValue(column);
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return this.source.getErrorCellValue(column);
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		return this.source.isCellDateFormatted(column);
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		this.source.deleteRow();
+	}
+
+	@Override
+	public void close() {
+		this.source.close();
+	}
+
+}
@@ -0,0 +1,547 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Recursive descent parser for the SQL understood by the driver:
+ * <pre>
+ * SELECT column [[AS] alias], ... FROM sheet [AS alias]
+ * 		[[INNER|LEFT [OUTER]] JOIN sheet [AS alias] ON column = column [AND column = column ...] ...]
+ * 		[WHERE condition] [GROUP BY column, ...]
+ * 		[ORDER BY column|alias|position [ASC|DESC], ...] [LIMIT count] [OFFSET skipped]
+ * </pre>
+ * A sheet may be prefixed with the name of an attached workbook, as in <code>"other"."Sheet1"</code>,
+ * and followed by a range of its cells, as in <code>Sheet1!B5:H20000</code>, or be the name of a range defined in the workbook.
+ * and columns may be qualified with the alias or name of their sheet, as in <code>s.B</code>.
+ * A column of the select list may be aggregated with <code>COUNT SUM AVG MIN MAX</code>, as in <code>COUNT(*)</code> or <code>SUM(B)</code>.
+ * Conditions compare columns and literals with <code>= &lt;&gt; != &lt; &lt;= &gt; &gt;=</code>,
+ * <code>[NOT] IN (...)</code>, <code>[NOT] BETWEEN ... AND ...</code>, <code>[NOT] LIKE '...'</code>
+ * and <code>IS [NOT] NULL</code>, combined with <code>AND</code>, <code>OR</code>, <code>NOT</code> and parentheses.
+ * Values compared may be <code>?</code> parameters of a prepared statement, numbered from 1 in order of appearance.
+ * Names may be quoted with <code>"</code>, <code>`</code> or <code>[ ]</code>.
+ * Unquoted sheet names may contain spaces, as long as no keyword follows, so only quoted ones may be followed by an alias without <code>AS</code>.
+ */
+/* package-private */ class SqlParser {
+
+	private static final int END = 0;
+	private static final int IDENTIFIER = 1;
+	private static final int QUOTED_IDENTIFIER = 2;
+	private static final int STRING = 3;
+	private static final int NUMBER = 4;
+	private static final int SYMBOL = 5;
+
+	private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+			"SELECT", "FROM", "AS", "WHERE", "GROUP", "ORDER", "BY", "ASC", "DESC", "HAVING", "LIMIT", "OFFSET",
+			"JOIN", "INNER", "LEFT", "OUTER", "ON", "AND", "OR", "NOT", "IN", "BETWEEN", "LIKE", "IS", "NULL", "TRUE", "FALSE"));
+
+	private static final Set<String> AGGREGATE_FUNCTIONS = new HashSet<String>(Arrays.asList("COUNT", "SUM", "AVG", "MIN", "MAX"));
+
+	private static final Set<String> COMPARISON_OPERATORS = new HashSet<String>(Arrays.asList("=", "<>", "!=", "<", "<=", ">", ">="));
+
+	private static class Token {
+		private final int type;
+		private final String text;
+		private final int start;
+		private final int end;
+
+		private Token(int type, String text, int start, int end) {
+			this.type = type;
+			this.text = text;
+			this.start = start;
+			this.end = end;
+		}
+
+		private boolean isKeyword(String keyword) {
+			return this.type == IDENTIFIER && this.text.equalsIgnoreCase(keyword);
+		}
+
+		private boolean isSymbol(String symbol) {
+			return this.type == SYMBOL && this.text.equals(symbol);
+		}
+	}
+
+	private final String sql;
+	private final List<Token> tokens;
+	private int position = 0;
+	private int parameterCount = 0;
+
+	private SqlParser(String sql) throws SQLException {
+		this.sql = sql;
+		this.tokens = tokenize(sql);
+	}
+
+	/* package-private */ static SelectStatement parse(String sql) throws SQLException {
+		if (sql == null) {
+			throw new SQLException(String.format(PoiSSFDriver.PARAMETER_MAY_NOT_BE_NULL, "sql"));
+		}
+		return new SqlParser(sql).parseSelect();
+	}
+
+	/**
+	 * @return the name quoted, so it is parsed as a single name
+	 */
+	/* package-private */ static String quote(String name) {
+		return "\"" + name.replace("\"", "\"\"") + "\"";
+	}
+
+	private static List<Token> tokenize(String sql) throws SQLException {
+		final List<Token> tokens = new ArrayList<Token>();
+		int i = 0;
+		while (i < sql.length()) {
+			final char c = sql.charAt(i);
+			final int start = i;
+
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (Character.isLetter(c) || c == '_' || c == '$') {
+				while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')) {
+					i++;
+				}
+				tokens.add(new Token(IDENTIFIER, sql.substring(start, i), start, i));
+			} else if (Character.isDigit(c) || (c == '.' && i + 1 < sql.length() && Character.isDigit(sql.charAt(i + 1)))) {
+				while (i < sql.length() && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				if (i < sql.length() && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+					i++;
+					if (i < sql.length() && (sql.charAt(i) == '+' || sql.charAt(i) == '-')) {
+						i++;
+					}
+					while (i < sql.length() && Character.isDigit(sql.charAt(i))) {
+						i++;
+					}
+				}
+				tokens.add(new Token(NUMBER, sql.substring(start, i), start, i));
+			} else if (c == '\'' || c == '"' || c == '`' || c == '[') {
+				final char close = c == '[' ? ']' : c;
+				final StringBuilder sb = new StringBuilder();
+				i++;
+				while (true) {
+					if (i >= sql.length()) {
+						throw syntaxError(start, "unterminated " + (c == '\'' ? "string" : "name"));
+					}
+					final char d = sql.charAt(i++);
+					if (d == close) {
+						if (i < sql.length() && sql.charAt(i) == close && close != ']') {
+							// doubled to escape it
+							sb.append(d);
+							i++;
+						} else {
+							break;
+						}
+					} else {
+						sb.append(d);
+					}
+				}
+				tokens.add(new Token(c == '\'' ? STRING : QUOTED_IDENTIFIER, sb.toString(), start, i));
+			} else if (i + 1 < sql.length() && (sql.startsWith("<=", i) || sql.startsWith(">=", i) || sql.startsWith("<>", i) || sql.startsWith("!=", i))) {
+				i += 2;
+				tokens.add(new Token(SYMBOL, sql.substring(start, i), start, i));
+			} else {
+				i++;
+				tokens.add(new Token(SYMBOL, String.valueOf(c), start, i));
+			}
+		}
+		tokens.add(new Token(END, "", sql.length(), sql.length()));
+		return tokens;
+	}
+
+	private static SQLException syntaxError(int position, String message) {
+		return new SQLSyntaxErrorException(String.format(PoiSSFDriver.SQL_SYNTAX_ERROR, position + 1, message));
+	}
+
+	private SQLException syntaxError(String expected) {
+		final Token t = peek();
+		return syntaxError(t.start, expected + " expected" + (t.type != END ? " instead of '" + t.text + "'" : " at the end"));
+	}
+
+	private Token peek() {
+		return this.tokens.get(this.position);
+	}
+
+	private Token next() {
+		final Token t = this.tokens.get(this.position);
+		if (t.type != END) {
+			this.position++;
+		}
+		return t;
+	}
+
+	private boolean acceptKeyword(String keyword) {
+		if (peek().isKeyword(keyword)) {
+			this.position++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expectKeyword(String keyword) throws SQLException {
+		if (!acceptKeyword(keyword)) {
+			throw syntaxError(keyword);
+		}
+	}
+
+	private boolean acceptSymbol(String symbol) {
+		if (peek().isSymbol(symbol)) {
+			this.position++;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean isName(Token t) {
+		return t.type == QUOTED_IDENTIFIER || (t.type == IDENTIFIER && !KEYWORDS.contains(t.text.toUpperCase()));
+	}
+
+	private SelectStatement parseSelect() throws SQLException {
+		expectKeyword("SELECT");
+
+		final SelectStatement statement = new SelectStatement();
+		do {
+			statement.addColumn(parseColumn());
+		} while (acceptSymbol(","));
+
+		expectKeyword("FROM");
+		statement.setTable(parseTable());
+
+		while (true) {
+			final boolean outer;
+			if (acceptKeyword("LEFT")) {
+				acceptKeyword("OUTER");
+				expectKeyword("JOIN");
+				outer = true;
+			} else if (acceptKeyword("INNER")) {
+				expectKeyword("JOIN");
+				outer = false;
+			} else if (acceptKeyword("JOIN")) {
+				outer = false;
+			} else {
+				break;
+			}
+
+			final SelectStatement.Join join = new SelectStatement.Join(parseTable(), outer);
+			expectKeyword("ON");
+			do {
+				final SelectStatement.Column left = newColumn(parseColumnName(), null, null);
+				if (!acceptSymbol("=")) {
+					throw syntaxError("'='");
+				}
+				join.addKeys(left, newColumn(parseColumnName(), null, null));
+			} while (acceptKeyword("AND"));
+			statement.addJoin(join);
+		}
+
+		if (acceptKeyword("WHERE")) {
+			statement.setWhere(parseCondition());
+		}
+
+		if (acceptKeyword("GROUP")) {
+			expectKeyword("BY");
+			do {
+				statement.addGroupBy(newColumn(parseColumnName(), null, null));
+			} while (acceptSymbol(","));
+		}
+
+		if (acceptKeyword("ORDER")) {
+			expectKeyword("BY");
+			do {
+				statement.addOrderBy(parseSortKey());
+			} while (acceptSymbol(","));
+		}
+
+		if (acceptKeyword("LIMIT")) {
+			statement.setLimit(parseRowCount());
+		}
+		if (acceptKeyword("OFFSET")) {
+			statement.setOffset(parseRowCount());
+		}
+
+		if (peek().type != END) {
+			throw syntaxError("End of statement");
+		}
+		statement.setParameterCount(this.parameterCount);
+		return statement;
+	}
+
+	private SelectStatement.Column parseColumn() throws SQLException {
+		if (acceptSymbol("*")) {
+			return new SelectStatement.Column(null, false, null);
+		}
+		return parseColumnExpression(true);
+	}
+
+	private SelectStatement.SortKey parseSortKey() throws SQLException {
+		final SelectStatement.SortKey key;
+		if (peek().type == NUMBER) {
+			final int position = parseRowCount();
+			if (position == 0) {
+				this.position--;
+				throw syntaxError("Position of a column");
+			}
+			key = new SelectStatement.SortKey(null, position);
+		} else {
+			key = new SelectStatement.SortKey(parseColumnExpression(false), 0);
+		}
+
+		if (acceptKeyword("DESC")) {
+			key.setDescending(true);
+		} else {
+			acceptKeyword("ASC");
+		}
+		return key;
+	}
+
+	private SelectStatement.Column parseColumnExpression(boolean withAlias) throws SQLException {
+		String function = null;
+		Token[] name;
+		if (peek().type == IDENTIFIER && AGGREGATE_FUNCTIONS.contains(peek().text.toUpperCase()) && this.tokens.get(this.position + 1).isSymbol("(")) {
+			function = next().text.toUpperCase();
+			next();
+			if (function.equals("COUNT") && acceptSymbol("*")) {
+				name = null;
+			} else {
+				name = parseColumnName();
+			}
+			if (!acceptSymbol(")")) {
+				throw syntaxError("')'");
+			}
+		} else {
+			name = parseColumnName();
+		}
+
+		String alias = null;
+		if (withAlias && acceptKeyword("AS")) {
+			if (!isName(peek())) {
+				throw syntaxError("Alias");
+			}
+			alias = next().text;
+		} else if (withAlias && isName(peek())) {
+			alias = next().text;
+		}
+		if (name == null) {
+			return new SelectStatement.Column(null, false, alias, function, null);
+		}
+		return newColumn(name, alias, function);
+	}
+
+	/**
+	 * @return the sheet and the name of the column, the sheet <code>null</code> if not qualified
+	 */
+	private Token[] parseColumnName() throws SQLException {
+		if (!isName(peek())) {
+			throw syntaxError("Column");
+		}
+		final Token first = next();
+		if (acceptSymbol(".")) {
+			if (!isName(peek())) {
+				throw syntaxError("Column");
+			}
+			return new Token[] {first, next()};
+		}
+		return new Token[] {null, first};
+	}
+
+	private static SelectStatement.Column newColumn(Token[] name, String alias, String function) {
+		return new SelectStatement.Column(name[1].text, name[1].type == QUOTED_IDENTIFIER, alias, function, name[0] != null ? name[0].text : null);
+	}
+
+	private Condition parseCondition() throws SQLException {
+		Condition condition = parseAnd();
+		while (acceptKeyword("OR")) {
+			condition = new Condition.Or(condition, parseAnd());
+		}
+		return condition;
+	}
+
+	private Condition parseAnd() throws SQLException {
+		Condition condition = parseNot();
+		while (acceptKeyword("AND")) {
+			condition = new Condition.And(condition, parseNot());
+		}
+		return condition;
+	}
+
+	private Condition parseNot() throws SQLException {
+		if (acceptKeyword("NOT")) {
+			return new Condition.Not(parseNot());
+		}
+		if (acceptSymbol("(")) {
+			final Condition condition = parseCondition();
+			if (!acceptSymbol(")")) {
+				throw syntaxError("')'");
+			}
+			return condition;
+		}
+		return parsePredicate();
+	}
+
+	private Condition parsePredicate() throws SQLException {
+		final Operand value = parseOperand();
+
+		if (acceptKeyword("IS")) {
+			final boolean negated = acceptKeyword("NOT");
+			expectKeyword("NULL");
+			return new Condition.IsNull(value, negated);
+		}
+
+		final boolean negated = acceptKeyword("NOT");
+		if (acceptKeyword("IN")) {
+			if (!acceptSymbol("(")) {
+				throw syntaxError("'('");
+			}
+			final List<Operand> list = new ArrayList<Operand>();
+			do {
+				list.add(parseOperand());
+			} while (acceptSymbol(","));
+			if (!acceptSymbol(")")) {
+				throw syntaxError("')'");
+			}
+			return new Condition.In(value, list.toArray(new Operand[list.size()]), negated);
+		} else if (acceptKeyword("BETWEEN")) {
+			final Operand low = parseOperand();
+			expectKeyword("AND");
+			return new Condition.Between(value, low, parseOperand(), negated);
+		} else if (acceptKeyword("LIKE")) {
+			if (peek().type != STRING && !peek().isSymbol("?")) {
+				throw syntaxError("Pattern");
+			}
+			return new Condition.Like(value, parseOperand(), negated);
+		} else if (negated) {
+			throw syntaxError("IN, BETWEEN or LIKE");
+		}
+
+		final Token operator = peek();
+		if (operator.type == SYMBOL && COMPARISON_OPERATORS.contains(operator.text)) {
+			next();
+			return new Condition.Comparison(value, operator.text, parseOperand());
+		}
+		throw syntaxError("Comparison");
+	}
+
+	private Operand parseOperand() throws SQLException {
+		if (peek().type == END) {
+			throw syntaxError("Column or value");
+		}
+		final Token t = next();
+		if (t.type == STRING) {
+			return Operand.Literal.ofString(t.text);
+		} else if (t.type == NUMBER) {
+			return Operand.Literal.ofNumber(parseNumber(t));
+		} else if (t.isSymbol("-") && peek().type == NUMBER) {
+			return Operand.Literal.ofNumber(-parseNumber(next()));
+		} else if (t.isKeyword("TRUE") || t.isKeyword("FALSE")) {
+			return Operand.Literal.ofBoolean(t.isKeyword("TRUE"));
+		} else if (t.isKeyword("NULL")) {
+			return Operand.Literal.ofNull();
+		} else if (t.isSymbol("?")) {
+			return new Operand.Parameter(++this.parameterCount);
+		} else if (isName(t)) {
+			this.position--;
+			return new Operand.ColumnValue(newColumn(parseColumnName(), null, null));
+		}
+		this.position--;
+		throw syntaxError("Column or value");
+	}
+
+	private int parseRowCount() throws SQLException {
+		final Token t = peek();
+		if (t.type != NUMBER || !t.text.matches("\\d{1,9}")) {
+			throw syntaxError("Number of rows");
+		}
+		return Integer.parseInt(next().text);
+	}
+
+	private static double parseNumber(Token t) throws SQLException {
+		try {
+			return Double.parseDouble(t.text);
+		} catch (NumberFormatException e) {
+			throw syntaxError(t.start, "invalid number '" + t.text + "'");
+		}
+	}
+
+	private SelectStatement.Table parseTable() throws SQLException {
+		String workbook = null;
+		String name;
+		final boolean quoted = peek().type == QUOTED_IDENTIFIER;
+		if (quoted) {
+			name = next().text;
+			if (acceptSymbol(".")) {
+				if (peek().type != QUOTED_IDENTIFIER) {
+					throw syntaxError("Quoted sheet");
+				}
+				workbook = name;
+				name = next().text;
+			}
+		} else {
+			name = parseTableName();
+		}
+
+		SheetRange range = null;
+		if (quoted && peek().isSymbol("!")) {
+			final Token separator = next();
+			final String cells = parseTableName();
+			range = parseRange(cells);
+			if (range == null) {
+				throw syntaxError(separator.end, "invalid range '" + cells + "'");
+			}
+		} else if (!quoted && name.indexOf('!') > 0) {
+			// otherwise the ! is part of the sheet name
+			final int separator = name.lastIndexOf('!');
+			range = parseRange(name.substring(separator + 1));
+			if (range != null) {
+				name = name.substring(0, separator).trim();
+			}
+		}
+		// an unquoted range ends at the next keyword like an unquoted name
+		return parseTableAlias(workbook, name, range, quoted && range == null);
+	}
+
+	/**
+	 * @return <code>null</code> if the cells aren't a rectangle without sheet
+	 */
+	private static SheetRange parseRange(String cells) {
+		final SheetRange range = SheetRange.parse(cells.replace(" ", ""));
+		return range != null && range.getSheetName() == null ? range : null;
+	}
+
+	/**
+	 * @param bareAlias <code>false</code> if the alias must follow <code>AS</code>, because the name is unquoted
+	 */
+	private SelectStatement.Table parseTableAlias(String workbook, String name, SheetRange range, boolean bareAlias) throws SQLException {
+		String alias = null;
+		if (acceptKeyword("AS")) {
+			if (!isName(peek())) {
+				throw syntaxError("Alias");
+			}
+			alias = next().text;
+		} else if (bareAlias && isName(peek())) {
+			alias = next().text;
+		}
+		return new SelectStatement.Table(workbook, name, range, alias);
+	}
+
+	private String parseTableName() throws SQLException {
+		final Token first = peek();
+
+		// the words of an unquoted name up to the next keyword, as written
+		Token last = null;
+		while (peek().type != END && !isKeyword(peek()) && !peek().isSymbol(",")) {
+			last = next();
+		}
+		if (last == null) {
+			throw syntaxError("Sheet");
+		}
+		return this.sql.substring(first.start, last.end);
+	}
+
+	private boolean isKeyword(Token t) {
+		return t.type == IDENTIFIER && KEYWORDS.contains(t.text.toUpperCase());
+	}
+
+}
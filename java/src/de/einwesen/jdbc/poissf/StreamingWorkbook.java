@@ -0,0 +1,38 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Workbook file opened for streaming, without building the POI usermodel.
+ */
+/* package-private */ interface StreamingWorkbook {
+
+	/**
+	 * @param columns the columns to read, the cells of all others are reported blank; <code>null</code> for all columns
+	 */
+	SheetCursor openSheetCursor(String sheetName, BitSet columns) throws SQLException;
+
+	List<String> getSheetNames() throws SQLException;
+
+	/**
+	 * @return ranges by the lower case names defined for the whole workbook and of its Excel tables, read with the sheet list
+	 */
+	Map<String, SheetRange> getDefinedNames();
+
+	/**
+	 * @return <code>true</code> if cursors on several sheets may be read by different threads at the same time
+	 */
+	boolean supportsConcurrentCursors();
+
+	/**
+	 * @param withSharedStrings whether the version should also change with the strings shared between the sheets
+	 * @return a value that changes whenever the content of the sheet changes, <code>null</code> if that can't be told
+	 */
+	String getSheetVersion(String sheetName, boolean withSharedStrings);
+
+	void close();
+
+}
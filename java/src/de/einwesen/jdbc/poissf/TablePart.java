@@ -0,0 +1,179 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.JDBCType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDxf;
+
+/**
+ * Reads the Excel tables of a sheet from their parts, without touching the cells of the sheet.
+ *
+ * A table becomes a {@link SheetRange} of the rows between its header row and its totals row, with the names of its columns.
+ * The type of a column is declared by its XML mapping or by the number format given to its data, if any.
+ */
+/* package-private */ class TablePart {
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	private TablePart() {
+	}
+
+	/**
+	 * Adds the tables of all sheets of the workbook to the names, tables whose parts can't be read are left out.
+	 */
+	/* package-private */ static void readTables(XSSFWorkbook workbook, Map<String, SheetRange> names) {
+		for (int i=0; i < workbook.getNumberOfSheets(); i++) {
+			final XSSFSheet sheet = workbook.getSheetAt(i);
+			try {
+				readTables(sheet.getPackagePart(), sheet.getSheetName(), workbook.getStylesSource(), names);
+			} catch (Exception e) {
+				// queried as a sheet or a range then
+			}
+		}
+	}
+
+	/**
+	 * Adds the tables related to the part of a sheet to the names, by their lower case names.
+	 *
+	 * @param styles of the workbook, for the number formats of the columns, <code>null</code> to leave them out
+	 */
+	/* package-private */ static void readTables(PackagePart sheetPart, String sheetName, StylesTable styles, Map<String, SheetRange> names)
+			throws InvalidFormatException, IOException, XMLStreamException {
+		for (PackageRelationship relationship : sheetPart.getRelationshipsByType(XSSFRelation.TABLE.getRelation())) {
+			final InputStream is = sheetPart.getRelatedPart(relationship).getInputStream();
+			try {
+				read(is, sheetName, styles, names);
+			} finally {
+				is.close();
+			}
+		}
+	}
+
+	private static void read(InputStream is, String sheetName, StylesTable styles, Map<String, SheetRange> names) throws XMLStreamException {
+		String name = null;
+		SheetRange ref = null;
+		int headerRows = 1;
+		int totalsRows = 0;
+		final List<String> columnNames = new ArrayList<String>();
+		final List<JDBCType> columnTypes = new ArrayList<JDBCType>();
+
+		final XMLStreamReader xml = XML_INPUT_FACTORY.createXMLStreamReader(is);
+		try {
+			while (xml.hasNext()) {
+				if (xml.next() != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				if ("table".equals(xml.getLocalName())) {
+					// formulas refer to the display name
+					name = xml.getAttributeValue(null, "displayName");
+					if (name == null) {
+						name = xml.getAttributeValue(null, "name");
+					}
+					final String reference = xml.getAttributeValue(null, "ref");
+					ref = reference != null ? SheetRange.parse(reference) : null;
+					headerRows = getCount(xml.getAttributeValue(null, "headerRowCount"), 1);
+					totalsRows = getCount(xml.getAttributeValue(null, "totalsRowCount"), 0);
+				} else if ("tableColumn".equals(xml.getLocalName())) {
+					columnNames.add(xml.getAttributeValue(null, "name"));
+					columnTypes.add(getFormatType(styles, xml.getAttributeValue(null, "dataDxfId")));
+				} else if ("xmlColumnPr".equals(xml.getLocalName()) && !columnTypes.isEmpty()) {
+					final JDBCType type = getXmlType(xml.getAttributeValue(null, "xmlDataType"));
+					if (type != null) {
+						columnTypes.set(columnTypes.size() - 1, type);
+					}
+				}
+			}
+		} finally {
+			xml.close();
+		}
+
+		if (name == null || ref == null || ref.getSheetName() != null || ref.getRowLimit() < 0 || columnNames.contains(null)
+				|| ref.getColumnCount(0) != columnNames.size()) {
+			return;
+		}
+		final int firstRow = ref.getFirstRow() + headerRows;
+		final int lastRow = ref.getFirstRow() + ref.getRowLimit() - 1 - totalsRows;
+		if (lastRow < firstRow) {
+			return;
+		}
+		names.put(name.toLowerCase(), new SheetRange(sheetName, firstRow, lastRow, ref.getFirstColumn(), ref.getFirstColumn() + columnNames.size() - 1,
+				columnNames.toArray(new String[columnNames.size()]), columnTypes.toArray(new JDBCType[columnTypes.size()])));
+	}
+
+	private static int getCount(String value, int defaultValue) {
+		try {
+			return value != null ? Math.max(0, Integer.parseInt(value)) : defaultValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @return the type of the number format given to the data of a column, <code>null</code> for none or the general format
+	 */
+	private static JDBCType getFormatType(StylesTable styles, String dxfId) {
+		if (styles == null || dxfId == null) {
+			return null;
+		}
+		try {
+			final CTDxf dxf = styles.getDxfAt(Integer.parseInt(dxfId));
+			if (!dxf.isSetNumFmt()) {
+				return null;
+			}
+			final int formatId = (int)dxf.getNumFmt().getNumFmtId();
+			String format = dxf.getNumFmt().getFormatCode();
+			if (format == null) {
+				format = BuiltinFormats.getBuiltinFormat(formatId);
+			}
+			if (format == null || "General".equalsIgnoreCase(format)) {
+				return null;
+			} else if ("@".equals(format)) {
+				return JDBCType.VARCHAR;
+			} else {
+				return DateUtil.isADateFormat(formatId, format) ? JDBCType.TIMESTAMP : JDBCType.NUMERIC;
+			}
+		} catch (RuntimeException e) {
+			// no such format
+			return null;
+		}
+	}
+
+	/**
+	 * @return the type of the values of a column mapped to XML, <code>null</code> if not known
+	 */
+	private static JDBCType getXmlType(String xmlDataType) {
+		if (xmlDataType == null) {
+			return null;
+		}
+		if ("string".equals(xmlDataType) || "normalizedString".equals(xmlDataType) || "token".equals(xmlDataType)) {
+			return JDBCType.VARCHAR;
+		} else if ("boolean".equals(xmlDataType)) {
+			return JDBCType.BOOLEAN;
+		} else if ("date".equals(xmlDataType) || "dateTime".equals(xmlDataType) || "time".equals(xmlDataType)) {
+			return JDBCType.TIMESTAMP;
+		} else if ("decimal".equals(xmlDataType) || "double".equals(xmlDataType) || "float".equals(xmlDataType)
+				|| xmlDataType.toLowerCase().endsWith("integer") || "int".equals(xmlDataType) || "long".equals(xmlDataType) || "short".equals(xmlDataType)) {
+			return JDBCType.NUMERIC;
+		}
+		return null;
+	}
+
+}
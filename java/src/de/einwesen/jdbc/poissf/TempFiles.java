@@ -0,0 +1,39 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Deletes the temporary files of the driver as soon as they aren't needed anymore, as a long running process
+ * would keep an entry for each file registered by {@link File#deleteOnExit()}.
+ * A file which can't be deleted yet, e.g. while it is still memory mapped on Windows, is tried again
+ * whenever another file is deleted.
+ */
+/* package-private */ class TempFiles {
+
+	private static final List<File> UNDELETED = new ArrayList<File>();
+
+	private TempFiles() {
+	}
+
+	/* package-private */ static void delete(File file) {
+		synchronized (UNDELETED) {
+			final Iterator<File> it = UNDELETED.iterator();
+			while (it.hasNext()) {
+				if (tryDelete(it.next())) {
+					it.remove();
+				}
+			}
+			if (!tryDelete(file)) {
+				UNDELETED.add(file);
+			}
+		}
+	}
+
+	private static boolean tryDelete(File file) {
+		return file.delete() || !file.exists();
+	}
+
+}
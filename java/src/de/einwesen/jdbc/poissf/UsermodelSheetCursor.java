@@ -0,0 +1,209 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.apache.poi.hssf.usermodel.HSSFDateUtil;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+
+/**
+ * {@link SheetCursor} on a sheet of a completely loaded POI workbook.
+ */
+/* package-private */ class UsermodelSheetCursor implements SheetCursor {
+
+	private Sheet sheet = null;
+	private FormulaEvaluator evaluator = null;
+	private Row currentRow = null;
+	private CellValue[] formulaResults = new CellValue[0];
+
+	private int rowCount = 0;
+	private int columnCount = -1;
+
+	/* package-private */ UsermodelSheetCursor(Sheet sheet) {
+		this.sheet = sheet;
+		this.evaluator = sheet.getWorkbook().getCreationHelper().createFormulaEvaluator();
+
+		// Owing to idiosyncrasies in the excel file format, if the result of calling this method is zero, you can't tell if that means there are zero rows on the sheet, or one at position zero. For that case, additionally call getPhysicalNumberOfRows() to tell if there is a row at position zero or not.
+		this.rowCount = sheet.getLastRowNum() + 1;
+		if (this.rowCount == 1) {
+			if (this.sheet.getPhysicalNumberOfRows() == 0) {
+				this.rowCount = 0;
+			}
+		}
+	}
+
+	/* package-private */ Sheet getSheet() {
+		return this.sheet;
+	}
+
+	@Override
+	public String getTableName() {
+		return this.sheet.getSheetName();
+	}
+
+	@Override
+	public int getColumnCount() throws SQLException {
+		if (this.columnCount == -1) {
+			if (this.sheet instanceof XSSFSheet) {
+				final String[] sheetDimensions = ((XSSFSheet)this.sheet).getCTWorksheet().getDimension().getRef().split(":");
+				final String rightColName = sheetDimensions[sheetDimensions.length - 1].replaceAll("\\d", "");
+				this.columnCount = CellReference.convertColStringToIndex(rightColName) + 1;
+			} else if (this.sheet instanceof HSSFSheet) {
+				this.columnCount = getNumberOfColumns((HSSFSheet)this.sheet);
+				if (this.columnCount == 0) {
+					throw new SQLException("Can't figure out number of columns");
+				}
+			} else {
+				throw new SQLException("Can't figure out number of columns");
+			}
+		}
+		return this.columnCount;
+	}
+
+	private int getNumberOfColumns(HSSFSheet sheet) {
+
+		// getting number of cols, damn inefficient...
+		short columnCount = 0;
+		for (int r=0; r < this.rowCount; r++) {
+			final Row row = sheet.getRow(r);
+			if (row != null) {
+				short cellCount = row.getLastCellNum();
+
+				if (cellCount > columnCount) {
+					columnCount = cellCount;
+				}
+			}
+		}
+
+		return columnCount;
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.rowCount;
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return true;
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		Arrays.fill(this.formulaResults, null);
+		
+		if (row >= 0 && row < this.rowCount) {
+			this.currentRow = this.sheet.getRow(row);
+			return true;
+		} else {
+			this.currentRow = null;
+			return false;
+		}
+	}
+
+	private Cell getCell(int column) {
+		return this.currentRow != null ? this.currentRow.getCell(column) : null;
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		final Cell cell = getCell(column);
+		if (cell == null) {
+			return Cell.CELL_TYPE_BLANK;
+		}
+
+		if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) {
+			return getFormulaResult(column, cell).getCellType();
+		} else {
+			return cell.getCellType();
+		}
+	}
+
+	/**
+	 * Evaluates without writing the result into the cell, as the workbook may be shared by several connections.
+	 */
+	private CellValue getFormulaResult(int column, Cell cell) {
+		if (column >= this.formulaResults.length) {
+			this.formulaResults = Arrays.copyOf(this.formulaResults, column + 1);
+		}
+		
+		if (this.formulaResults[column] == null) {
+			this.formulaResults[column] = this.evaluator.evaluate(cell);
+		}
+		return this.formulaResults[column];
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		final Cell cell = getCell(column);
+		if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) {
+			return getFormulaResult(column, cell).getNumberValue();
+		} else {
+			return cell.getNumericCellValue();
+		}
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		final Cell cell = getCell(column);
+		if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) {
+			return getFormulaResult(column, cell).getStringValue();
+		} else {
+			return cell.getStringCellValue();
+		}
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		final Cell cell = getCell(column);
+		if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) {
+			return getFormulaResult(column, cell).getBooleanValue();
+		} else {
+			return cell.getBooleanCellValue();
+		}
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		final Cell cell = getCell(column);
+		if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) {
+			return getFormulaResult(column, cell).getErrorValue();
+		} else {
+			return cell.getErrorCellValue();
+		}
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		final Cell cell = getCell(column);
+		if (cell.getCellType() == Cell.CELL_TYPE_FORMULA) {
+			final CellValue result = getFormulaResult(column, cell);
+			return DateUtil.isValidExcelDate(result.getNumberValue()) 
+					&& DateUtil.isADateFormat(cell.getCellStyle().getDataFormat(), cell.getCellStyle().getDataFormatString());
+		} else {
+			return HSSFDateUtil.isCellDateFormatted(cell);
+		}
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		if (this.currentRow != null) {
+			this.sheet.removeRow(this.currentRow);
+			this.currentRow = null;
+		}
+	}
+
+	@Override
+	public void close() {
+		this.currentRow = null;
+	}
+
+}
@@ -0,0 +1,188 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.poi.ss.usermodel.Workbook;
+
+/**
+ * Process wide cache of parsed workbooks, shared by all read only connections on an unchanged file.
+ *
+ * The heap used by a workbook can't be measured, so it is estimated from the file size.
+ * Least recently used entries are evicted as soon as the estimates exceed the budget.
+ *
+ * The cache owns its workbooks, which may be read in place from their files. Each connection given a workbook
+ * by {@link #get(File, Callable)} hands it back by {@link #release(Workbook)}, and a workbook dropped from the cache
+ * is closed once the last connection has released it.
+ */
+/* package-private */ class WorkbookCache {
+
+	private static final long ESTIMATED_HEAP_FACTOR = 10;
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	/** entries by their loaded workbooks, including those dropped but still in use */
+	private final Map<Workbook, Entry> workbooks = new IdentityHashMap<Workbook, Entry>();
+	private final long maxBytes;
+	private long usedBytes = 0;
+
+	/* package-private */ WorkbookCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return the cached workbook of the file, or the one created by the loader if there is none,
+	 * 		to be handed back by {@link #release(Workbook)}
+	 */
+	/* package-private */ Workbook get(File file, Callable<Workbook> loader) throws Exception {
+		final Key key = new Key(file);
+		final long estimatedBytes = key.length * ESTIMATED_HEAP_FACTOR;
+
+		if (estimatedBytes > this.maxBytes) {
+			// not cached, so it is closed when released
+			return loader.call();
+		}
+
+		Entry entry = null;
+		synchronized (this) {
+			entry = this.entries.get(key);
+			if (entry == null) {
+				removeOutdated(key);
+				entry = new Entry(estimatedBytes);
+				this.entries.put(key, entry);
+				this.usedBytes += estimatedBytes;
+			}
+			// counted before loading, so the workbook isn't closed if the entry is dropped meanwhile
+			entry.users++;
+			evict();
+		}
+
+		// loading outside of the cache lock, so other files are not blocked
+		synchronized (entry) {
+			if (entry.workbook == null) {
+				final Workbook workbook;
+				try {
+					workbook = loader.call();
+				} catch (Exception e) {
+					failed(key, entry);
+					throw e;
+				}
+				synchronized (this) {
+					entry.workbook = workbook;
+					this.workbooks.put(workbook, entry);
+				}
+			}
+			return entry.workbook;
+		}
+	}
+
+	/**
+	 * Hands back a workbook returned by {@link #get(File, Callable)}. It is closed unless it is still cached or used by another connection.
+	 */
+	/* package-private */ void release(Workbook workbook) {
+		synchronized (this) {
+			final Entry entry = this.workbooks.get(workbook);
+			if (entry != null) {
+				entry.users--;
+				if (entry.users > 0 || !entry.dropped) {
+					return;
+				}
+				this.workbooks.remove(workbook);
+			}
+		}
+		PoiSSFConnection.releaseWorkbook(workbook);
+	}
+
+	/* package-private */ synchronized void invalidate(File file) throws IOException {
+		removeOutdated(new Key(file.getCanonicalPath(), -1, -1));
+	}
+
+	private void removeOutdated(Key key) {
+		final Iterator<Map.Entry<Key, Entry>> it = this.entries.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<Key, Entry> e = it.next();
+			if (e.getKey().path.equals(key.path)) {
+				it.remove();
+				drop(e.getValue());
+			}
+		}
+	}
+
+	private void evict() {
+		final Iterator<Entry> it = this.entries.values().iterator();
+		while (this.usedBytes > this.maxBytes && it.hasNext()) {
+			final Entry entry = it.next();
+			it.remove();
+			drop(entry);
+		}
+	}
+
+	/**
+	 * Takes an entry removed from the cache out of the budget, and closes its workbook if no connection uses it.
+	 */
+	private void drop(Entry entry) {
+		this.usedBytes -= entry.estimatedBytes;
+		entry.dropped = true;
+		if (entry.users == 0 && entry.workbook != null) {
+			this.workbooks.remove(entry.workbook);
+			PoiSSFConnection.releaseWorkbook(entry.workbook);
+		}
+	}
+
+	private synchronized void failed(Key key, Entry entry) {
+		entry.users--;
+		if (this.entries.get(key) == entry) {
+			this.entries.remove(key);
+			drop(entry);
+		}
+	}
+
+	private static class Entry {
+		private final long estimatedBytes;
+		private Workbook workbook = null;
+		/** connections the workbook has been given to and not released yet */
+		private int users = 0;
+		/** removed from the cache, to be closed by the last user */
+		private boolean dropped = false;
+
+		private Entry(long estimatedBytes) {
+			this.estimatedBytes = estimatedBytes;
+		}
+	}
+
+	private static class Key {
+		private final String path;
+		private final long length;
+		private final long lastModified;
+
+		private Key(File file) throws IOException {
+			this(file.getCanonicalPath(), file.length(), file.lastModified());
+		}
+
+		private Key(String path, long length, long lastModified) {
+			this.path = path;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.path.hashCode() * 31 + (int)(this.length ^ this.lastModified);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				final Key other = (Key)obj;
+				return this.path.equals(other.path) && this.length == other.length && this.lastModified == other.lastModified;
+			} else {
+				return false;
+			}
+		}
+	}
+
+}
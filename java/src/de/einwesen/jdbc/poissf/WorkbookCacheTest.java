@@ -0,0 +1,96 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.ZipPackage;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Checks that workbooks dropped from the {@link WorkbookCache} have their packages closed once released, run by its main method.
+ */
+public class WorkbookCacheTest {
+
+	public static void main(String[] args) throws Exception {
+		final File a = createWorkbook("first");
+		final File b = createWorkbook("second");
+		try {
+			// room for one of the files
+			final WorkbookCache cache = new WorkbookCache(Math.max(a.length(), b.length()) * 10 + 1);
+
+			final Workbook first = cache.get(a, loader(a));
+			cache.release(first);
+			check(isOpen(first), "cached workbook kept open after release");
+			check(cache.get(a, loader(a)) == first, "cached workbook shared");
+			cache.release(first);
+
+			final Workbook second = cache.get(b, loader(b));
+			check(!isOpen(first), "evicted workbook closed");
+			check(isOpen(second), "new workbook open");
+
+			final Workbook third = cache.get(a, loader(a));
+			check(third != first, "evicted workbook loaded again");
+			check(isOpen(second), "evicted workbook kept open while in use");
+			cache.release(second);
+			check(!isOpen(second), "evicted workbook closed by its last user");
+
+			cache.release(third);
+			cache.invalidate(a);
+			check(!isOpen(third), "invalidated workbook closed");
+
+			System.out.println("OK");
+		} finally {
+			a.delete();
+			b.delete();
+		}
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+
+	private static File createWorkbook(String name) throws IOException {
+		final File file = File.createTempFile(name, ".xlsx");
+		final XSSFWorkbook wb = new XSSFWorkbook();
+		wb.createSheet("Data").createRow(0).createCell(0).setCellValue(name);
+		final FileOutputStream fos = new FileOutputStream(file);
+		try {
+			wb.write(fos);
+		} finally {
+			fos.close();
+		}
+		return file;
+	}
+
+	/**
+	 * @return loader reading the file in place, as read only connections do
+	 */
+	private static Callable<Workbook> loader(final File file) {
+		return new Callable<Workbook>() {
+			@Override
+			public Workbook call() throws Exception {
+				return new XSSFWorkbook(OPCPackage.open(file.getPath(), PackageAccess.READ));
+			}
+		};
+	}
+
+	/**
+	 * @return <code>false</code> once the zip file of the package has been closed
+	 */
+	private static boolean isOpen(Workbook workbook) {
+		try {
+			((ZipPackage)((XSSFWorkbook)workbook).getPackage()).getZipArchive().getEntries();
+			return true;
+		} catch (IllegalStateException e) {
+			return false;
+		}
+	}
+
+}
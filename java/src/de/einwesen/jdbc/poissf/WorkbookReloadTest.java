@@ -0,0 +1,126 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+/**
+ * Checks the reload of a watched workbook with a single worker thread, run by its main method:
+ * reading all sheets in parallel must not wait for pipelines on the same pool, and result sets
+ * opened before several reloads must still read the workbook they were opened on.
+ */
+public class WorkbookReloadTest {
+
+	private static final int ROWS = 2000;
+	private static final long RELOAD_TIMEOUT = 20000;
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty(PoiSSFDriver.SYSTEM_PROPERTY_THREADS, "1");
+		Class.forName(PoiSSFDriver.class.getName());
+
+		final File file = File.createTempFile("reload", ".xlsx");
+		try {
+			write(file, 0);
+			final Properties parallel = new Properties();
+			parallel.setProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_WATCH, "true");
+			parallel.setProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_PARALLEL, "true");
+			parallel.setProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_PIPELINED, "true");
+			Connection con = DriverManager.getConnection("jdbc:poissf:file://" + file.getAbsolutePath(), parallel);
+			try {
+				write(file, 1);
+				check(awaitGeneration(con, 1), "parallel reload done");
+			} finally {
+				con.close();
+			}
+
+			write(file, 2);
+			final Properties streaming = new Properties();
+			streaming.setProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_WATCH, "true");
+			streaming.setProperty(PoiSSFDriver.CONNECTION_PROPERTY_READ_STREAMING, "true");
+			con = DriverManager.getConnection("jdbc:poissf:file://" + file.getAbsolutePath(), streaming);
+			try {
+				final ResultSet rs = con.createStatement().executeQuery("SELECT * FROM Data");
+				check(rs.next() && value(2, 0).equals(rs.getString(1)), "first row before the reloads");
+
+				write(file, 3);
+				check(awaitGeneration(con, 3), "first reload done");
+				write(file, 4);
+				check(awaitGeneration(con, 4), "second reload done");
+
+				int row = 1;
+				while (rs.next()) {
+					check(value(2, row).equals(rs.getString(1)), "row read after the reloads");
+					row++;
+				}
+				check(row == ROWS, "all rows read after the reloads");
+				rs.close();
+			} finally {
+				con.close();
+			}
+
+			System.out.println("OK");
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static boolean awaitGeneration(Connection con, int generation) throws SQLException, InterruptedException {
+		final long end = System.currentTimeMillis() + RELOAD_TIMEOUT;
+		while (System.currentTimeMillis() < end) {
+			final ResultSet rs = con.createStatement().executeQuery("SELECT * FROM Data");
+			try {
+				if (rs.next() && value(generation, 0).equals(rs.getString(1))) {
+					return true;
+				}
+			} finally {
+				rs.close();
+			}
+			Thread.sleep(100);
+		}
+		return false;
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+
+	private static String value(int generation, int row) {
+		return "v" + generation + "-" + row;
+	}
+
+	/**
+	 * Replaces the file at once, so cursors still reading the previous one aren't disturbed.
+	 */
+	private static void write(File file, int generation) throws IOException {
+		final XSSFWorkbook wb = new XSSFWorkbook();
+		final XSSFSheet data = wb.createSheet("Data");
+		for (int i=0; i < ROWS; i++) {
+			data.createRow(i).createCell(0).setCellValue(value(generation, i));
+		}
+		// not updated by POI, and read for the number of columns
+		data.getCTWorksheet().getDimension().setRef("A1:A" + ROWS);
+		wb.createSheet("Other").createRow(0).createCell(0).setCellValue(generation);
+
+		final File written = new File(file.getPath() + ".tmp");
+		final FileOutputStream fos = new FileOutputStream(written);
+		try {
+			wb.write(fos);
+		} finally {
+			fos.close();
+		}
+		Files.move(written.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+}
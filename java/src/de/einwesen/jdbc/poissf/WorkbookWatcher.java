@@ -0,0 +1,177 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the directories of the workbooks in use and tells the registered listeners when a workbook file has changed.
+ *
+ * Files are usually written in several steps, so listeners are called only after a file hasn't changed for a moment.
+ * They are called on the thread of the watcher, one after the other.
+ */
+/* package-private */ class WorkbookWatcher implements Runnable {
+
+	/* package-private */ interface Listener {
+		void workbookChanged(File file);
+	}
+
+	private static final long QUIET_MILLIS = 1000;
+
+	private WatchService service = null;
+	private final Map<Path, WatchKey> directories = new HashMap<Path, WatchKey>();
+	private final Map<Path, List<Listener>> listeners = new HashMap<Path, List<Listener>>();
+
+	/** changed files and when to notify their listeners, only used by the watcher thread */
+	private final Map<Path, Long> pending = new HashMap<Path, Long>();
+
+	/* package-private */ synchronized void register(File file, Listener listener) throws IOException {
+		final Path path = file.getCanonicalFile().toPath();
+		final Path dir = path.getParent();
+
+		if (this.service == null) {
+			this.service = FileSystems.getDefault().newWatchService();
+			final Thread thread = new Thread(this, "poissf-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		if (!this.directories.containsKey(dir)) {
+			this.directories.put(dir, dir.register(this.service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+		}
+
+		List<Listener> fileListeners = this.listeners.get(path);
+		if (fileListeners == null) {
+			fileListeners = new ArrayList<Listener>();
+			this.listeners.put(path, fileListeners);
+		}
+		fileListeners.add(listener);
+	}
+
+	/* package-private */ synchronized void unregister(File file, Listener listener) throws IOException {
+		final Path path = file.getCanonicalFile().toPath();
+
+		final List<Listener> fileListeners = this.listeners.get(path);
+		if (fileListeners == null || !fileListeners.remove(listener) || !fileListeners.isEmpty()) {
+			return;
+		}
+		this.listeners.remove(path);
+
+		final Path dir = path.getParent();
+		for (Path p : this.listeners.keySet()) {
+			if (p.getParent().equals(dir)) {
+				return;
+			}
+		}
+		// no more files to watch there
+		final WatchKey key = this.directories.remove(dir);
+		if (key != null) {
+			key.cancel();
+		}
+	}
+
+	private synchronized boolean isWatched(Path path) {
+		return this.listeners.containsKey(path);
+	}
+
+	private synchronized List<Listener> getListeners(Path path) {
+		final List<Listener> fileListeners = this.listeners.get(path);
+		return fileListeners != null ? new ArrayList<Listener>(fileListeners) : new ArrayList<Listener>(0);
+	}
+
+	private synchronized List<Path> getWatchedFiles(Path dir) {
+		final List<Path> files = new ArrayList<Path>();
+		for (Path p : this.listeners.keySet()) {
+			if (p.getParent().equals(dir)) {
+				files.add(p);
+			}
+		}
+		return files;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				WatchKey key = null;
+				if (this.pending.isEmpty()) {
+					key = this.service.take();
+				} else {
+					key = this.service.poll(getNextDue() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				}
+
+				if (key != null) {
+					final Path dir = (Path)key.watchable();
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							// events got lost, any file might have changed
+							for (Path p : getWatchedFiles(dir)) {
+								this.pending.put(p, Long.valueOf(System.currentTimeMillis() + QUIET_MILLIS));
+							}
+						} else {
+							final Path p = dir.resolve((Path)event.context());
+							if (isWatched(p)) {
+								this.pending.put(p, Long.valueOf(System.currentTimeMillis() + QUIET_MILLIS));
+							}
+						}
+					}
+					key.reset();
+				}
+
+				notifyDue();
+			}
+		} catch (InterruptedException e) {
+			// Stop watching
+		} catch (ClosedWatchServiceException e) {
+			// Stop watching
+		}
+	}
+
+	private long getNextDue() {
+		long next = Long.MAX_VALUE;
+		for (Long due : this.pending.values()) {
+			next = Math.min(next, due.longValue());
+		}
+		return next;
+	}
+
+	private void notifyDue() {
+		final long now = System.currentTimeMillis();
+		final Iterator<Map.Entry<Path, Long>> it = this.pending.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<Path, Long> e = it.next();
+			if (e.getValue().longValue() <= now) {
+				it.remove();
+
+				final File file = e.getKey().toFile();
+				try {
+					// other connections must not get the outdated version anymore
+					PoiSSFDriver.getWorkbookCache().invalidate(file);
+				} catch (IOException e1) {
+					// Do nothing
+				}
+
+				for (Listener listener : getListeners(e.getKey())) {
+					try {
+						listener.workbookChanged(file);
+					} catch (RuntimeException e1) {
+						// must not stop the watcher
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+package de.einwesen.jdbc.poissf;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Forward only {@link SheetCursor} reading a XLSX sheet in three stages:
+ * a thread of its own tokenizes the XML into batches of raw rows, the driver's thread pool converts
+ * them to typed values, and the caller takes the batches in order from a bounded queue.
+ */
+/* package-private */ class XSSFPipelinedSheetCursor implements SheetCursor {
+
+	/** cells per batch, so wide sheets don't get huge batches */
+	private static final int BATCH_CELLS = 32 * 1024;
+	private static final int QUEUED_BATCHES = 8;
+
+	private final XSSFStreamingSheetCursor parser;
+	private final int columnCount;
+	private final BlockingQueue<Future<XSSFRowBatch>> batches = new ArrayBlockingQueue<Future<XSSFRowBatch>>(QUEUED_BATCHES);
+	private Thread parserThread = null;
+	private volatile boolean closed = false;
+
+	private XSSFRowBatch currentBatch = null;
+	private int currentBatchStart = 0;
+	private int position = -1;
+	private int rowCount = -1;
+
+	/* package-private */ XSSFPipelinedSheetCursor(XSSFStreamingSheetCursor parser, final ExecutorService executor) throws SQLException {
+		this.parser = parser;
+		this.columnCount = parser.getColumnCount();
+		final int batchSize = Math.max(1, BATCH_CELLS / this.columnCount);
+
+		this.parserThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				parse(executor, batchSize);
+			}
+		}, "poissf-parser-" + parser.getTableName());
+		this.parserThread.setDaemon(true);
+		this.parserThread.start();
+	}
+
+	private void parse(ExecutorService executor, int batchSize) {
+		try {
+			while (!this.closed) {
+				final XSSFRowBatch batch = new XSSFRowBatch(this.columnCount, batchSize);
+				if (!this.parser.fill(batch)) {
+					break;
+				}
+
+				this.batches.put(executor.submit(new Callable<XSSFRowBatch>() {
+					@Override
+					public XSSFRowBatch call() throws Exception {
+						XSSFPipelinedSheetCursor.this.parser.convert(batch);
+						return batch;
+					}
+				}));
+			}
+			// end of the sheet
+			this.batches.put(completed(null));
+		} catch (InterruptedException e) {
+			// closed
+		} catch (final Throwable e) {
+			try {
+				this.batches.put(completed(e));
+			} catch (InterruptedException e1) {
+				// closed
+			}
+		} finally {
+			this.parser.close();
+		}
+	}
+
+	private static Future<XSSFRowBatch> completed(final Throwable error) {
+		final FutureTask<XSSFRowBatch> future = new FutureTask<XSSFRowBatch>(new Callable<XSSFRowBatch>() {
+			@Override
+			public XSSFRowBatch call() throws Exception {
+				if (error instanceof Exception) {
+					throw (Exception)error;
+				} else if (error != null) {
+					throw new Exception(error);
+				}
+				return null;
+			}
+		});
+		future.run();
+		return future;
+	}
+
+	@Override
+	public String getTableName() {
+		return this.parser.getTableName();
+	}
+
+	@Override
+	public int getColumnCount() throws SQLException {
+		return this.columnCount;
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.rowCount;
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return false;
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		if (row < this.position) {
+			throw new SQLException(PoiSSFDriver.CURSOR_IS_FORWARD_ONLY);
+		}
+
+		if (this.rowCount != -1) {
+			this.position = row;
+			return row < this.rowCount;
+		}
+
+		while (this.currentBatch == null || row >= this.currentBatchStart + this.currentBatch.size()) {
+			if (this.currentBatch != null) {
+				this.currentBatchStart += this.currentBatch.size();
+			}
+			this.currentBatch = nextBatch();
+
+			if (this.currentBatch == null) {
+				this.rowCount = this.currentBatchStart;
+				this.position = row;
+				close();
+				return false;
+			}
+		}
+
+		this.position = row;
+		return true;
+	}
+
+	private XSSFRowBatch nextBatch() throws SQLException {
+		try {
+			return this.batches.take().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException)e.getCause();
+			}
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e.getCause());
+		}
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		return this.currentBatch.getCellType(this.position - this.currentBatchStart, column);
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return this.currentBatch.getNumericCellValue(this.position - this.currentBatchStart, column);
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return this.currentBatch.getStringCellValue(this.position - this.currentBatchStart, column);
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return getNumericCellValue(column) != 0;
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return (byte)getNumericCellValue(column);
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		return this.currentBatch.isCellDateFormatted(this.position - this.currentBatchStart, column);
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		throw new SQLException(PoiSSFDriver.RESULT_SET_NOT_UPDATETABLE);
+	}
+
+	@Override
+	public void close() {
+		if (!this.closed) {
+			this.closed = true;
+			// the parser thread closes the sheet stream itself, as it may still be reading from it
+			this.parserThread.interrupt();
+
+			for (Future<XSSFRowBatch> f : this.batches) {
+				f.cancel(false);
+			}
+			this.batches.clear();
+		}
+		this.currentBatch = null;
+	}
+
+}
@@ -0,0 +1,197 @@
+package de.einwesen.jdbc.poissf;
+
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+
+/**
+ * Consecutive rows of a XLSX sheet, first holding the cells as read from the XML
+ * and after {@link #convert(PackedStringTable, DateStyles)} their typed values.
+ *
+ * Reading and converting may happen on different threads, the batch must be handed over safely in between.
+ */
+/* package-private */ class XSSFRowBatch {
+
+	private static final byte RAW_BLANK = 0;
+	private static final byte RAW_NUMBER = 1;
+	private static final byte RAW_SHARED_STRING = 2;
+	private static final byte RAW_BOOLEAN = 3;
+	private static final byte RAW_ERROR = 4;
+	private static final byte RAW_STRING = 5;
+
+	private final int columnCount;
+	private final int capacity;
+	private int size = 0;
+
+	private final byte[] rawTypes;
+	private final int[] styles;
+	private final String[] rawValues;
+
+	private final byte[] cellTypes;
+	private final double[] numericValues;
+	private final String[] stringValues;
+	private final boolean[] dateFormatted;
+
+	/* package-private */ XSSFRowBatch(int columnCount, int capacity) {
+		this.columnCount = columnCount;
+		this.capacity = capacity;
+
+		final int cells = columnCount * capacity;
+		this.rawTypes = new byte[cells];
+		this.styles = new int[cells];
+		this.rawValues = new String[cells];
+		this.cellTypes = new byte[cells];
+		this.numericValues = new double[cells];
+		this.stringValues = new String[cells];
+		this.dateFormatted = new boolean[cells];
+	}
+
+	/* package-private */ int size() {
+		return this.size;
+	}
+
+	/* package-private */ boolean isFull() {
+		return this.size == this.capacity;
+	}
+
+	/**
+	 * Removes all rows, so the batch can be filled again.
+	 */
+	/* package-private */ void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 * @return the index of the new, blank row
+	 */
+	/* package-private */ int addRow() {
+		final int row = this.size++;
+		final int from = row * this.columnCount;
+		final int to = from + this.columnCount;
+		Arrays.fill(this.rawTypes, from, to, RAW_BLANK);
+		Arrays.fill(this.rawValues, from, to, null);
+		return row;
+	}
+
+	/**
+	 * @param type value of the <code>t</code> attribute of the cell
+	 */
+	/* package-private */ void setRawCell(int row, int column, String type, int style, String value) {
+		final int i = row * this.columnCount + column;
+		this.styles[i] = style;
+		this.rawValues[i] = value;
+
+		if (type == null || "n".equals(type)) {
+			this.rawTypes[i] = value != null && value.length() > 0 ? RAW_NUMBER : RAW_BLANK;
+		} else if ("s".equals(type)) {
+			this.rawTypes[i] = value != null ? RAW_SHARED_STRING : RAW_BLANK;
+		} else if ("b".equals(type)) {
+			this.rawTypes[i] = RAW_BOOLEAN;
+		} else if ("e".equals(type)) {
+			this.rawTypes[i] = RAW_ERROR;
+		} else {
+			// inlineStr, str (formula result) and d (ISO 8601 date)
+			this.rawTypes[i] = RAW_STRING;
+		}
+	}
+
+	/* package-private */ void convert(PackedStringTable sharedStrings, DateStyles dateStyles) {
+		final int cells = this.size * this.columnCount;
+		for (int i=0; i < cells; i++) {
+			final String value = this.rawValues[i];
+			this.stringValues[i] = null;
+			this.dateFormatted[i] = false;
+
+			switch (this.rawTypes[i]) {
+				case RAW_NUMBER:
+					this.cellTypes[i] = Cell.CELL_TYPE_NUMERIC;
+					this.numericValues[i] = Double.parseDouble(value);
+					this.dateFormatted[i] = DateUtil.isValidExcelDate(this.numericValues[i]) && dateStyles.isDateStyle(this.styles[i]);
+					break;
+				case RAW_SHARED_STRING:
+					this.cellTypes[i] = Cell.CELL_TYPE_STRING;
+					this.stringValues[i] = sharedStrings.get(Integer.parseInt(value));
+					break;
+				case RAW_BOOLEAN:
+					this.cellTypes[i] = Cell.CELL_TYPE_BOOLEAN;
+					this.numericValues[i] = "1".equals(value) ? 1 : 0;
+					break;
+				case RAW_ERROR:
+					try {
+						this.numericValues[i] = FormulaError.forString(value).getCode();
+						this.cellTypes[i] = Cell.CELL_TYPE_ERROR;
+					} catch (IllegalArgumentException e) {
+						this.cellTypes[i] = Cell.CELL_TYPE_STRING;
+						this.stringValues[i] = value;
+					}
+					break;
+				case RAW_STRING:
+					this.cellTypes[i] = Cell.CELL_TYPE_STRING;
+					this.stringValues[i] = value != null ? value : "";
+					break;
+				default:
+					this.cellTypes[i] = Cell.CELL_TYPE_BLANK;
+					break;
+			}
+			// not needed anymore
+			this.rawValues[i] = null;
+		}
+	}
+
+	/* package-private */ int getCellType(int row, int column) {
+		return this.cellTypes[row * this.columnCount + column];
+	}
+
+	/* package-private */ double getNumericCellValue(int row, int column) {
+		return this.numericValues[row * this.columnCount + column];
+	}
+
+	/* package-private */ String getStringCellValue(int row, int column) {
+		return this.stringValues[row * this.columnCount + column];
+	}
+
+	/* package-private */ boolean isCellDateFormatted(int row, int column) {
+		return this.dateFormatted[row * this.columnCount + column];
+	}
+
+	/**
+	 * Remembers which cell styles of a workbook have a date format.
+	 */
+	/* package-private */ static class DateStyles {
+
+		private static final byte DATE_FORMAT_UNKNOWN = 0;
+		private static final byte DATE_FORMAT_NO = 1;
+		private static final byte DATE_FORMAT_YES = 2;
+
+		private final StylesTable styles;
+		// racing threads can only write the same value
+		private final byte[] dateFormatCache;
+
+		/* package-private */ DateStyles(StylesTable styles) {
+			this.styles = styles;
+			this.dateFormatCache = new byte[styles != null ? styles.getNumCellStyles() : 0];
+		}
+
+		/* package-private */ boolean isDateStyle(int styleIndex) {
+			if (this.styles == null) {
+				return false;
+			}
+
+			if (styleIndex < this.dateFormatCache.length && this.dateFormatCache[styleIndex] != DATE_FORMAT_UNKNOWN) {
+				return this.dateFormatCache[styleIndex] == DATE_FORMAT_YES;
+			}
+
+			final XSSFCellStyle style = this.styles.getStyleAt(styleIndex);
+			final boolean isDate = style != null && DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+			if (styleIndex < this.dateFormatCache.length) {
+				this.dateFormatCache[styleIndex] = isDate ? DATE_FORMAT_YES : DATE_FORMAT_NO;
+			}
+			return isDate;
+		}
+	}
+
+}
@@ -0,0 +1,326 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.BitSet;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Forward only {@link SheetCursor} pulling the rows of a XLSX sheet part on demand,
+ * so only the current row is held in memory. Cells of columns not asked for are skipped without being decoded.
+ *
+ * As formulas can't be evaluated without the whole workbook, the values cached in the file are returned.
+ */
+/* package-private */ class XSSFStreamingSheetCursor implements SheetCursor {
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	private static final int END_OF_SHEET = Integer.MAX_VALUE;
+
+	private String tableName = null;
+	private PackedStringTable sharedStrings = null;
+	private XSSFRowBatch.DateStyles dateStyles = null;
+	/** columns to read, <code>null</code> for all */
+	private BitSet columns = null;
+
+	private InputStream sheetStream = null;
+	private XMLStreamReader reader = null;
+
+	private int columnCount = -1;
+	private int rowCount = -1;
+	private int position = -1;
+	private int lastRowNum = -1;
+	private int nextRowNum = END_OF_SHEET;
+
+	/** the current row */
+	private XSSFRowBatch currentRow = null;
+
+	/* package-private */ XSSFStreamingSheetCursor(String tableName, InputStream sheetStream, PackedStringTable sharedStrings, XSSFRowBatch.DateStyles dateStyles, BitSet columns) throws SQLException {
+		this.tableName = tableName;
+		this.columns = columns;
+		this.sheetStream = sheetStream;
+		this.sharedStrings = sharedStrings;
+		this.dateStyles = dateStyles;
+
+		try {
+			this.reader = XML_INPUT_FACTORY.createXMLStreamReader(sheetStream);
+
+			while (this.reader.hasNext()) {
+				if (this.reader.next() == XMLStreamConstants.START_ELEMENT) {
+					final String name = this.reader.getLocalName();
+					if ("dimension".equals(name)) {
+						final String ref = this.reader.getAttributeValue(null, "ref");
+						if (ref != null) {
+							this.columnCount = getColumnIndex(ref.substring(ref.indexOf(':') + 1)) + 1;
+						}
+					} else if ("sheetData".equals(name)) {
+						advanceToNextRow();
+						break;
+					}
+				}
+			}
+		} catch (XMLStreamException e) {
+			close();
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		}
+
+		if (this.columnCount < 1) {
+			close();
+			throw new SQLException("Can't figure out number of columns");
+		}
+
+		this.currentRow = new XSSFRowBatch(this.columnCount, 1);
+		this.currentRow.addRow();
+	}
+
+	/* package-private */ static int getColumnIndex(String cellRef) {
+		int column = 0;
+		for (int i=0; i < cellRef.length(); i++) {
+			final char c = cellRef.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				column = column * 26 + (c - 'A' + 1);
+			} else if (c >= 'a' && c <= 'z') {
+				column = column * 26 + (c - 'a' + 1);
+			} else if (c != '$') {
+				break;
+			}
+		}
+		return column - 1;
+	}
+
+	private void advanceToNextRow() throws XMLStreamException {
+		while (this.reader.hasNext()) {
+			final int event = this.reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT && "row".equals(this.reader.getLocalName())) {
+				final String r = this.reader.getAttributeValue(null, "r");
+				this.nextRowNum = r != null ? Integer.parseInt(r) - 1 : this.lastRowNum + 1;
+				this.lastRowNum = this.nextRowNum;
+				return;
+			} else if (event == XMLStreamConstants.END_ELEMENT && "sheetData".equals(this.reader.getLocalName())) {
+				break;
+			}
+		}
+		this.nextRowNum = END_OF_SHEET;
+	}
+
+	private void skipElement() throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			final int event = this.reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private void readRow(XSSFRowBatch batch, int row) throws XMLStreamException {
+		int column = -1;
+		while (true) {
+			final int event = this.reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				if ("c".equals(this.reader.getLocalName())) {
+					final String r = this.reader.getAttributeValue(null, "r");
+					column = r != null ? getColumnIndex(r) : column + 1;
+					if (column < this.columnCount && (this.columns == null || this.columns.get(column))) {
+						readCell(batch, row, column);
+					} else {
+						skipElement();
+					}
+				} else {
+					skipElement();
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				return;
+			}
+		}
+	}
+
+	private void readCell(XSSFRowBatch batch, int row, int column) throws XMLStreamException {
+		final String type = this.reader.getAttributeValue(null, "t");
+		final String style = this.reader.getAttributeValue(null, "s");
+
+		String value = null;
+		while (true) {
+			final int event = this.reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				final String name = this.reader.getLocalName();
+				if ("v".equals(name)) {
+					value = this.reader.getElementText();
+				} else if ("is".equals(name)) {
+					value = PackedStringTable.readStringItem(this.reader);
+				} else {
+					skipElement();
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			}
+		}
+
+		batch.setRawCell(row, column, type, style != null ? Integer.parseInt(style) : 0, value);
+	}
+
+	/**
+	 * Reads the rows following the current one into the batch, without converting them.
+	 * The cursor itself is not moved to these rows.
+	 *
+	 * @return <code>false</code> if there are no more rows
+	 */
+	/* package-private */ boolean fill(XSSFRowBatch batch) throws SQLException {
+		if (this.reader == null) {
+			return false;
+		}
+
+		try {
+			while (!batch.isFull()) {
+				if (this.nextRowNum == END_OF_SHEET && this.position + 1 > this.lastRowNum) {
+					this.rowCount = this.lastRowNum + 1;
+					close();
+					break;
+				}
+
+				this.position++;
+				final int row = batch.addRow();
+				if (this.position == this.nextRowNum) {
+					readRow(batch, row);
+					advanceToNextRow();
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		}
+		return batch.size() > 0;
+	}
+
+	/**
+	 * Converts the rows read by {@link #fill(XSSFRowBatch)}, may be called on any thread.
+	 */
+	/* package-private */ void convert(XSSFRowBatch batch) {
+		batch.convert(this.sharedStrings, this.dateStyles);
+	}
+
+	@Override
+	public String getTableName() {
+		return this.tableName;
+	}
+
+	@Override
+	public int getColumnCount() throws SQLException {
+		return this.columnCount;
+	}
+
+	@Override
+	public int getRowCount() {
+		return this.rowCount;
+	}
+
+	@Override
+	public boolean isScrollable() {
+		return false;
+	}
+
+	@Override
+	public boolean moveTo(int row) throws SQLException {
+		if (row < this.position) {
+			throw new SQLException(PoiSSFDriver.CURSOR_IS_FORWARD_ONLY);
+		}
+
+		if (this.reader == null) {
+			return row < this.rowCount;
+		}
+
+		try {
+			while (this.position < row) {
+				this.position++;
+
+				if (this.nextRowNum == END_OF_SHEET && this.position > this.lastRowNum) {
+					this.rowCount = this.lastRowNum + 1;
+					this.currentRow.clear();
+					this.currentRow.addRow();
+					convert(this.currentRow);
+					close();
+					return false;
+				}
+
+				if (this.position == row) {
+					this.currentRow.clear();
+					this.currentRow.addRow();
+					if (this.position == this.nextRowNum) {
+						readRow(this.currentRow, 0);
+						advanceToNextRow();
+					}
+					convert(this.currentRow);
+				} else if (this.position == this.nextRowNum) {
+					skipElement();
+					advanceToNextRow();
+				}
+			}
+			return true;
+		} catch (XMLStreamException e) {
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		}
+	}
+
+	@Override
+	public int getCellType(int column) throws SQLException {
+		return this.currentRow.getCellType(0, column);
+	}
+
+	@Override
+	public double getNumericCellValue(int column) throws SQLException {
+		return this.currentRow.getNumericCellValue(0, column);
+	}
+
+	@Override
+	public String getStringCellValue(int column) throws SQLException {
+		return this.currentRow.getStringCellValue(0, column);
+	}
+
+	@Override
+	public boolean getBooleanCellValue(int column) throws SQLException {
+		return this.currentRow.getNumericCellValue(0, column) != 0;
+	}
+
+	@Override
+	public byte getErrorCellValue(int column) throws SQLException {
+		return (byte)this.currentRow.getNumericCellValue(0, column);
+	}
+
+	@Override
+	public boolean isCellDateFormatted(int column) throws SQLException {
+		return this.currentRow.isCellDateFormatted(0, column);
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		throw new SQLException(PoiSSFDriver.RESULT_SET_NOT_UPDATETABLE);
+	}
+
+	@Override
+	public void close() {
+		if (this.reader != null) {
+			try {
+				this.reader.close();
+			} catch (XMLStreamException e) {
+				// Do nothing
+			}
+			this.reader = null;
+		}
+
+		if (this.sheetStream != null) {
+			try {
+				this.sheetStream.close();
+			} catch (IOException e) {
+				// Do nothing
+			}
+			this.sheetStream = null;
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+package de.einwesen.jdbc.poissf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.ZipPackagePart;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+
+/* package-private */ class XSSFStreamingWorkbook implements StreamingWorkbook {
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	private OPCPackage pkg = null;
+	private XSSFReader reader = null;
+	private PackedStringTable sharedStrings = null;
+	private XSSFRowBatch.DateStyles dateStyles = null;
+	private final boolean pipelined;
+
+	private final List<String> sheetNames = new ArrayList<String>();
+	private final Map<String, SheetRange> definedNames = new HashMap<String, SheetRange>();
+	private final Map<String, String> sheetVersions = new HashMap<String, String>();
+	private String sharedStringsVersion = null;
+	private String stylesVersion = null;
+
+	/**
+	 * @param pipelined parse the sheets on a thread of their own, see {@link XSSFPipelinedSheetCursor}
+	 */
+	/* package-private */ XSSFStreamingWorkbook(File file, boolean pipelined) throws IOException, InvalidFormatException {
+		this.pipelined = pipelined;
+		this.pkg = OPCPackage.open(file.getPath(), PackageAccess.READ);
+		try {
+			this.reader = new XSSFReader(this.pkg);
+			final StylesTable styles = this.reader.getStylesTable();
+			this.dateStyles = new XSSFRowBatch.DateStyles(styles);
+
+			final XSSFReader.SheetIterator it = (XSSFReader.SheetIterator)this.reader.getSheetsData();
+			while (it.hasNext()) {
+				it.next().close();
+				this.sheetNames.add(it.getSheetName());
+				this.sheetVersions.put(it.getSheetName().toLowerCase(), getVersion(it.getSheetPart()));
+				TablePart.readTables(it.getSheetPart(), it.getSheetName(), styles, this.definedNames);
+			}
+			readDefinedNames();
+			this.sharedStringsVersion = getVersion(getPart(XSSFRelation.SHARED_STRINGS));
+			this.stylesVersion = getVersion(getPart(XSSFRelation.STYLES));
+		} catch (OpenXML4JException e) {
+			this.pkg.revert();
+			throw new IOException(e);
+		} catch (XMLStreamException e) {
+			this.pkg.revert();
+			throw new IOException(e);
+		} catch (IOException e) {
+			this.pkg.revert();
+			throw e;
+		}
+	}
+
+	@Override
+	public SheetCursor openSheetCursor(String sheetName, BitSet columns) throws SQLException {
+		try {
+			final PackedStringTable sharedStrings = getSharedStrings();
+
+			final XSSFReader.SheetIterator it = (XSSFReader.SheetIterator)this.reader.getSheetsData();
+			while (it.hasNext()) {
+				final InputStream is = it.next();
+				if (it.getSheetName().equalsIgnoreCase(sheetName)) {
+					final XSSFStreamingSheetCursor cursor = new XSSFStreamingSheetCursor(it.getSheetName(), is, sharedStrings, this.dateStyles, columns);
+					return this.pipelined ? new XSSFPipelinedSheetCursor(cursor, PoiSSFDriver.getExecutor()) : cursor;
+				}
+				is.close();
+			}
+		} catch (SQLException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new SQLException(PoiSSFDriver.ERROR_RETRIEVING_DATA, e);
+		}
+
+		throw new SQLException(String.format(PoiSSFDriver.SHEET_NOT_FOUND, sheetName));
+	}
+
+	@Override
+	public List<String> getSheetNames() {
+		return new ArrayList<String>(this.sheetNames);
+	}
+
+	@Override
+	public Map<String, SheetRange> getDefinedNames() {
+		return this.definedNames;
+	}
+
+	/**
+	 * Reads the names of the workbook part which aren't local to a sheet.
+	 */
+	private void readDefinedNames() throws IOException, InvalidFormatException, XMLStreamException {
+		final InputStream is = this.reader.getWorkbookData();
+		try {
+			final XMLStreamReader xml = XML_INPUT_FACTORY.createXMLStreamReader(is);
+			try {
+				while (xml.hasNext()) {
+					if (xml.next() == XMLStreamConstants.START_ELEMENT && "definedName".equals(xml.getLocalName())) {
+						final String name = xml.getAttributeValue(null, "name");
+						final boolean local = xml.getAttributeValue(null, "localSheetId") != null;
+						final SheetRange range = SheetRange.parse(xml.getElementText());
+						if (name != null && !local && range != null && range.getSheetName() != null) {
+							this.definedNames.put(name.toLowerCase(), range);
+						}
+					}
+				}
+			} finally {
+				xml.close();
+			}
+		} finally {
+			is.close();
+		}
+	}
+
+	@Override
+	public boolean supportsConcurrentCursors() {
+		// each sheet is a part of its own in the zip file
+		return true;
+	}
+
+	@Override
+	public String getSheetVersion(String sheetName, boolean withSharedStrings) {
+		final String sheetVersion = this.sheetVersions.get(sheetName.toLowerCase());
+		if (sheetVersion == null || this.stylesVersion == null || (withSharedStrings && this.sharedStringsVersion == null)) {
+			return null;
+		}
+		// the styles tell which numbers are dates
+		return sheetVersion + "/" + this.stylesVersion + (withSharedStrings ? "/" + this.sharedStringsVersion : "");
+	}
+
+	private PackagePart getPart(XSSFRelation relation) {
+		final List<PackagePart> parts = this.pkg.getPartsByContentType(relation.getContentType());
+		return parts.isEmpty() ? null : parts.get(0);
+	}
+
+	/**
+	 * @return checksum and size of the part as stored in the zip file, so nothing needs to be inflated
+	 */
+	private static String getVersion(PackagePart part) {
+		if (part == null) {
+			return "none";
+		}
+		if (part instanceof ZipPackagePart) {
+			final ZipEntry entry = ((ZipPackagePart)part).getZipArchive();
+			if (entry != null && entry.getCrc() != -1 && entry.getSize() != -1) {
+				return Long.toHexString(entry.getCrc()) + ":" + entry.getSize();
+			}
+		}
+		return null;
+	}
+
+	private synchronized PackedStringTable getSharedStrings() throws IOException {
+		if (this.sharedStrings == null) {
+			this.sharedStrings = readSharedStrings();
+		}
+		return this.sharedStrings;
+	}
+
+	private PackedStringTable readSharedStrings() throws IOException {
+		final PackagePart part = getPart(XSSFRelation.SHARED_STRINGS);
+		if (part == null) {
+			final PackedStringTable empty = new PackedStringTable(0);
+			empty.finish();
+			return empty;
+		}
+
+		final InputStream is = part.getInputStream();
+		try {
+			return PackedStringTable.readSharedStrings(is, PoiSSFDriver.getStringsSpillBytes());
+		} finally {
+			is.close();
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		this.reader = null;
+		this.dateStyles = null;
+
+		if (this.sharedStrings != null) {
+			this.sharedStrings.close();
+			this.sharedStrings = null;
+		}
+
+		if (this.pkg != null) {
+			// opened read only, so there is nothing to save
+			this.pkg.revert();
+			this.pkg = null;
+		}
+	}
+
+}